@@ -5,22 +5,111 @@
  * Bugs:       no known bugs
  */
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.lang.IllegalArgumentException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** This is the AVLTree class. This class creates an AVLTree
- * that sorts elements based on their keys. 
+ * that sorts elements based on their keys. The keys are sorted by their
+ * natural ordering, or by a Comparator given to the constructor, with one
+ * three-way comparison per level.
+ *
+ * A tree can also be given a KeyPrefix. Each node then keeps a long that
+ * sums up the start of its key, and a search compares those first. Keys
+ * like long Strings or byte arrays live in separate objects, so this
+ * settles most levels without touching the key.
+ *
+ * With setLazyDeletion, a delete does not unlink its node. It marks the
+ * node as a tombstone and takes one off the sizes above it, so it costs
+ * one descent and never rotates. Searches, iterators and the rank methods
+ * step over tombstones, and inserting a key that has a tombstone brings
+ * the node back. compact rebuilds the tree without its tombstones in O(n).
  * @param <K> generic type for elements to be inserted
  */
-public class AVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
+public class AVLTree<K> implements AVLTreeADT<K>, Iterable<K> {
 	/* fields */
+	private static final int MAX_DEPTH = 64; //an AVLTree with 2^31 keys is at most 45 levels deep
+	private static final int PRINT_BUFFER_SIZE = 8192; //characters print buffers before writing them out
+	private static final int PARALLEL_THRESHOLD = 4096; //keys below which a set operation stays on one thread
+	private static final int SAVE_MAGIC = 0x41564C53; //"AVLS", the first four bytes of a save file, unlike a MappedAVLTree file
+	private static final int SAVE_VERSION = 1; //layout of the save files this class writes
+	private static final int SAVE_BUFFER_SIZE = 65536; //bytes save and load move through a channel at a time
 	private BSTNode<K> root; //this is the root element (top level element in AVLTree)
-	private int heightOfTree; //this is the height of the tree (used in insert method?)
-	private int currentHeightOfSubtree; //this is the reference to the current height in the insert method
-	private BSTNode <K> g; //this is the grandparent node pointer for the checkHeightImbalance method
-	private BSTNode <K> p; //this is the parent node pointer for the checkHeightImbalance method
-	private BSTNode <K> c; //this is the child node pointer for the checkHeightImbalance method
-	private BSTNode <K> newlyInserted; //this is a reference to the most recently inserted node
-	private BSTNode <K> toBePrinted; //separate pointer at the root for print method
+	private BSTNode<K>[] path; //reused stack of the nodes from the root down to the current node
+	private int modCount; //number of changes made to the tree, checked by iterators
+	private int batchMatches; //keys of the current batch that were found in the tree
+	private AVLTreeMetrics metrics; //counters updated by every operation, or null when metrics are off
+	private int pathDepth; //number of nodes descend left on the path stack
+	private int pathCmp; //comparison of the key descend looked for with the last node on the path
+	private int pathModCount; //modCount when descend filled the path stack
+	private final Comparator<? super K> comparator; //order of the keys, or null for their natural ordering
+	private final KeyPrefix<? super K> prefix; //sums up the key kept in each node, or null for none
+	private int tombstones; //nodes whose keys were deleted lazily but are still linked in
+	private double compactionRatio; //share of nodes that may be tombstones before a delete compacts, or 0 when deletes unlink
+	private BSTNode<K> pathTombstone; //tombstone holding the key descend looked for, or null
+	private int pathIntact; //nodes at the top of the path stack that the last insert or delete left in place
+	private int pathToken; //number of times the path stack was refilled, so a caller can tell its path was replaced
+	
+	/**
+	 * This is the constructor for an AVLTree. It creates an empty tree
+	 * and allocates the path stack that insert and delete reuse. The keys
+	 * must be Comparable and are sorted by their natural ordering.
+	 */
+	public AVLTree() {
+		this(null, null);
+	}
+	
+	/**
+	 * This is the constructor for an AVLTree sorted by a Comparator.
+	 * @param comparator order of the keys, or null for their natural ordering
+	 */
+	public AVLTree(Comparator<? super K> comparator) {
+		this(comparator, null);
+	}
+	
+	/**
+	 * This is the constructor for an AVLTree whose nodes keep a prefix of
+	 * their keys, for example new AVLTree&lt;String&gt;(null, KeyPrefix.STRING).
+	 * @param comparator order of the keys, or null for their natural ordering
+	 * @param prefix sums up a key in a way that agrees with that order, or
+	 * null to always compare whole keys
+	 */
+	public AVLTree(Comparator<? super K> comparator, KeyPrefix<? super K> prefix) {
+		root = null;
+		path = newPath();
+		this.comparator = comparator;
+		this.prefix = prefix;
+	}
+	
+	/**
+	 * This is the newPath method.
+	 * @return an empty stack deep enough for any path in an AVLTree
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private BSTNode<K>[] newPath() {
+		return (BSTNode<K>[]) new AVLTree.BSTNode[MAX_DEPTH];
+	}
 	
 	/** This is the BSTNode class. This class represents the elements
 	 * that will be inserted into the AVLTree. 
@@ -29,7 +118,10 @@ public class AVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
 	class BSTNode<K> {
 		/* fields */
 		private K key;	//this is the type of element that is being used in the tree
+		private Object value;	//value stored with the key by an AVLTreeMap, null in a plain AVLTree
 		private int height;	//height of the node in the tree
+		private int size;	//number of keys in the subtree rooted at this node, not counting tombstones
+		private boolean deleted;	//whether this node is a tombstone left by a lazy delete
 		private BSTNode<K> left, right;	//references to each node's left and right subtree
 		
 		/**
@@ -41,6 +133,7 @@ public class AVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
 		BSTNode(K key) {
 			this.key = key;
 			height = 0;
+			size = 1;
 			right = null;
 			left = null;
 		}
@@ -98,10 +191,45 @@ public class AVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
 		 * in the AVLTree.
 		 * @return the key of the node this method is called on
 		 */
-		private K getKey() {
+		K getKey() {
 			return this.key;
 		}
 		
+		/**
+		 * This is the getValue() accessor method.
+		 * @return the value AVLTreeMap stored with this node's key
+		 */
+		Object getValue() {
+			return this.value;
+		}
+		
+		/**
+		 * This is the setValue() mutator method.
+		 * @param value value to store with this node's key
+		 */
+		void setValue(Object value) {
+			this.value = value;
+		}
+		
+	}
+	
+	/** This is the PrefixedNode class. It is the BSTNode used by a tree
+	 * with a KeyPrefix, so trees without one do not pay for the extra field.
+	 * @param <K> generic type for elements to be inserted
+	 */
+	class PrefixedNode<K> extends BSTNode<K> {
+		/* fields */
+		private long keyPrefix;	//prefix of this node's key
+		
+		/**
+		 * This is the constructor for a PrefixedNode.
+		 * @param key nodes are inserted in an order based on their key
+		 * @param keyPrefix prefix of key
+		 */
+		PrefixedNode(K key, long keyPrefix) {
+			super(key);
+			this.keyPrefix = keyPrefix;
+		}
 	}
 	
 	public static void main (String[] args) throws IllegalArgumentException, DuplicateKeyException {
@@ -111,251 +239,2481 @@ public class AVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
 		tree.insert(30);
 	}
 	
-	private void setRoot(BSTNode<K> node) {
-		root = node;
+	/**
+	 * This is the fromSorted method. This method builds a perfectly height
+	 * balanced AVLTree straight from keys that are already in ascending order.
+	 * Every node is created once with its final height, so the load takes O(n)
+	 * time and never rotates.
+	 * @param sortedKeys keys in strictly ascending order
+	 * @param rejectUnsorted if true the keys are checked in one pass before the
+	 * tree is built; if false the caller guarantees their order
+	 * @return a new AVLTree holding the keys
+	 * @throws IllegalArgumentException if a key is null, or if rejectUnsorted is
+	 * set and a key is not greater than the key before it
+	 */
+	public static <K extends Comparable<K>> AVLTree<K> fromSorted(K[] sortedKeys, boolean rejectUnsorted)
+			throws IllegalArgumentException {
+		return fromSortedArray(sortedKeys, sortedKeys.length, rejectUnsorted);
+	}
+	
+	/**
+	 * This is the fromSorted method for an Iterator. The keys are copied into
+	 * an array first so the tree can be split at the middle key.
+	 * @param sortedKeys keys in strictly ascending order
+	 * @param rejectUnsorted if true the keys are checked before the tree is built
+	 * @return a new AVLTree holding the keys
+	 * @throws IllegalArgumentException if a key is null or, when checked, out of order
+	 */
+	public static <K extends Comparable<K>> AVLTree<K> fromSorted(Iterator<? extends K> sortedKeys,
+			boolean rejectUnsorted) throws IllegalArgumentException {
+		ArrayList<K> keys = new ArrayList<K>();
+		while(sortedKeys.hasNext()) {
+			keys.add(sortedKeys.next());
+		}
+		return fromSortedArray(keys.toArray(), keys.size(), rejectUnsorted);
+	}
+	
+	/**
+	 * This is the fromSorted method for a Stream.
+	 * @param sortedKeys keys in strictly ascending order
+	 * @param rejectUnsorted if true the keys are checked before the tree is built
+	 * @return a new AVLTree holding the keys
+	 * @throws IllegalArgumentException if a key is null or, when checked, out of order
+	 */
+	public static <K extends Comparable<K>> AVLTree<K> fromSorted(Stream<? extends K> sortedKeys,
+			boolean rejectUnsorted) throws IllegalArgumentException {
+		Object[] keys = sortedKeys.toArray();
+		return fromSortedArray(keys, keys.length, rejectUnsorted);
+	}
+	
+	/**
+	 * This is the fromSortedArray helper method that the fromSorted methods
+	 * share. The order check stops at the first bad key, so bad input costs
+	 * one exception instead of one per key.
+	 * @param keys array holding the keys in its first count slots
+	 * @param count number of keys
+	 * @param rejectUnsorted if true the keys are checked before the tree is built
+	 * @return a new AVLTree holding the keys
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K extends Comparable<K>> AVLTree<K> fromSortedArray(Object[] keys, int count,
+			boolean rejectUnsorted) {
+		if(rejectUnsorted) {
+			for(int i = 1; i < count; i++) {
+				K previous = (K) keys[i - 1];
+				K key = (K) keys[i];
+				if(previous != null && key != null && key.compareTo(previous) <= 0) {
+					throw new IllegalArgumentException("Key "+key+" at position "+i
+							+" is not greater than the key before it.");
+				}
+			}
+		}
+		AVLTree<K> tree = new AVLTree<K>();
+		tree.root = tree.buildBalanced(keys, 0, count);
+		return tree;
 	}
+	
 	/**
 	 * This is the isEmpty method. This method checks the AVLTree
-	 * for a root node and returns a boolean based on whether or not
-	 * there is a root.
-	 * @return boolean whether root element is there
+	 * for keys and returns a boolean based on whether or not
+	 * there are any.
+	 * @return boolean whether the tree holds no keys
 	 */
 	@Override
 	public boolean isEmpty() {
-		//root node will tell if there is a tree or not
-		if(root == null) {
+		//the root's size counts every key, but none of the tombstones
+		if(getSize(root) == 0) {
 			return true;
 		}
 		return false;
 	}
 
 	/**
-	 * This is the public insert method. This method calls the private insert
-	 * helper method which inserts the element correctly through recursion.
-	 * @throws DuplicateKeyException if duplicate node is inserted
+	 * This is the public insert method. This method calls tryInsert, so
+	 * inserting a key that is already in the AVLTree does nothing.
 	 * @throws IllegalArgumentException if node is null value
 	 * @param key element's key to be inserted in AVLTree
 	 */
 	@Override
 	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
-			currentHeightOfSubtree = 1; //set to 1 at the start of insertion
-		try {
-			root = insert(root, key);
-		} catch(IllegalArgumentException e) {
-			System.out.println("Failed to insert element because it is null.");
-		}
-	}
-	/**
-	 * This is the private insert method that acts as a helper for the public
-	 * insert method. This method correctly inserts an element
-	 * based on it's key through recursion. The method then goes back through the inserted 
-	 * element's subtree and checks for height imbalance.
-	 * @param n
-	 * @param key
-	 * @return
-	 * @throws DuplicateKeyException
-	 */
-	private BSTNode<K> insert(BSTNode<K> n, K key) throws DuplicateKeyException {
-		try {
-			//check for first null reference
-			if (n == null) {
-				BSTNode<K> newNode = new BSTNode<K>(key);
-				newNode.setHeight(currentHeightOfSubtree);
-				newlyInserted = newNode;
-		        return newNode;
-		    } 
-			//check for duplicate
-		    if (n.getKey().equals(key)) {
-		        throw new DuplicateKeyException();
-		    }
-		    if (key.compareTo(n.getKey()) < 0) {
-		        // add key to the left subtree
-		        n.setLeft(insert(n.getLeft(), key));
-		        //recursion back to get height of each node
-		        currentHeightOfSubtree++;
-		        n.setHeight(currentHeightOfSubtree);
-		        root = checkHeightImbalance(n);
-		        return n;
-		    }
-		    else {
-		        // add key to the right subtree
-		        n.setRight(insert(n.getRight(), key));
-		        //recursion back to get height of each node
-		        currentHeightOfSubtree++;
-	    			n.setHeight(currentHeightOfSubtree); 
-	    			root = checkHeightImbalance(n);
-		        return n;
-		    }
-		} catch (DuplicateKeyException e) {
-			System.out.println("Failed to insert element "+key+" because it is a duplicate value.");
-			return n;
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method calls the private insertKey
+	 * helper method, which inserts the element without recursion, and
+	 * reports a duplicate through its return value.
+	 * @param key element's key to be inserted in AVLTree
+	 * @return true if key was added, false if it was already in the AVLTree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		if(key == null) {
+			if(metrics != null) {
+				metrics.recordNullKey();
+			}
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		return insertKey(key);
+	}
+
+	/**
+	 * This is the private insertKey method that acts as a helper for the public
+	 * insert method. This method walks down from the root once, pushing every
+	 * node it passes onto the path stack, links the new node in as a leaf and 
+	 * then walks back up the stack checking for height imbalance.
+	 * @param key element's key to be inserted in AVLTree
+	 * @return false if the key was already in the AVLTree
+	 */
+	private boolean insertKey(K key) {
+		if(descend(key) != null) {
+			if(metrics != null) {
+				metrics.recordInsert(pathDepth + 1, false);
+			}
+			return false;
+		}
+		insertAtPath(key);
+		if(metrics != null) {
+			metrics.recordInsert(pathDepth, true);
 		}
+		return true;
 	}
 
 	/**
-	 * TODO: add method header comments here
+	 * This is the public delete method. This method calls remove, so
+	 * deleting a key that is not in the AVLTree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be deleted from AVLTree
 	 */
 	@Override
 	public void delete(K key) throws IllegalArgumentException {
-		// TODO: implement delete()
+		remove(key);
 	}
 
 	/**
-	 * TODO: add method header comments here
+	 * This is the remove method. This method calls the private deleteKey
+	 * helper method, which removes the element without recursion.
+	 * @param key element's key to be deleted from AVLTree
+	 * @return true if key was removed, false if it was not in the AVLTree
+	 * @throws IllegalArgumentException if key is null value
 	 */
 	@Override
-	public boolean search(K key) throws IllegalArgumentException {
-		// TODO: implement search()
-		return false;
+	public boolean remove(K key) throws IllegalArgumentException {
+		if(key == null) {
+			if(metrics != null) {
+				metrics.recordNullKey();
+			}
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		return deleteKey(key);
+	}
+	/**
+	 * This is the private deleteKey method that acts as a helper for the public
+	 * delete method. This method walks down from the root once, pushing every
+	 * node it passes onto the path stack, and then unlinks the key's node.
+	 * @param key element's key to be deleted from AVLTree
+	 * @return false if the key was not in the AVLTree
+	 */
+	private boolean deleteKey(K key) {
+		BSTNode<K> n = descend(key);
+		if(metrics != null) {
+			metrics.recordDelete(n == null ? pathDepth : pathDepth + 1);
+		}
+		if(n == null) {
+			return false;
+		}
+		deleteAtPath(n);
+		return true;
 	}
 
 	/**
-	 * This is the print method. This method prints an in-order traversal 
-	 * of all the nodes in the AVLTree.
-	 * @return a string of the keys in the AVLTree in order
+	 * This is the descend method. This method walks down from the root
+	 * looking for key and leaves the nodes above where key is, or would be,
+	 * on the path stack, so that insertAtPath or deleteAtPath can finish the
+	 * change without walking down again. AVLTreeMap uses this to look at a
+	 * key's value and then change it with one descent. A tombstone holding
+	 * key counts as not finding it, and is kept for insertAtPath to revive.
+	 * @param key key to look for
+	 * @return the node holding key, or null if key is not in the tree
 	 */
-	@Override
-	public String print() {		
-		String inOrder = ""; //string to be returned after recursion
-		toBePrinted = root;
-		if(toBePrinted == null) {
-			return "";
+	BSTNode<K> descend(K key) {
+		BSTNode<K> n = root;
+		int depth = 0;
+		int cmp = 0;
+		long keyPrefix = prefixOf(key);
+		while(n != null) {
+			cmp = compare(key, keyPrefix, n);
+			if(cmp == 0) {
+				break;
+			}
+			path[depth++] = n;
+			n = cmp < 0 ? n.getLeft() : n.getRight();
+		}
+		pathDepth = depth;
+		pathCmp = cmp;
+		pathModCount = modCount;
+		pathToken++;
+		if(n != null && n.deleted) {
+			pathTombstone = n;
+			return null;
 		}
-		//System.out.println(root.getKey()+" hiiiii");
-		print(toBePrinted.getLeft());
-		inOrder += toBePrinted.getKey() +" ";
-		print(toBePrinted.getRight());
-		return inOrder;
+		pathTombstone = null;
+		return n;
+	}
+
+	/**
+	 * This is the pathToken method. A caller that runs other code between
+	 * descend and insertAtPath or deleteAtPath keeps the token from right
+	 * after descend and passes it back, so that a path replaced in between,
+	 * even by a read, is caught.
+	 * @return a number that changes every time the path stack is refilled
+	 */
+	int pathToken() {
+		return pathToken;
 	}
+
 	/**
-	 * This is the print helper method. This method recursively calls
-	 * itself in order to correctly save the in-order traversal of the
-	 * AVLTree in a string.
-	 * @param node root node to start at
-	 * @return a string of the keys in the AVLTree in order
+	 * This is the find method. This method looks key up without touching the
+	 * path stack, so it is safe to call between descend and insertAtPath or
+	 * deleteAtPath.
+	 * @param key key to look for
+	 * @return the node holding key, or null if key is not in the tree
 	 */
-	private String print(BSTNode<K> node) {
-		String inOrder = ""; //string to be returned after recursion
-		if(node == null) {
-			return "";
+	BSTNode<K> find(K key) {
+		BSTNode<K> n = root;
+		long keyPrefix = prefixOf(key);
+		while(n != null) {
+			int cmp = compare(key, keyPrefix, n);
+			if(cmp == 0) {
+				return n.deleted ? null : n;
+			}
+			n = cmp < 0 ? n.getLeft() : n.getRight();
 		}
-		print(node.getLeft());
-		inOrder += node.getKey() +" ";
-		print(node.getRight());
-		return inOrder;
+		return null;
 	}
-	
+
 	/**
-	 * TODO: add method header comments here
+	 * This is the insertAtPath method. This method links a new leaf for key
+	 * in below the path left by the last call to descend, which must not have
+	 * found key, and then walks back up the stack checking for height imbalance.
+	 * If descend found a tombstone for key, that node is revived instead.
+	 * @param key key the last call to descend looked for
+	 * @return the new node
+	 * @throws ConcurrentModificationException if the tree changed since descend
 	 */
-	@Override
-	public boolean checkForBalancedTree() {
-		// TODO: implement checkForBalancedTree()
-		return false;
+	BSTNode<K> insertAtPath(K key) throws ConcurrentModificationException {
+		return insertAtPath(key, pathToken);
+	}
+
+	/**
+	 * This is the insertAtPath method for a caller that ran other code since
+	 * descend. It works as insertAtPath(key) does, once it has checked that
+	 * the path stack is still the one descend left.
+	 * @param key key the last call to descend looked for
+	 * @param token value of pathToken right after that descend
+	 * @return the new node
+	 * @throws ConcurrentModificationException if the tree changed or the
+	 * path stack was refilled since descend
+	 */
+	BSTNode<K> insertAtPath(K key, int token) throws ConcurrentModificationException {
+		if(modCount != pathModCount || token != pathToken) {
+			throw new ConcurrentModificationException();
+		}
+		if(pathTombstone != null) {
+			BSTNode<K> n = pathTombstone;
+			n.deleted = false;
+			adjustPathSizes(n, 1);
+			tombstones--;
+			return n;
+		}
+		BSTNode<K> newNode = newNode(key);
+		newNode.setHeight(1);
+		if(pathDepth == 0) {
+			root = newNode;
+		}
+		else if(pathCmp < 0) {
+			path[pathDepth - 1].setLeft(newNode);
+		}
+		else {
+			path[pathDepth - 1].setRight(newNode);
+		}
+		rebalancePath(pathDepth, 1);
+		modCount++;
+		return newNode;
+	}
+
+	/**
+	 * This is the deleteAtPath method. This method unlinks the node found by
+	 * the last call to descend. A node with two children takes the key and
+	 * value of its in-order successor, and the successor's node is unlinked
+	 * instead, so the node that is removed always has at most one child. The
+	 * method then walks back up the path stack checking for height imbalance.
+	 * With lazy deletion on, n is marked as a tombstone instead, and the tree
+	 * is compacted if that pushes the tombstones past the compaction ratio.
+	 * @param n node the last call to descend returned
+	 * @throws ConcurrentModificationException if the tree changed since descend
+	 */
+	void deleteAtPath(BSTNode<K> n) throws ConcurrentModificationException {
+		deleteAtPath(n, pathToken);
+	}
+
+	/**
+	 * This is the deleteAtPath method for a caller that ran other code since
+	 * descend. It works as deleteAtPath(n) does, once it has checked that
+	 * the path stack is still the one descend left.
+	 * @param n node the last call to descend returned
+	 * @param token value of pathToken right after that descend
+	 * @throws ConcurrentModificationException if the tree changed or the
+	 * path stack was refilled since descend
+	 */
+	void deleteAtPath(BSTNode<K> n, int token) throws ConcurrentModificationException {
+		if(modCount != pathModCount || token != pathToken) {
+			throw new ConcurrentModificationException();
+		}
+		if(compactionRatio > 0) {
+			n.deleted = true;
+			n.value = null;
+			adjustPathSizes(n, -1);
+			tombstones++;
+			if(tombstones > compactionRatio * (getSize(root) + tombstones)) {
+				compact();
+			}
+			return;
+		}
+		int depth = pathDepth;
+		if(n.getLeft() != null && n.getRight() != null) {
+			path[depth++] = n;
+			BSTNode<K> successor = n.getRight();
+			while(successor.getLeft() != null) {
+				path[depth++] = successor;
+				successor = successor.getLeft();
+			}
+			n.key = successor.getKey();
+			n.value = successor.value;
+			if(prefix != null) {
+				((PrefixedNode<K>) n).keyPrefix = ((PrefixedNode<K>) successor).keyPrefix;
+			}
+			n = successor;
+		}
+		BSTNode<K> child = n.getLeft() != null ? n.getLeft() : n.getRight();
+		replaceChild(depth, n, child);
+		rebalancePath(depth, -1);
+		//a node that took its successor's key no longer bounds the path below it
+		pathIntact = Math.min(pathIntact, pathDepth);
+		modCount++;
+	}
+
+	/**
+	 * This is the adjustPathSizes method. This method changes the size of a
+	 * node found by the last call to descend and of every node above it,
+	 * for a key that was revived or made a tombstone without moving a node.
+	 * @param n node found by descend
+	 * @param sizeChange +1 for a revived key, -1 for a tombstone
+	 */
+	private void adjustPathSizes(BSTNode<K> n, int sizeChange) {
+		n.size += sizeChange;
+		for(int depth = 0; depth < pathDepth; depth++) {
+			path[depth].size += sizeChange;
+		}
+		pathIntact = pathDepth;
+		modCount++;
+	}
+
+	/**
+	 * This is the setLazyDeletion method. With lazy deletion on, a delete
+	 * marks its node as a tombstone in O(log n) without rotating, and the
+	 * tree compacts itself once more than compactionRatio of its nodes are
+	 * tombstones, which costs O(1) amortized per delete. A ratio of 1 never
+	 * compacts by itself, so the owner of the tree can call compact when it
+	 * suits, such as between bursts of writes or from a background thread
+	 * holding the same lock as the writers.
+	 * @param compactionRatio share of nodes, above 0 and at most 1, that may
+	 * be tombstones, or 0 to turn lazy deletion off and compact the tree
+	 * @throws IllegalArgumentException if compactionRatio is not between 0 and 1
+	 */
+	public void setLazyDeletion(double compactionRatio) throws IllegalArgumentException {
+		if(!(compactionRatio >= 0 && compactionRatio <= 1)) {
+			throw new IllegalArgumentException("The compaction ratio must be between 0 and 1.");
+		}
+		this.compactionRatio = compactionRatio;
+		if(compactionRatio == 0 || tombstones > compactionRatio * (getSize(root) + tombstones)) {
+			compact();
+		}
 	}
 
 	/**
-	 * TODO: add method header comments here
+	 * This is the tombstoneCount method.
+	 * @return the number of nodes left behind by lazy deletes since the last compaction
+	 */
+	public int tombstoneCount() {
+		return tombstones;
+	}
+
+	/**
+	 * This is the compact method. This method lines up the nodes that are
+	 * not tombstones in key order and links them back together as a
+	 * balanced tree, in O(n) time with no comparisons and no rotations. The
+	 * nodes are reused, so the values AVLTreeMap keeps in them stay put.
+	 * @return the number of tombstones removed
+	 */
+	public int compact() {
+		int removed = tombstones;
+		if(removed == 0) {
+			return 0;
+		}
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		BSTNode<K>[] nodes = (BSTNode<K>[]) new AVLTree.BSTNode[getSize(root)];
+		BSTNode<K>[] stack = newPath();
+		int depth = 0;
+		int count = 0;
+		BSTNode<K> n = root;
+		while(n != null || depth > 0) {
+			while(n != null) {
+				stack[depth++] = n;
+				n = n.getLeft();
+			}
+			n = stack[--depth];
+			if(!n.deleted) {
+				nodes[count++] = n;
+			}
+			n = n.getRight();
+		}
+		root = relinkBalanced(nodes, 0, count);
+		tombstones = 0;
+		modCount++;
+		return removed;
+	}
+
+	/**
+	 * This is the relinkBalanced helper method for compact. It builds the
+	 * same shape as buildBalanced out of existing nodes.
+	 * @param nodes nodes in key order
+	 * @param from index of the first node in the range
+	 * @param to index one past the last node in the range
+	 * @return the root of the new subtree, or null for an empty range
+	 */
+	private BSTNode<K> relinkBalanced(BSTNode<K>[] nodes, int from, int to) {
+		if(from >= to) {
+			return null;
+		}
+		int mid = (from + to) >>> 1;
+		BSTNode<K> n = nodes[mid];
+		n.setLeft(relinkBalanced(nodes, from, mid));
+		n.setRight(relinkBalanced(nodes, mid + 1, to));
+		updateHeightAndSize(n);
+		return n;
+	}
+
+	/**
+	 * This is the search method. This method walks down from the root,
+	 * going left or right based on one comparison per level.
+	 * @param key element's key to search for
+	 * @return true if the key is in the AVLTree
+	 * @throws IllegalArgumentException if key is null value
 	 */
 	@Override
-	public boolean checkForBinarySearchTree() {
-		return checkForBinarySearchTree(root);
+	public boolean search(K key) throws IllegalArgumentException {
+		if(key == null) {
+			if(metrics != null) {
+				metrics.recordNullKey();
+			}
+			throw new IllegalArgumentException("Cannot search for a null key.");
+		}
+		BSTNode<K> n = root;
+		int depth = 0;
+		long keyPrefix = prefixOf(key);
+		while(n != null) {
+			depth++;
+			int cmp = compare(key, keyPrefix, n);
+			if(cmp == 0) {
+				break;
+			}
+			n = cmp < 0 ? n.getLeft() : n.getRight();
+		}
+		if(metrics != null) {
+			metrics.recordSearch(depth);
+		}
+		return n != null && !n.deleted;
+	}
+
+	/**
+	 * This is the comparator method.
+	 * @return the order of the keys, or null if they use their natural ordering
+	 */
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * This is the compare method. Every comparison of two keys in the tree
+	 * goes through here.
+	 * @param a first key
+	 * @param b second key
+	 * @return negative, zero or positive as a is less than, equal to or
+	 * greater than b
+	 */
+	@SuppressWarnings("unchecked")
+	int compare(K a, K b) {
+		return comparator == null ? ((Comparable<? super K>) a).compareTo(b) : comparator.compare(a, b);
+	}
+
+	/**
+	 * This is the compare method for the way down a search. When the tree
+	 * has a KeyPrefix the prefixes are compared first, and the keys only if
+	 * the prefixes are equal.
+	 * @param key key being looked for
+	 * @param keyPrefix prefix of key, from prefixOf
+	 * @param n node to compare against
+	 * @return negative, zero or positive as key is less than, equal to or
+	 * greater than the key of n
+	 */
+	private int compare(K key, long keyPrefix, BSTNode<K> n) {
+		if(prefix != null) {
+			int cmp = Long.compareUnsigned(keyPrefix, ((PrefixedNode<K>) n).keyPrefix);
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return compare(key, n.getKey());
+	}
+
+	/**
+	 * This is the prefixOf method.
+	 * @param key key to sum up
+	 * @return the prefix of key, or 0 if the tree has no KeyPrefix
+	 */
+	private long prefixOf(K key) {
+		return prefix == null ? 0 : prefix.prefix(key);
+	}
+
+	/**
+	 * This is the newNode method. Every node in the tree is made here.
+	 * @param key key of the new node
+	 * @return a node for key, keeping its prefix if the tree has a KeyPrefix
+	 */
+	private BSTNode<K> newNode(K key) {
+		return prefix == null ? new BSTNode<K>(key) : new PrefixedNode<K>(key, prefix.prefix(key));
+	}
+
+	/**
+	 * This is the setMetrics method. Once set, every insert, delete and
+	 * search is counted along with the rotations it caused. Batch inserts
+	 * and deletes count their rotations but not their keys.
+	 * @param metrics counters to update, or null to stop counting
+	 */
+	public void setMetrics(AVLTreeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * This is the getMetrics method.
+	 * @return the counters this tree updates, or null if metrics are off
+	 */
+	public AVLTreeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * This is the size method. Every node keeps the size of its subtree, so
+	 * this is just the size of the root. Tombstones are not counted.
+	 * @return the number of keys in the AVLTree
+	 */
+	public int size() {
+		return getSize(root);
 	}
 	
-	private boolean checkForBinarySearchTree(BSTNode <K> n) {
-		if(root == null) {
-			return true;
+	/**
+	 * This is the rank method. This method walks down from the root once,
+	 * adding up the sizes of the left subtrees it passes over.
+	 * @param key key to rank, which does not have to be in the AVLTree
+	 * @return the number of keys in the AVLTree that are less than key
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public int rank(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot rank a null key.");
 		}
-		return false;
+		return countBelow(key, false);
 	}
+	
 	/**
-	 * This is the checkHeightImbalance method. This method is called when 
-	 * the insert method is recursively checking/setting heights of each 
-	 * node. It checks a node's left and right subtree for any imbalance, 
-	 * and figures out what kind of rotations are necessary to fix it. 
-	 * NOTE: This method is incomplete - it does not accurate track the root
-	 * @param node to be checked for height imbalance
+	 * This is the select method. This method walks down from the root once,
+	 * using the subtree sizes to decide which way to go.
+	 * @param index position of the key in ascending order, starting at 0
+	 * @return the key with exactly index smaller keys in the AVLTree
+	 * @throws IndexOutOfBoundsException if index is negative or not less than size()
 	 */
-	private BSTNode <K> checkHeightImbalance(BSTNode <K> n) {
-		//check the subtree's left and right heights
-		if((getHeight(n.getLeft()) - getHeight(n.getRight())) > 1) {
-			//if newlyInserted key is less than the middle node, it is in the middle node's 
-			//left subtree
-			if(newlyInserted.getKey().compareTo(n.getLeft().getKey()) < 0) {
-				root = rightRotate(n);
-			}
-			//if newlyInserted key is > than the middle node, it is in the right subtree 
-			//and we need two rotations
+	public K select(int index) throws IndexOutOfBoundsException {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index "+index+" is out of range for size "+size()+".");
+		}
+		BSTNode<K> n = root;
+		while(true) {
+			int leftSize = getSize(n.getLeft());
+			if(index < leftSize) {
+				n = n.getLeft();
+			}
+			else if(index == leftSize && !n.deleted) {
+				return n.getKey();
+			}
 			else {
-				root = leftRotate(n.getLeft());
-				root = rightRotate(n);
+				index -= leftSize + live(n);
+				n = n.getRight();
 			}
 		}
-		else if((getHeight(n.getLeft()) - getHeight(n.getRight())) < -1) {
-			//if newlyInserted key is > than the middle node, it is in the right subtree
-			if(newlyInserted.getKey().compareTo(n.getRight().getKey()) > 0) {
-				root = leftRotate(n);
+	}
+	
+	/**
+	 * This is the countInRange method.
+	 * @param from smallest key to count, inclusive
+	 * @param to largest key to count, inclusive
+	 * @return the number of keys in the AVLTree between from and to, or 0
+	 * if from is greater than to
+	 * @throws IllegalArgumentException if from or to is null value
+	 */
+	public int countInRange(K from, K to) throws IllegalArgumentException {
+		if(from == null || to == null) {
+			throw new IllegalArgumentException("Range bounds cannot be null.");
+		}
+		if(compare(from, to) > 0) {
+			return 0;
+		}
+		return countBelow(to, true) - countBelow(from, false);
+	}
+	
+	/**
+	 * This is the countBelow helper method for rank and countInRange.
+	 * @param key key to compare against
+	 * @param inclusive whether a key equal to key is counted
+	 * @return the number of keys less than key, or at most key if inclusive
+	 */
+	private int countBelow(K key, boolean inclusive) {
+		int count = 0;
+		BSTNode<K> n = root;
+		while(n != null) {
+			int cmp = compare(key, n.getKey());
+			if(cmp < 0 || (cmp == 0 && !inclusive)) {
+				n = n.getLeft();
 			}
-			//if newlyInserted key is < than the middle node, it is in the left subtree
-			//and we need two rotations
 			else {
-				root = rightRotate(n.getRight());
-				root = leftRotate(n);
+				count += getSize(n.getLeft()) + live(n);
+				if(cmp == 0) {
+					return count;
+				}
+				n = n.getRight();
 			}
 		}
-		return root;
+		return count;
 	}
+	
 	/**
-	 * This is the getHeight() accessor method. This method is used
-	 * to get the height of a node based on its subtree in the AVLTree.
-	 * @return the height of the node this method is called on
+	 * This is the insertAll method. This method sorts the batch and merges
+	 * it into the tree in one pass: each node splits the sorted keys around 
+	 * its own key, both halves are merged into its subtrees, and the results
+	 * are joined back together. Keys that share a path share the descent, and
+	 * a run of keys that lands in an empty subtree is built directly.
+	 * @param keys keys to be added
+	 * @return how many keys were inserted and how many were duplicates
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is inserted
 	 */
-	private int getHeight(AVLTree<K>.BSTNode<K> node) {
-			if(node == null) {
-				return 0;
+	@Override
+	public BatchResult insertAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		Object[] batch = sortedBatch(keys, "Cannot insert a null key.");
+		int unique = removeRepeats(batch);
+		batchMatches = 0;
+		root = mergeInsert(root, batch, 0, unique);
+		modCount++;
+		int duplicates = batch.length - unique + batchMatches;
+		return new BatchResult(unique - batchMatches, 0, duplicates, 0);
+	}
+	
+	/**
+	 * This is the deleteAll method. This method sorts the batch and removes
+	 * it from the tree in one pass, the same way insertAll merges keys in.
+	 * @param keys keys to be deleted
+	 * @return how many keys were removed and how many were missing
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is deleted
+	 */
+	@Override
+	public BatchResult deleteAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		Object[] batch = sortedBatch(keys, "Cannot delete a null key.");
+		int unique = removeRepeats(batch);
+		batchMatches = 0;
+		root = mergeDelete(root, batch, 0, unique);
+		modCount++;
+		return new BatchResult(0, batchMatches, 0, batch.length - batchMatches);
+	}
+	
+	/**
+	 * This is the sortedBatch helper method for insertAll and deleteAll.
+	 * @param keys keys in the batch
+	 * @param nullMessage message for the exception thrown on a null key
+	 * @return the keys copied into an array and sorted
+	 * @throws IllegalArgumentException if any key is null
+	 */
+	@SuppressWarnings("unchecked")
+	private Object[] sortedBatch(Collection<? extends K> keys, String nullMessage) throws IllegalArgumentException {
+		Object[] batch = keys.toArray();
+		for(Object key : batch) {
+			if(key == null) {
+				throw new IllegalArgumentException(nullMessage);
 			}
-			else {
-				return node.height;
+		}
+		Arrays.sort(batch, (Comparator<Object>) comparator);
+		return batch;
+	}
+	
+	/**
+	 * This is the removeRepeats helper method. This method moves the 
+	 * distinct keys of a sorted array to its front.
+	 * @param batch sorted keys
+	 * @return the number of distinct keys
+	 */
+	@SuppressWarnings("unchecked")
+	private int removeRepeats(Object[] batch) {
+		int unique = 0;
+		for(int i = 0; i < batch.length; i++) {
+			if(unique == 0 || compare((K) batch[i], (K) batch[unique - 1]) != 0) {
+				batch[unique++] = batch[i];
 			}
+		}
+		return unique;
 	}
+	
 	/**
-	 * This is the rightRotate method. This method is able to correctly rotate
-	 * nodes to the right based on their height imbalance in order to correctly 
-	 * configure them in the AVLTree.
-	 * @param node that is height imbalanced
+	 * This is the mergeInsert method. This method adds a sorted range of
+	 * keys to a subtree and counts the keys that were already there in
+	 * batchMatches. A key with a tombstone revives it. Recursion only goes
+	 * as deep as the subtree.
+	 * @param n root of the subtree
+	 * @param keys sorted, distinct keys
+	 * @param from index of the first key in the range
+	 * @param to index one past the last key in the range
+	 * @return the root of the subtree after the keys are added
 	 */
-	private BSTNode <K> rightRotate(BSTNode<K> node) {
-		//set up hierarchy
-		g = node;
-		p = node.getLeft();
-		//set parent nodes right to grandparent node
-		node.getLeft().setRight(node);
-		if(node == root) {	
-			setRoot(node.getLeft());
+	@SuppressWarnings("unchecked")
+	private BSTNode<K> mergeInsert(BSTNode<K> n, Object[] keys, int from, int to) {
+		if(from >= to) {
+			return n;
 		}
-		//set grandparents left node to parents right
-		node.setLeft(p.getRight());
-		return root;
+		if(n == null) {
+			return buildBalanced(keys, from, to);
+		}
+		int i = Arrays.binarySearch(keys, from, to, n.getKey(), (Comparator<Object>) comparator);
+		int leftEnd = i >= 0 ? i : -i - 1;
+		int rightStart = i >= 0 ? i + 1 : leftEnd;
+		if(i >= 0) {
+			if(n.deleted) {
+				n.deleted = false;
+				tombstones--;
+			}
+			else {
+				batchMatches++;
+			}
+		}
+		BSTNode<K> left = mergeInsert(n.getLeft(), keys, from, leftEnd);
+		BSTNode<K> right = mergeInsert(n.getRight(), keys, rightStart, to);
+		return join(left, n, right);
 	}
 	
 	/**
-	 * This is the leftRotate method. This method is able to correctly rotate
-	 * nodes to the left based on their height imbalance in order to correctly 
-	 * configure them in the AVLTree.
-	 * @param node that is height imbalanced
+	 * This is the mergeDelete method. This method removes a sorted range of
+	 * keys from a subtree and counts the keys it found in batchMatches. A
+	 * batch always unlinks its nodes, along with any tombstones for its keys.
+	 * @param n root of the subtree
+	 * @param keys sorted, distinct keys
+	 * @param from index of the first key in the range
+	 * @param to index one past the last key in the range
+	 * @return the root of the subtree after the keys are removed
 	 */
-	private BSTNode <K> leftRotate(BSTNode<K> node) {
-		//set up hierarchy
-		g = node;
-		p = node.getRight();
-
-		//set parent nodes left to grandparent node
-		node.getRight().setLeft(node);
-		
-		//change the root reference if necessary
-
-		//set grandparents right node to parents left
-		node.setRight(p.getLeft());
-		return root;
+	@SuppressWarnings("unchecked")
+	private BSTNode<K> mergeDelete(BSTNode<K> n, Object[] keys, int from, int to) {
+		if(from >= to || n == null) {
+			return n;
+		}
+		int i = Arrays.binarySearch(keys, from, to, n.getKey(), (Comparator<Object>) comparator);
+		int leftEnd = i >= 0 ? i : -i - 1;
+		int rightStart = i >= 0 ? i + 1 : leftEnd;
+		BSTNode<K> left = mergeDelete(n.getLeft(), keys, from, leftEnd);
+		BSTNode<K> right = mergeDelete(n.getRight(), keys, rightStart, to);
+		if(i >= 0) {
+			if(n.deleted) {
+				tombstones--;
+			}
+			else {
+				batchMatches++;
+			}
+			return join(left, right);
+		}
+		return join(left, n, right);
+	}
+
+	/**
+	 * This is the union method. This method moves every key of other into
+	 * this tree. Nodes are never copied: other's tree is split around this
+	 * tree's root, both halves are combined with the root's subtrees, and the
+	 * results are joined back under the root. The two halves are combined in
+	 * parallel on the common ForkJoinPool, so for trees of m and n keys with
+	 * m &lt;= n the work is O(m log(n/m + 1)) and the span O(log^2 n).
+	 * @param other tree whose keys are added, left empty afterwards
+	 * @throws IllegalArgumentException if other sorts its keys differently
+	 */
+	public void union(AVLTree<K> other) throws IllegalArgumentException {
+		combineWith(other, SetOperation.UNION);
+	}
+	
+	/**
+	 * This is the intersection method. This method keeps only the keys that
+	 * are also in other, the same way union combines them.
+	 * @param other tree whose keys are kept, left empty afterwards
+	 * @throws IllegalArgumentException if other sorts its keys differently
+	 */
+	public void intersection(AVLTree<K> other) throws IllegalArgumentException {
+		combineWith(other, SetOperation.INTERSECTION);
+	}
+	
+	/**
+	 * This is the difference method. This method removes every key that is
+	 * in other, the same way union combines them.
+	 * @param other tree whose keys are removed, left empty afterwards
+	 * @throws IllegalArgumentException if other sorts its keys differently
+	 */
+	public void difference(AVLTree<K> other) throws IllegalArgumentException {
+		combineWith(other, SetOperation.DIFFERENCE);
+	}
+	
+	/**
+	 * This is the filter method. This method keeps only the keys that pass a
+	 * test, checking both subtrees of a node in parallel and joining the
+	 * survivors, in O(n) work and O(log^2 n) span. Tombstones are compacted
+	 * away first.
+	 * @param keep returns true for the keys to keep; it may be called from
+	 * several threads at once
+	 * @throws IllegalArgumentException if keep is null
+	 */
+	public void filter(Predicate<? super K> keep) throws IllegalArgumentException {
+		if(keep == null) {
+			throw new IllegalArgumentException("Cannot filter with a null test.");
+		}
+		compact();
+		root = new SetTask(SetOperation.FILTER, root, null, keep).invoke();
+		modCount++;
+	}
+	
+	/**
+	 * This is the split method. This method cuts the tree in two along one
+	 * root-to-leaf path, joining the pieces on either side as it goes, so it
+	 * costs O(log n) however many keys move, once any tombstones have been
+	 * compacted away.
+	 * @param key keys greater than or equal to this move to the new tree
+	 * @return a tree, sorted the same way, holding the keys that moved
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public AVLTree<K> split(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot split at a null key.");
+		}
+		compact();
+		Split pieces = split(root, key);
+		AVLTree<K> upper = new AVLTree<K>(comparator, prefix);
+		upper.root = pieces.middle == null ? pieces.right : join(null, pieces.middle, pieces.right);
+		root = pieces.left;
+		modCount++;
+		return upper;
+	}
+	
+	/**
+	 * This is the combineWith helper method for union, intersection and
+	 * difference. Both trees are compacted first, so every node they share
+	 * holds a key.
+	 * @param other tree to combine with this one, left empty afterwards
+	 * @param operation how the keys of the two trees are combined
+	 * @throws IllegalArgumentException if other sorts its keys differently
+	 */
+	private void combineWith(AVLTree<K> other, SetOperation operation) throws IllegalArgumentException {
+		if(other == null) {
+			throw new IllegalArgumentException("Cannot combine with a null tree.");
+		}
+		if(!Objects.equals(comparator, other.comparator) || !Objects.equals(prefix, other.prefix)) {
+			throw new IllegalArgumentException("Cannot combine trees that sort their keys differently.");
+		}
+		compact();
+		other.compact();
+		if(other == this) {
+			if(operation == SetOperation.DIFFERENCE) {
+				root = null;
+				modCount++;
+			}
+			return;
+		}
+		root = new SetTask(operation, root, other.root, null).invoke();
+		other.root = null;
+		modCount++;
+		other.modCount++;
+	}
+	
+	/**
+	 * This is the split method for subtrees. The nodes along the path to key
+	 * are taken apart, and each one is joined back into the left or right
+	 * piece with the subtree on its far side.
+	 * @param n root of the subtree, which is taken apart
+	 * @param key key to split at
+	 * @return the keys less than key, the node holding key if there is one,
+	 * and the keys greater than key
+	 */
+	private Split split(BSTNode<K> n, K key) {
+		if(n == null) {
+			return new Split(null, null, null);
+		}
+		BSTNode<K> left = n.getLeft();
+		BSTNode<K> right = n.getRight();
+		int cmp = compare(key, n.getKey());
+		if(cmp == 0) {
+			return new Split(left, n, right);
+		}
+		if(cmp < 0) {
+			Split pieces = split(left, key);
+			pieces.right = join(pieces.right, n, right);
+			return pieces;
+		}
+		Split pieces = split(right, key);
+		pieces.left = join(left, n, pieces.left);
+		return pieces;
+	}
+	
+	/**
+	 * This is the combine method. This method does one step of a set
+	 * operation: it picks a middle node, splits the other subtree around it,
+	 * combines the two pairs of smaller subtrees, forking one of them when
+	 * they are big enough to be worth another thread, and joins the results.
+	 * @param operation how the keys are combined
+	 * @param a root of the first subtree
+	 * @param b root of the second subtree, or null for filter
+	 * @param keep test for filter, or null
+	 * @return the root of the combined subtree
+	 */
+	private BSTNode<K> combine(SetOperation operation, BSTNode<K> a, BSTNode<K> b, Predicate<? super K> keep) {
+		if(a == null) {
+			return operation == SetOperation.UNION ? b : null;
+		}
+		if(b == null && operation != SetOperation.FILTER) {
+			return operation == SetOperation.INTERSECTION ? null : a;
+		}
+		BSTNode<K> middle;
+		boolean keepMiddle;
+		BSTNode<K> leftA, leftB, rightA, rightB;
+		if(operation == SetOperation.DIFFERENCE) {
+			//split the first tree around the key being removed
+			Split pieces = split(a, b.getKey());
+			middle = pieces.middle;
+			keepMiddle = false;
+			leftA = pieces.left;
+			rightA = pieces.right;
+			leftB = b.getLeft();
+			rightB = b.getRight();
+		}
+		else {
+			middle = a;
+			leftA = a.getLeft();
+			rightA = a.getRight();
+			if(operation == SetOperation.FILTER) {
+				keepMiddle = keep.test(a.getKey());
+				leftB = null;
+				rightB = null;
+			}
+			else {
+				Split pieces = split(b, a.getKey());
+				keepMiddle = operation == SetOperation.UNION || pieces.middle != null;
+				leftB = pieces.left;
+				rightB = pieces.right;
+			}
+		}
+		BSTNode<K> left;
+		BSTNode<K> right;
+		if(getSize(leftA) + getSize(leftB) + getSize(rightA) + getSize(rightB) >= PARALLEL_THRESHOLD) {
+			SetTask leftTask = new SetTask(operation, leftA, leftB, keep);
+			leftTask.fork();
+			right = combine(operation, rightA, rightB, keep);
+			left = leftTask.join();
+		}
+		else {
+			left = combine(operation, leftA, leftB, keep);
+			right = combine(operation, rightA, rightB, keep);
+		}
+		return keepMiddle ? join(left, middle, right) : join(left, right);
+	}
+	
+	/** This is the SetOperation enum. It names the ways combine can put
+	 * two subtrees together.
+	 */
+	private enum SetOperation {
+		UNION,
+		INTERSECTION,
+		DIFFERENCE,
+		FILTER
+	}
+	
+	/** This is the Split class. It holds the three pieces a subtree is
+	 * split into.
+	 */
+	private class Split {
+		/* fields */
+		private BSTNode<K> left; //subtree of the keys less than the split key
+		private final BSTNode<K> middle; //node holding the split key, or null if it was not there
+		private BSTNode<K> right; //subtree of the keys greater than the split key
+		
+		/**
+		 * This is the constructor for a Split.
+		 * @param left subtree of the keys less than the split key
+		 * @param middle node holding the split key, or null
+		 * @param right subtree of the keys greater than the split key
+		 */
+		Split(BSTNode<K> left, BSTNode<K> middle, BSTNode<K> right) {
+			this.left = left;
+			this.middle = middle;
+			this.right = right;
+		}
+	}
+	
+	/** This is the SetTask class. It runs combine on a pair of subtrees as
+	 * a fork/join task, so the two halves of a big set operation can run on
+	 * different threads. The subtrees of sibling tasks never share a node.
+	 */
+	private class SetTask extends RecursiveTask<BSTNode<K>> {
+		/* fields */
+		private static final long serialVersionUID = 1L; //RecursiveTask is Serializable
+		private final SetOperation operation; //how the keys are combined
+		private final BSTNode<K> a; //root of the first subtree
+		private final BSTNode<K> b; //root of the second subtree
+		private final Predicate<? super K> keep; //test for filter, or null
+		
+		/**
+		 * This is the constructor for a SetTask.
+		 * @param operation how the keys are combined
+		 * @param a root of the first subtree
+		 * @param b root of the second subtree
+		 * @param keep test for filter, or null
+		 */
+		SetTask(SetOperation operation, BSTNode<K> a, BSTNode<K> b, Predicate<? super K> keep) {
+			this.operation = operation;
+			this.a = a;
+			this.b = b;
+			this.keep = keep;
+		}
+		
+		@Override
+		protected BSTNode<K> compute() {
+			return combine(operation, a, b, keep);
+		}
+	}
+
+	/**
+	 * This is the print method. This method builds an in-order traversal 
+	 * of all the nodes in the AVLTree in a single StringBuilder.
+	 * @return a string of the keys in the AVLTree in order, each followed by one space
+	 */
+	@Override
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		forEachInOrder(key -> inOrder.append(key).append(' '));
+		return inOrder.toString();
+	}
+	
+	/**
+	 * This is the print method for an Appendable. This method streams the
+	 * in-order traversal to out through one small buffer that is flushed 
+	 * whenever it fills, so a tree of any size can be written to a file or
+	 * socket using constant extra memory.
+	 * @param out where the keys are written, each followed by one space
+	 * @throws IOException if out cannot be written to
+	 */
+	public void print(Appendable out) throws IOException {
+		StringBuilder buffer = new StringBuilder(PRINT_BUFFER_SIZE + 64);
+		Iterator<K> keys = iterator();
+		while(keys.hasNext()) {
+			buffer.append(keys.next()).append(' ');
+			if(buffer.length() >= PRINT_BUFFER_SIZE) {
+				out.append(buffer);
+				buffer.setLength(0);
+			}
+		}
+		out.append(buffer);
+	}
+	
+	/**
+	 * This is the save method. This method writes the tree to a channel in
+	 * a compact binary form: a header holding a magic number, the format
+	 * version and the number of keys, then every key in order, written by
+	 * serializer against the key before it. The shape of the tree is not
+	 * saved, since load can rebuild a balanced tree from the keys alone.
+	 * @param channel where the tree is written; it is not closed
+	 * @param serializer writes each key
+	 * @throws IOException if channel cannot be written to
+	 * @throws IllegalArgumentException if channel or serializer is null
+	 */
+	public void save(WritableByteChannel channel, KeySerializer<? super K> serializer)
+			throws IOException, IllegalArgumentException {
+		if(channel == null || serializer == null) {
+			throw new IllegalArgumentException("Cannot save without a channel and a serializer.");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(SAVE_BUFFER_SIZE);
+		buffer.putInt(SAVE_MAGIC).putInt(SAVE_VERSION).putLong(size());
+		K previous = null;
+		for(K key : this) {
+			while(true) {
+				int start = buffer.position();
+				try {
+					serializer.write(buffer, previous, key);
+					break;
+				} catch(BufferOverflowException e) {
+					buffer.position(start);
+					buffer = drain(channel, buffer);
+				}
+			}
+			previous = key;
+		}
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * This is the drain helper method for save. This method writes out what
+	 * the buffer holds, or doubles it if it holds nothing, since then a
+	 * single key was too big for it.
+	 * @param channel where the buffer is written
+	 * @param buffer buffer that filled up
+	 * @return an empty buffer with room for more than before
+	 * @throws IOException if channel cannot be written to
+	 */
+	private static ByteBuffer drain(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		if(buffer.position() == 0) {
+			return ByteBuffer.allocate(buffer.capacity() * 2);
+		}
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * This is the load method. This method replaces the keys in this tree
+	 * with the keys from a save file. They arrive in order, so each one is
+	 * placed straight into a balanced tree as it is read, in O(n) time with
+	 * no comparisons against the tree and no rotations. Each key is only
+	 * checked against the key before it, to catch a damaged file or a file
+	 * saved in a different order. The tree is left as it was if loading fails.
+	 * @param channel where the tree is read from; it is not closed
+	 * @param serializer reads each key, matching the one used by save
+	 * @throws IOException if channel cannot be read from or does not hold a
+	 * save file this class can read
+	 * @throws IllegalArgumentException if channel or serializer is null
+	 */
+	public void load(ReadableByteChannel channel, KeySerializer<K> serializer)
+			throws IOException, IllegalArgumentException {
+		if(channel == null || serializer == null) {
+			throw new IllegalArgumentException("Cannot load without a channel and a serializer.");
+		}
+		KeyReader keys = new KeyReader(channel, serializer);
+		keys.require(16);
+		if(keys.buffer.getInt() != SAVE_MAGIC) {
+			throw new StreamCorruptedException("Not an AVLTree save file.");
+		}
+		int version = keys.buffer.getInt();
+		if(version != SAVE_VERSION) {
+			throw new StreamCorruptedException("Unsupported save file version "+version+".");
+		}
+		long count = keys.buffer.getLong();
+		if(count < 0 || count > Integer.MAX_VALUE) {
+			throw new StreamCorruptedException("Bad key count "+count+".");
+		}
+		root = buildFrom(keys, (int) count);
+		tombstones = 0;
+		modCount++;
+	}
+	
+	/**
+	 * This is the buildFrom helper method for load. This method builds the
+	 * same shape as buildBalanced, reading the left subtree's keys, then the
+	 * middle key, then the right subtree's keys.
+	 * @param keys reader positioned at the first key of the subtree
+	 * @param count number of keys in the subtree
+	 * @return the root of the new subtree, or null for no keys
+	 * @throws IOException if a key cannot be read
+	 */
+	private BSTNode<K> buildFrom(KeyReader keys, int count) throws IOException {
+		if(count == 0) {
+			return null;
+		}
+		int mid = count >>> 1;
+		BSTNode<K> left = buildFrom(keys, mid);
+		BSTNode<K> n = newNode(keys.next());
+		n.setLeft(left);
+		n.setRight(buildFrom(keys, count - mid - 1));
+		updateHeightAndSize(n);
+		return n;
+	}
+	
+	/** This is the KeyReader class. It reads the keys of a save file from
+	 * a channel through a buffer, refilling the buffer whenever a key runs
+	 * off its end and growing it if a single key does not fit.
+	 */
+	private class KeyReader {
+		/* fields */
+		private final ReadableByteChannel channel; //where the save file is read from
+		private final KeySerializer<K> serializer; //reads each key
+		private ByteBuffer buffer; //bytes read from the channel but not yet used
+		private boolean finished; //whether the channel has no more bytes
+		private K previous; //last key read, or null before the first one
+		
+		/**
+		 * This is the constructor for a KeyReader.
+		 * @param channel where the save file is read from
+		 * @param serializer reads each key
+		 */
+		KeyReader(ReadableByteChannel channel, KeySerializer<K> serializer) {
+			this.channel = channel;
+			this.serializer = serializer;
+			buffer = ByteBuffer.allocate(SAVE_BUFFER_SIZE);
+			buffer.flip();
+		}
+		
+		/**
+		 * This is the require method.
+		 * @param bytes number of bytes the buffer must hold
+		 * @throws IOException if the channel ends first
+		 */
+		void require(int bytes) throws IOException {
+			while(buffer.remaining() < bytes) {
+				if(finished) {
+					throw new EOFException("The save file ends too early.");
+				}
+				fill();
+			}
+		}
+		
+		/**
+		 * This is the fill method. This method moves the unused bytes to the
+		 * front of the buffer, doubling it if it is already full of them,
+		 * and reads more from the channel behind them.
+		 * @throws IOException if the channel cannot be read from
+		 */
+		private void fill() throws IOException {
+			if(buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+			else {
+				buffer.compact();
+			}
+			if(channel.read(buffer) < 0) {
+				finished = true;
+			}
+			buffer.flip();
+		}
+		
+		/**
+		 * This is the next method.
+		 * @return the next key in the save file
+		 * @throws IOException if the channel cannot be read from, ends partway
+		 * through a key, or holds a key that is not after the one before it
+		 */
+		K next() throws IOException {
+			K key;
+			while(true) {
+				int start = buffer.position();
+				try {
+					key = serializer.read(buffer, previous);
+					break;
+				} catch(BufferUnderflowException e) {
+					buffer.position(start);
+					if(finished) {
+						throw new EOFException("The save file ends partway through a key.");
+					}
+					fill();
+				}
+			}
+			if(key == null || (previous != null && compare(key, previous) <= 0)) {
+				throw new StreamCorruptedException("Key "+key+" is not after the key before it.");
+			}
+			previous = key;
+			return key;
+		}
+	}
+	
+	/**
+	 * This is the forEachInOrder method. This method hands every key to
+	 * action in ascending order, walking the tree with an explicit stack 
+	 * instead of recursion.
+	 * @param action called once for each key
+	 */
+	public void forEachInOrder(Consumer<? super K> action) {
+		BSTNode<K>[] stack = newPath();
+		int depth = 0;
+		BSTNode<K> n = root;
+		while(n != null || depth > 0) {
+			while(n != null) {
+				stack[depth++] = n;
+				n = n.getLeft();
+			}
+			n = stack[--depth];
+			if(!n.deleted) {
+				action.accept(n.getKey());
+			}
+			n = n.getRight();
+		}
+	}
+	
+	/**
+	 * This is the forEach method. It is the same as forEachInOrder.
+	 * @param action called once for each key, in ascending order
+	 */
+	@Override
+	public void forEach(Consumer<? super K> action) {
+		forEachInOrder(action);
+	}
+	
+	/**
+	 * This is the iterator method.
+	 * @return an iterator over the keys in ascending order
+	 */
+	@Override
+	public Iterator<K> iterator() {
+		return new RangeIterator(null, false, null, false, false);
+	}
+	
+	/**
+	 * This is the descendingIterator method.
+	 * @return an iterator over the keys in descending order
+	 */
+	public Iterator<K> descendingIterator() {
+		return new RangeIterator(null, false, null, false, true);
+	}
+	
+	/**
+	 * This is the subSet method. Nothing is copied: the keys are found
+	 * lazily as the result is iterated, at a cost of O(log n) to find the
+	 * first key and O(1) amortized for each key after it.
+	 * @param from smallest key to visit, inclusive
+	 * @param to key to stop at, exclusive
+	 * @return the keys from from up to but not including to, in ascending order
+	 * @throws IllegalArgumentException if from or to is null value
+	 */
+	public Iterable<K> subSet(K from, K to) throws IllegalArgumentException {
+		if(from == null || to == null) {
+			throw new IllegalArgumentException("Range bounds cannot be null.");
+		}
+		return () -> rangeIterator(from, true, to, false, false);
+	}
+	
+	/**
+	 * This is the rangeIterator method.
+	 * @param low lowest key to visit, or null for no lower bound
+	 * @param lowInclusive whether low itself is visited
+	 * @param high highest key to visit, or null for no upper bound
+	 * @param highInclusive whether high itself is visited
+	 * @param descending whether the keys are visited from high to low
+	 * @return an iterator over the keys between low and high
+	 */
+	Iterator<K> rangeIterator(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending) {
+		return new RangeIterator(low, lowInclusive, high, highInclusive, descending);
+	}
+	
+	/**
+	 * This is the asNavigableSet method.
+	 * @return a NavigableSet view of this AVLTree, see AVLTreeSet
+	 */
+	public AVLTreeSet<K> asNavigableSet() {
+		return new AVLTreeSet<K>(this);
+	}
+	
+	/**
+	 * This is the cursor method.
+	 * @return a new Cursor on this tree, see Cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * This is the spliterator method. The spliterator covers a range of
+	 * ranks and splits it in half, finding where each half starts from the
+	 * subtree sizes, so every piece knows its exact size and a parallel
+	 * stream gets an even share of the keys on each thread.
+	 * @return a spliterator over the keys in ascending order
+	 */
+	@Override
+	public Spliterator<K> spliterator() {
+		return new KeySpliterator(0, -1, 0);
+	}
+	
+	/**
+	 * This is the stream method.
+	 * @return a sequential Stream of the keys in ascending order
+	 */
+	public Stream<K> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * This is the parallelStream method.
+	 * @return a parallel Stream of the keys in ascending order
+	 */
+	public Stream<K> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * This is the first method.
+	 * @return the smallest key in the AVLTree, or null if it is empty
+	 */
+	public K first() {
+		if(tombstones > 0) {
+			return isEmpty() ? null : select(0);
+		}
+		BSTNode<K> n = root;
+		if(n == null) {
+			return null;
+		}
+		while(n.getLeft() != null) {
+			n = n.getLeft();
+		}
+		return n.getKey();
+	}
+	
+	/**
+	 * This is the last method.
+	 * @return the largest key in the AVLTree, or null if it is empty
+	 */
+	public K last() {
+		if(tombstones > 0) {
+			return isEmpty() ? null : select(size() - 1);
+		}
+		BSTNode<K> n = root;
+		if(n == null) {
+			return null;
+		}
+		while(n.getRight() != null) {
+			n = n.getRight();
+		}
+		return n.getKey();
+	}
+	
+	/**
+	 * This is the floor method.
+	 * @param key key to compare against
+	 * @return the largest key less than or equal to key, or null if there is none
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public K floor(K key) throws IllegalArgumentException {
+		return nearest(key, true, true);
+	}
+	
+	/**
+	 * This is the ceiling method.
+	 * @param key key to compare against
+	 * @return the smallest key greater than or equal to key, or null if there is none
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public K ceiling(K key) throws IllegalArgumentException {
+		return nearest(key, false, true);
+	}
+	
+	/**
+	 * This is the lower method.
+	 * @param key key to compare against
+	 * @return the largest key strictly less than key, or null if there is none
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public K lower(K key) throws IllegalArgumentException {
+		return nearest(key, true, false);
+	}
+	
+	/**
+	 * This is the higher method.
+	 * @param key key to compare against
+	 * @return the smallest key strictly greater than key, or null if there is none
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public K higher(K key) throws IllegalArgumentException {
+		return nearest(key, false, false);
+	}
+	
+	/**
+	 * This is the nearest helper method for floor, ceiling, lower and higher.
+	 * This method walks down from the root once, remembering the last key
+	 * it passed on the wanted side of key. When the tree holds tombstones,
+	 * the key is found by rank instead, which skips them in O(log n).
+	 * @param key key to compare against
+	 * @param below whether the wanted key is below key rather than above it
+	 * @param inclusive whether key itself is an answer
+	 * @return the nearest key on the wanted side, or null if there is none
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	private K nearest(K key, boolean below, boolean inclusive) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot compare against a null key.");
+		}
+		if(tombstones > 0) {
+			int rank = countBelow(key, below == inclusive);
+			if(below) {
+				return rank == 0 ? null : select(rank - 1);
+			}
+			return rank == size() ? null : select(rank);
+		}
+		K best = null;
+		BSTNode<K> n = root;
+		while(n != null) {
+			int cmp = compare(key, n.getKey());
+			if(cmp == 0 && inclusive) {
+				return n.getKey();
+			}
+			if(below) {
+				if(cmp > 0) {
+					best = n.getKey();
+					n = n.getRight();
+				}
+				else {
+					n = n.getLeft();
+				}
+			}
+			else {
+				if(cmp < 0) {
+					best = n.getKey();
+					n = n.getLeft();
+				}
+				else {
+					n = n.getRight();
+				}
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * This is the nodeIterator method. AVLTreeMap uses it for its entries.
+	 * @return an iterator over the nodes in ascending key order, whose remove
+	 * deletes the node last returned
+	 */
+	Iterator<BSTNode<K>> nodeIterator() {
+		RangeIterator keys = new RangeIterator(null, false, null, false, false);
+		return new Iterator<BSTNode<K>>() {
+			@Override
+			public boolean hasNext() {
+				return keys.hasNext();
+			}
+			
+			@Override
+			public BSTNode<K> next() {
+				return keys.nextNode();
+			}
+			
+			@Override
+			public void remove() {
+				keys.remove();
+			}
+		};
+	}
+	
+	/** This is the KeySpliterator class. It visits the keys whose ranks
+	 * run from index up to fence. The stack of nodes still to visit is only
+	 * built when the first key is needed, by walking down to the node of
+	 * rank index, so splitting never touches the tree. Like the tree's
+	 * iterators, it binds to the tree when first used and fails fast if the
+	 * tree changes after that.
+	 */
+	private class KeySpliterator implements Spliterator<K> {
+		/* fields */
+		private final BSTNode<K>[] stack; //nodes whose key and right subtree are still to come
+		private int depth; //number of nodes on the stack
+		private boolean positioned; //whether the stack leads to the key of rank index
+		private int index; //rank of the next key to visit
+		private int fence; //rank one past the last key to visit, or -1 until first use
+		private int expectedModCount; //modCount the tree should still have
+		
+		/**
+		 * This is the constructor for a KeySpliterator.
+		 * @param index rank of the first key to visit
+		 * @param fence rank one past the last key to visit, or -1 for the
+		 * size of the tree when the spliterator is first used
+		 * @param expectedModCount modCount the tree should have, if fence is set
+		 */
+		KeySpliterator(int index, int fence, int expectedModCount) {
+			stack = newPath();
+			this.index = index;
+			this.fence = fence;
+			this.expectedModCount = expectedModCount;
+		}
+		
+		/**
+		 * This is the getFence method. It binds the spliterator to the tree
+		 * the first time it is needed.
+		 * @return rank one past the last key to visit
+		 */
+		private int getFence() {
+			if(fence < 0) {
+				fence = size();
+				expectedModCount = modCount;
+			}
+			return fence;
+		}
+		
+		/**
+		 * This is the seek method. This method walks down from the root using
+		 * the subtree sizes, keeping each node it goes left from, so the top
+		 * of the stack is the node of rank index.
+		 */
+		private void seek() {
+			depth = 0;
+			int rank = index;
+			BSTNode<K> n = root;
+			while(n != null) {
+				int leftSize = getSize(n.getLeft());
+				if(rank < leftSize || (rank == leftSize && !n.deleted)) {
+					stack[depth++] = n;
+					if(rank == leftSize) {
+						break;
+					}
+					n = n.getLeft();
+				}
+				else {
+					rank -= leftSize + live(n);
+					n = n.getRight();
+				}
+			}
+			positioned = true;
+		}
+		
+		/**
+		 * This is the nextNode method. Tombstones come off the stack like any
+		 * other node, but are passed over.
+		 * @return the node of rank index, after which the stack leads to the
+		 * node of the next rank
+		 */
+		private BSTNode<K> nextNode() {
+			if(!positioned) {
+				seek();
+			}
+			BSTNode<K> n;
+			do {
+				n = stack[--depth];
+				BSTNode<K> next = n.getRight();
+				while(next != null) {
+					stack[depth++] = next;
+					next = next.getLeft();
+				}
+			} while(n.deleted);
+			index++;
+			return n;
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super K> action) {
+			Objects.requireNonNull(action);
+			if(index >= getFence()) {
+				return false;
+			}
+			if(modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			action.accept(nextNode().getKey());
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super K> action) {
+			Objects.requireNonNull(action);
+			int hi = getFence();
+			if(index < hi && modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			while(index < hi) {
+				action.accept(nextNode().getKey());
+			}
+			if(modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+		
+		/**
+		 * This is the trySplit method. The first half of the ranks goes to a
+		 * new spliterator and this one keeps the second half.
+		 * @return a spliterator over the first half, or null if there are
+		 * fewer than two keys left
+		 */
+		@Override
+		public Spliterator<K> trySplit() {
+			int hi = getFence();
+			int mid = (index + hi) >>> 1;
+			if(mid <= index) {
+				return null;
+			}
+			KeySpliterator prefix = new KeySpliterator(index, mid, expectedModCount);
+			index = mid;
+			positioned = false;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return getFence() - index;
+		}
+		
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+					| Spliterator.SIZED | Spliterator.SUBSIZED;
+		}
+		
+		@Override
+		public Comparator<? super K> getComparator() {
+			return comparator;
+		}
+	}
+	
+	/** This is the RangeIterator class. It visits the keys between two
+	 * optional bounds in either direction. The nodes whose keys are still to
+	 * come are kept on a fixed-size stack, so finding the first key costs
+	 * O(log n) and each step after that costs O(1) amortized.
+	 */
+	private class RangeIterator implements Iterator<K> {
+		/* fields */
+		private final BSTNode<K>[] stack; //nodes whose key and far subtree are still to come
+		private int depth; //number of nodes on the stack
+		private final K end; //last key that may be visited, or null for no bound
+		private final boolean endInclusive; //whether end itself may be visited
+		private final boolean descending; //whether keys are visited from high to low
+		private BSTNode<K> lastReturned; //node returned by the last call to next
+		private int expectedModCount; //modCount the tree should still have
+		
+		/**
+		 * This is the constructor for a RangeIterator.
+		 * @param low lowest key to visit, or null for no lower bound
+		 * @param lowInclusive whether low itself is visited
+		 * @param high highest key to visit, or null for no upper bound
+		 * @param highInclusive whether high itself is visited
+		 * @param descending whether the keys are visited from high to low
+		 */
+		RangeIterator(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending) {
+			stack = newPath();
+			this.descending = descending;
+			end = descending ? low : high;
+			endInclusive = descending ? lowInclusive : highInclusive;
+			expectedModCount = modCount;
+			if(descending) {
+				seek(high, highInclusive);
+			}
+			else {
+				seek(low, lowInclusive);
+			}
+		}
+		
+		/**
+		 * This is the seek method. This method rebuilds the stack so that its
+		 * top is the first key at or past start in the direction of travel.
+		 * @param start key to start from, or null to start at the very end
+		 * @param inclusive whether start itself may be visited
+		 */
+		private void seek(K start, boolean inclusive) {
+			depth = 0;
+			BSTNode<K> n = root;
+			while(n != null) {
+				int cmp = start == null ? 0 : compare(n.getKey(), start);
+				boolean ahead = start == null || (descending ? cmp < 0 : cmp > 0) || (cmp == 0 && inclusive);
+				if(ahead) {
+					stack[depth++] = n;
+					n = descending ? n.getRight() : n.getLeft();
+				}
+				else {
+					n = descending ? n.getLeft() : n.getRight();
+				}
+			}
+			skipTombstones();
+		}
+		
+		/**
+		 * This is the pop method.
+		 * @return the node on top of the stack, after replacing it with the
+		 * nodes that lead to the one after it
+		 */
+		private BSTNode<K> pop() {
+			BSTNode<K> n = stack[--depth];
+			BSTNode<K> next = descending ? n.getLeft() : n.getRight();
+			while(next != null) {
+				stack[depth++] = next;
+				next = descending ? next.getRight() : next.getLeft();
+			}
+			return n;
+		}
+		
+		/**
+		 * This is the skipTombstones method. It pops tombstones off the top of
+		 * the stack until the top holds a key.
+		 */
+		private void skipTombstones() {
+			while(depth > 0 && stack[depth - 1].deleted) {
+				pop();
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(depth == 0) {
+				return false;
+			}
+			if(end == null) {
+				return true;
+			}
+			int cmp = compare(stack[depth - 1].getKey(), end);
+			return (descending ? cmp > 0 : cmp < 0) || (cmp == 0 && endInclusive);
+		}
+		
+		@Override
+		public K next() {
+			return nextNode().getKey();
+		}
+		
+		/**
+		 * This is the nextNode method.
+		 * @return the node holding the next key
+		 * @throws ConcurrentModificationException if the tree changed other
+		 * than through this iterator
+		 * @throws NoSuchElementException if there are no keys left
+		 */
+		BSTNode<K> nextNode() throws ConcurrentModificationException, NoSuchElementException {
+			if(modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			BSTNode<K> n = pop();
+			skipTombstones();
+			lastReturned = n;
+			return n;
+		}
+		
+		/**
+		 * This is the remove method. This method deletes the key last
+		 * returned by next. The delete may rotate nodes that are on the
+		 * stack, so the stack is rebuilt for the keys after it.
+		 */
+		@Override
+		public void remove() {
+			if(lastReturned == null) {
+				throw new IllegalStateException();
+			}
+			if(modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			K key = lastReturned.getKey();
+			deleteKey(key);
+			lastReturned = null;
+			expectedModCount = modCount;
+			seek(key, false);
+		}
+	}
+	
+	/** This is the Cursor class. A Cursor is a finger into the tree: it
+	 * keeps the path from the root down to the last key it was used on,
+	 * along with the range of keys each node on that path can hold. A
+	 * search climbs back up only as far as the lowest node whose range
+	 * takes in the new key, then walks down from there, so a key d ranks
+	 * away from the last one usually costs O(log d) comparisons instead of
+	 * O(log n). Keys handed in ascending order, as by an ingest, settle on
+	 * the right edge of the tree and cost O(1) comparisons each, amortized.
+	 * An insert or delete still updates the sizes of every node above it.
+	 *
+	 * Inserts and deletes made through a Cursor keep it in place. If the
+	 * tree is changed any other way, the Cursor's next operation starts
+	 * again from the root.
+	 */
+	public class Cursor {
+		/* fields */
+		private BSTNode<K>[] stack; //nodes from the root down to the last key's position, not including its node
+		private final Object[] low; //for each node on the stack, the key its subtree's keys are all above, or null
+		private final Object[] high; //for each node on the stack, the key its subtree's keys are all below, or null
+		private int depth; //number of nodes on the stack
+		private BSTNode<K> node; //node holding the last key, or null if it was not in the tree
+		private int cmp; //comparison of the last key with the node on top of the stack
+		private int expectedModCount; //modCount the stack was built against
+		
+		/**
+		 * This is the constructor for a Cursor. It starts at the root.
+		 */
+		Cursor() {
+			stack = newPath();
+			low = new Object[MAX_DEPTH];
+			high = new Object[MAX_DEPTH];
+			expectedModCount = modCount;
+		}
+		
+		/**
+		 * This is the search method.
+		 * @param key key to look for
+		 * @return true if key is in the tree
+		 * @throws IllegalArgumentException if key is null value
+		 */
+		public boolean search(K key) throws IllegalArgumentException {
+			return seek(key) != null;
+		}
+		
+		/**
+		 * This is the tryInsert method.
+		 * @param key key to be inserted
+		 * @return true if key was added, false if it was already in the tree
+		 * @throws IllegalArgumentException if key is null value
+		 */
+		public boolean tryInsert(K key) throws IllegalArgumentException {
+			if(seek(key) != null) {
+				return false;
+			}
+			lendPath();
+			insertAtPath(key);
+			returnPath(key);
+			return true;
+		}
+		
+		/**
+		 * This is the remove method.
+		 * @param key key to be deleted
+		 * @return true if key was removed, false if it was not in the tree
+		 * @throws IllegalArgumentException if key is null value
+		 */
+		public boolean remove(K key) throws IllegalArgumentException {
+			BSTNode<K> n = seek(key);
+			if(n == null) {
+				return false;
+			}
+			lendPath();
+			deleteAtPath(n);
+			returnPath(key);
+			return true;
+		}
+		
+		/**
+		 * This is the seek method. This method pops nodes off the stack until
+		 * the one on top has key in its range, and then walks down from that
+		 * node as descend would, recording each node's range on the way.
+		 * @param key key to move to
+		 * @return the node holding key, or null if key is not in the tree
+		 * @throws IllegalArgumentException if key is null value
+		 */
+		@SuppressWarnings("unchecked")
+		private BSTNode<K> seek(K key) throws IllegalArgumentException {
+			if(key == null) {
+				throw new IllegalArgumentException("Cannot move a cursor to a null key.");
+			}
+			if(expectedModCount != modCount) {
+				depth = 0;
+				expectedModCount = modCount;
+			}
+			while(depth > 0 && !inRange(depth - 1, key)) {
+				depth--;
+			}
+			BSTNode<K> n = root;
+			K lowKey = null;
+			K highKey = null;
+			if(depth > 0) {
+				//walk down again from the lowest node whose range holds key
+				n = stack[--depth];
+				lowKey = (K) low[depth];
+				highKey = (K) high[depth];
+			}
+			long keyPrefix = prefixOf(key);
+			cmp = 0;
+			while(n != null) {
+				cmp = compare(key, keyPrefix, n);
+				if(cmp == 0) {
+					break;
+				}
+				stack[depth] = n;
+				low[depth] = lowKey;
+				high[depth] = highKey;
+				depth++;
+				if(cmp < 0) {
+					highKey = n.getKey();
+					n = n.getLeft();
+				}
+				else {
+					lowKey = n.getKey();
+					n = n.getRight();
+				}
+			}
+			node = n;
+			return n == null || n.deleted ? null : n;
+		}
+		
+		/**
+		 * This is the inRange method.
+		 * @param level position of a node on the stack
+		 * @param key key to check
+		 * @return true if key belongs in the subtree of that node
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean inRange(int level, K key) {
+			return (low[level] == null || compare(key, (K) low[level]) > 0)
+					&& (high[level] == null || compare(key, (K) high[level]) < 0);
+		}
+		
+		/**
+		 * This is the lendPath method. This method swaps the Cursor's stack in
+		 * as the tree's path stack, as if descend had just built it, so that
+		 * insertAtPath or deleteAtPath can finish the change.
+		 */
+		private void lendPath() {
+			BSTNode<K>[] treePath = path;
+			path = stack;
+			stack = treePath;
+			pathDepth = depth;
+			pathCmp = cmp;
+			pathModCount = modCount;
+			pathToken++;
+			pathTombstone = node != null && node.deleted ? node : null;
+		}
+		
+		/**
+		 * This is the returnPath method. This method takes the stack back
+		 * after a change, keeps the nodes the change left on the path, and
+		 * walks down from them to key again.
+		 * @param key key that was inserted or deleted
+		 */
+		private void returnPath(K key) {
+			BSTNode<K>[] cursorPath = path;
+			path = stack;
+			stack = cursorPath;
+			//a change bumps modCount once; a compaction bumps it again and moves every node
+			depth = modCount == pathModCount + 1 ? pathIntact : 0;
+			expectedModCount = modCount;
+			seek(key);
+		}
+	}
+	
+	/**
+	 * This is the checkForBalancedTree method. This method walks the whole
+	 * tree once without recursion, checking that every node's height and
+	 * size match its subtrees and that no node's subtrees differ in height
+	 * by more than one.
+	 * @return true if the tree is height balanced
+	 */
+	@Override
+	public boolean checkForBalancedTree() {
+		return verify(true, false) == null;
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method. This method walks the
+	 * whole tree once without recursion, checking that the keys come out in
+	 * strictly increasing order.
+	 * @return true if the tree is a binary search tree
+	 */
+	@Override
+	public boolean checkForBinarySearchTree() {
+		return verify(false, true) == null;
+	}
+	
+	/**
+	 * This is the verify method. This method checks heights, sizes, balance
+	 * and key order in one O(n) pass, using a stack no deeper than any AVL
+	 * tree can be, so it is safe to run on a tree of any size or on one that
+	 * has been damaged.
+	 * @return a description of the first problem found, or null if the tree
+	 * is a valid AVL tree
+	 */
+	public String verify() {
+		return verify(true, true);
+	}
+	
+	/**
+	 * This is the verify helper method. This method visits each node twice:
+	 * on the way through in order, where its key is checked against the key
+	 * before it, and after both its subtrees, where its height, size and
+	 * balance are checked against theirs. The tombstones are counted on the
+	 * way and checked against the tree's count of them at the end.
+	 * @param balance whether to check heights, sizes and balance
+	 * @param order whether to check the order of the keys
+	 * @return a description of the first problem found, or null if there is none
+	 */
+	private String verify(boolean balance, boolean order) {
+		BSTNode<K>[] stack = newPath();
+		boolean[] rightStarted = new boolean[MAX_DEPTH];
+		int depth = 0;
+		BSTNode<K> n = root;
+		K previous = null;
+		int deleted = 0;
+		while(true) {
+			while(n != null) {
+				if(depth == MAX_DEPTH) {
+					return "The tree is more than "+MAX_DEPTH+" levels deep.";
+				}
+				if(n.getKey() == null) {
+					return "A node has a null key.";
+				}
+				rightStarted[depth] = false;
+				stack[depth++] = n;
+				n = n.getLeft();
+			}
+			if(depth == 0) {
+				if(balance && deleted != tombstones) {
+					return "The tree counts "+tombstones+" tombstones but holds "+deleted+".";
+				}
+				return null;
+			}
+			BSTNode<K> top = stack[depth - 1];
+			if(!rightStarted[depth - 1]) {
+				if(top.deleted) {
+					deleted++;
+				}
+				if(order && previous != null && compare(previous, top.getKey()) >= 0) {
+					return "Key "+top.getKey()+" comes after key "+previous+" in order.";
+				}
+				previous = top.getKey();
+				rightStarted[depth - 1] = true;
+				n = top.getRight();
+			}
+			else {
+				String problem = balance ? checkNode(top) : null;
+				if(problem != null) {
+					return problem;
+				}
+				depth--;
+			}
+		}
+	}
+	
+	/**
+	 * This is the checkNode method. This method checks one node against the
+	 * heights and sizes recorded in its children, so it costs O(1).
+	 * @param n node to check
+	 * @return a description of the problem with n, or null if there is none
+	 */
+	private String checkNode(BSTNode<K> n) {
+		int leftHeight = getHeight(n.getLeft());
+		int rightHeight = getHeight(n.getRight());
+		if(n.height != 1 + Math.max(leftHeight, rightHeight)) {
+			return "Key "+n.getKey()+" has height "+n.height+" but its subtrees make it "
+					+(1 + Math.max(leftHeight, rightHeight))+".";
+		}
+		if(Math.abs(leftHeight - rightHeight) > 1) {
+			return "Key "+n.getKey()+" is out of balance: its left subtree has height "+leftHeight
+					+" and its right subtree has height "+rightHeight+".";
+		}
+		int size = live(n) + getSize(n.getLeft()) + getSize(n.getRight());
+		if(n.size != size) {
+			return "Key "+n.getKey()+" has size "+n.size+" but its subtrees make it "+size+".";
+		}
+		return null;
+	}
+	
+	/**
+	 * This is the verifySample method. Rather than the whole tree, this
+	 * method checks the paths from the root to a number of nodes picked at
+	 * random by rank, so each path is O(log n) long and the check costs
+	 * O(paths log n). Every node on a path is checked against its children
+	 * as in verify, and its key against the bounds set by the nodes above it.
+	 * A tree that fails this is damaged; a tree that passes it is only
+	 * probably sound, with each damaged node having a chance of being
+	 * picked that grows with the number of nodes below it.
+	 * @param paths number of paths to check
+	 * @return a description of the first problem found, or null if there is none
+	 * @throws IllegalArgumentException if paths is negative
+	 */
+	public String verifySample(int paths) throws IllegalArgumentException {
+		if(paths < 0) {
+			throw new IllegalArgumentException("Cannot check a negative number of paths.");
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for(int i = 0; i < paths && root != null; i++) {
+			int rank = random.nextInt(Math.max(1, getSize(root)));
+			K low = null;
+			K high = null;
+			BSTNode<K> n = root;
+			for(int depth = 0; n != null; depth++) {
+				if(depth == MAX_DEPTH) {
+					return "The tree is more than "+MAX_DEPTH+" levels deep.";
+				}
+				K key = n.getKey();
+				if(key == null) {
+					return "A node has a null key.";
+				}
+				if((low != null && compare(key, low) <= 0) || (high != null && compare(key, high) >= 0)) {
+					return "Key "+key+" is outside the range its ancestors allow.";
+				}
+				String problem = checkNode(n);
+				if(problem != null) {
+					return problem;
+				}
+				int leftSize = getSize(n.getLeft());
+				if(rank == leftSize && !n.deleted) {
+					break;
+				}
+				if(rank < leftSize) {
+					high = key;
+					n = n.getLeft();
+				}
+				else {
+					rank -= leftSize + live(n);
+					low = key;
+					n = n.getRight();
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * This is the buildBalanced method. This method turns a sorted range of
+	 * keys into a subtree by making the middle key the root and building
+	 * each half the same way. Recursion only goes as deep as the subtree.
+	 * @param keys sorted keys
+	 * @param from index of the first key in the range
+	 * @param to index one past the last key in the range
+	 * @return the root of the new subtree, or null for an empty range
+	 * @throws IllegalArgumentException if a key is null
+	 */
+	@SuppressWarnings("unchecked")
+	private BSTNode<K> buildBalanced(Object[] keys, int from, int to) throws IllegalArgumentException {
+		if(from >= to) {
+			return null;
+		}
+		int mid = (from + to) >>> 1;
+		if(keys[mid] == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		BSTNode<K> n = newNode((K) keys[mid]);
+		n.setLeft(buildBalanced(keys, from, mid));
+		n.setRight(buildBalanced(keys, mid + 1, to));
+		updateHeightAndSize(n);
+		return n;
+	}
+	
+	/**
+	 * This is the join method. This method makes one balanced subtree out of
+	 * two subtrees and a middle node, where every key on the left is smaller
+	 * than the middle key and every key on the right is larger. The shorter
+	 * subtree is hung off the spine of the taller one at the level where the
+	 * heights match, and the nodes above it are rebalanced on the way back, 
+	 * so the cost is the difference in height.
+	 * @param left subtree of smaller keys
+	 * @param middle node whose key goes between the two subtrees
+	 * @param right subtree of larger keys
+	 * @return the root of the joined subtree
+	 */
+	private BSTNode<K> join(BSTNode<K> left, BSTNode<K> middle, BSTNode<K> right) {
+		int leftHeight = getHeight(left);
+		int rightHeight = getHeight(right);
+		if(leftHeight > rightHeight + 1) {
+			left.setRight(join(left.getRight(), middle, right));
+			return checkHeightImbalance(left);
+		}
+		if(rightHeight > leftHeight + 1) {
+			right.setLeft(join(left, middle, right.getLeft()));
+			return checkHeightImbalance(right);
+		}
+		middle.setLeft(left);
+		middle.setRight(right);
+		updateHeightAndSize(middle);
+		return middle;
+	}
+	
+	/**
+	 * This is the join method for two subtrees with no middle node. The
+	 * smallest node of the right subtree is taken out and used as the middle.
+	 * @param left subtree of smaller keys
+	 * @param right subtree of larger keys
+	 * @return the root of the joined subtree
+	 */
+	private BSTNode<K> join(BSTNode<K> left, BSTNode<K> right) {
+		if(left == null) {
+			return right;
+		}
+		if(right == null) {
+			return left;
+		}
+		BSTNode<K> min = right;
+		while(min.getLeft() != null) {
+			min = min.getLeft();
+		}
+		return join(left, min, removeMin(right));
+	}
+	
+	/**
+	 * This is the removeMin method. This method unlinks the smallest node of
+	 * a subtree and rebalances the nodes above it.
+	 * @param n root of the subtree
+	 * @return the root of the subtree without its smallest node
+	 */
+	private BSTNode<K> removeMin(BSTNode<K> n) {
+		if(n.getLeft() == null) {
+			return n.getRight();
+		}
+		n.setLeft(removeMin(n.getLeft()));
+		return checkHeightImbalance(n);
+	}
+	
+	/**
+	 * This is the rebalancePath method. This method walks back up the path
+	 * stack after an insert or delete, fixing the height of each node and 
+	 * rotating it if it became imbalanced. It stops early once a subtree 
+	 * ends up with the same height it had before, since nothing above it 
+	 * can need rotating; the nodes above only have their sizes adjusted.
+	 * The nodes above the highest rotation are still on the path to where
+	 * the change was made, and pathIntact is left counting them.
+	 * @param depth number of nodes on the path stack
+	 * @param sizeChange +1 after an insert, -1 after a delete
+	 */
+	private void rebalancePath(int depth, int sizeChange) {
+		pathIntact = depth;
+		while(depth > 0) {
+			BSTNode<K> n = path[--depth];
+			int oldHeight = n.height;
+			BSTNode<K> subtree = checkHeightImbalance(n);
+			if(subtree != n) {
+				replaceChild(depth, n, subtree);
+				pathIntact = depth;
+			}
+			else if(subtree.height == oldHeight) {
+				while(depth > 0) {
+					path[--depth].size += sizeChange;
+				}
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This is the replaceChild method. This method links a new subtree in 
+	 * where the old one hung, which is either the root or a child of the 
+	 * node just above it on the path stack.
+	 * @param depth position of the old subtree on the path stack
+	 * @param old subtree being replaced
+	 * @param replacement subtree to link in its place
+	 */
+	private void replaceChild(int depth, BSTNode<K> old, BSTNode<K> replacement) {
+		if(depth == 0) {
+			root = replacement;
+		}
+		else if(path[depth - 1].getLeft() == old) {
+			path[depth - 1].setLeft(replacement);
+		}
+		else {
+			path[depth - 1].setRight(replacement);
+		}
+	}
+	
+	/**
+	 * This is the checkHeightImbalance method. This method is called on each
+	 * node on the way back up from an insert or delete. It checks a node's 
+	 * left and right subtree for any imbalance, and figures out what kind of 
+	 * rotations are necessary to fix it.
+	 * @param n node to be checked for height imbalance
+	 * @return the root of the subtree after any rotations
+	 */
+	private BSTNode <K> checkHeightImbalance(BSTNode <K> n) {
+		//check the subtree's left and right heights
+		int balance = getHeight(n.getLeft()) - getHeight(n.getRight());
+		if(balance > 1) {
+			//if the left child leans right we need two rotations
+			boolean twice = getHeight(n.getLeft().getLeft()) < getHeight(n.getLeft().getRight());
+			if(twice) {
+				n.setLeft(leftRotate(n.getLeft()));
+			}
+			if(metrics != null) {
+				metrics.recordRotation(twice);
+			}
+			return rightRotate(n);
+		}
+		else if(balance < -1) {
+			//if the right child leans left we need two rotations
+			boolean twice = getHeight(n.getRight().getRight()) < getHeight(n.getRight().getLeft());
+			if(twice) {
+				n.setRight(rightRotate(n.getRight()));
+			}
+			if(metrics != null) {
+				metrics.recordRotation(twice);
+			}
+			return leftRotate(n);
+		}
+		updateHeightAndSize(n);
+		return n;
+	}
+	/**
+	 * This is the getHeight() accessor method. This method is used
+	 * to get the height of a node based on its subtree in the AVLTree.
+	 * @return the height of the node this method is called on
+	 */
+	private int getHeight(AVLTree<K>.BSTNode<K> node) {
+			if(node == null) {
+				return 0;
+			}
+			else {
+				return node.height;
+			}
+	}
+	/**
+	 * This is the getSize() accessor method.
+	 * @return the number of keys in the subtree rooted at node, 0 for null
+	 */
+	private int getSize(BSTNode<K> node) {
+		return node == null ? 0 : node.size;
+	}
+	/**
+	 * This is the live method.
+	 * @return 1 if node holds a key, or 0 if it is a tombstone
+	 */
+	private int live(BSTNode<K> node) {
+		return node.deleted ? 0 : 1;
+	}
+	/**
+	 * This is the updateHeightAndSize method. This method sets the height of
+	 * a node to one more than the height of its taller child, and its size to
+	 * the sizes of its children plus one for its own key, unless it is a tombstone.
+	 * @param node whose children have their correct heights and sizes
+	 */
+	private void updateHeightAndSize(BSTNode<K> node) {
+		node.setHeight(1 + Math.max(getHeight(node.getLeft()), getHeight(node.getRight())));
+		node.size = live(node) + getSize(node.getLeft()) + getSize(node.getRight());
+	}
+	/**
+	 * This is the rightRotate method. This method is able to correctly rotate
+	 * nodes to the right based on their height imbalance in order to correctly 
+	 * configure them in the AVLTree.
+	 * @param node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private BSTNode <K> rightRotate(BSTNode<K> node) {
+		BSTNode<K> pivot = node.getLeft();
+		//set grandparents left node to parents right
+		node.setLeft(pivot.getRight());
+		//set parent nodes right to grandparent node
+		pivot.setRight(node);
+		updateHeightAndSize(node);
+		updateHeightAndSize(pivot);
+		return pivot;
+	}
+	
+	/**
+	 * This is the leftRotate method. This method is able to correctly rotate
+	 * nodes to the left based on their height imbalance in order to correctly 
+	 * configure them in the AVLTree.
+	 * @param node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private BSTNode <K> leftRotate(BSTNode<K> node) {
+		BSTNode<K> pivot = node.getRight();
+		//set grandparents right node to parents left
+		node.setRight(pivot.getLeft());
+		//set parent nodes left to grandparent node
+		pivot.setLeft(node);
+		updateHeightAndSize(node);
+		updateHeightAndSize(pivot);
+		return pivot;
 	}
-}
\ No newline at end of file
+}
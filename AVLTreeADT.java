@@ -6,8 +6,9 @@
  */
 
 import java.lang.IllegalArgumentException;
+import java.util.Collection;
 
-public interface AVLTreeADT<K extends Comparable<K>> {
+public interface AVLTreeADT<K> {
 
 	/**
 	 * Checks for an empty AVL tree.
@@ -30,6 +31,41 @@ public interface AVLTreeADT<K extends Comparable<K>> {
 	 */
 	public void delete(K key) throws IllegalArgumentException;
 	
+	/**
+	 * Adds key to the AVL tree if it is not already there. The outcome is
+	 * the return value, so a duplicate costs no exception and no output.
+	 * Implementations override this to walk down the tree only once.
+	 * @param key
+	 * @return true if key was added, false if it was already in the AVL tree
+	 * @throws IllegalArgumentException if null value inserted
+	 */
+	public default boolean tryInsert(K key) throws IllegalArgumentException {
+		if(search(key)) {
+			return false;
+		}
+		try {
+			insert(key);
+		} catch(DuplicateKeyException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Deletes key from the AVL tree if it is there. Implementations
+	 * override this to walk down the tree only once.
+	 * @param key
+	 * @return true if key was removed, false if it was not in the AVL tree
+	 * @throws IllegalArgumentException if try to delete null
+	 */
+	public default boolean remove(K key) throws IllegalArgumentException {
+		if(!search(key)) {
+			return false;
+		}
+		delete(key);
+		return true;
+	}
+	
 	/**
 	 * Search for a key in AVL tree
 	 * @param key
@@ -55,4 +91,51 @@ public interface AVLTreeADT<K extends Comparable<K>> {
 	 * @return true if AVL tree is binary search tree.
 	 */
 	public boolean checkForBinarySearchTree();
+	
+	/**
+	 * Adds every key in keys to the AVL tree. Keys that are already in the
+	 * tree, or that appear more than once in keys, are counted instead of
+	 * being reported one at a time.
+	 * @param keys keys to be added
+	 * @return how many keys were inserted and how many were duplicates
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is inserted
+	 */
+	public default BatchResult insertAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		for(K key : keys) {
+			if(key == null) {
+				throw new IllegalArgumentException("Cannot insert a null key.");
+			}
+		}
+		int inserted = 0;
+		for(K key : keys) {
+			if(tryInsert(key)) {
+				inserted++;
+			}
+		}
+		return new BatchResult(inserted, 0, keys.size() - inserted, 0);
+	}
+	
+	/**
+	 * Deletes every key in keys from the AVL tree. Keys that are not in the
+	 * tree are counted as missing.
+	 * @param keys keys to be deleted
+	 * @return how many keys were removed and how many were missing
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is deleted
+	 */
+	public default BatchResult deleteAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		for(K key : keys) {
+			if(key == null) {
+				throw new IllegalArgumentException("Cannot delete a null key.");
+			}
+		}
+		int removed = 0;
+		for(K key : keys) {
+			if(remove(key)) {
+				removed++;
+			}
+		}
+		return new BatchResult(0, removed, 0, keys.size() - removed);
+	}
 }
\ No newline at end of file
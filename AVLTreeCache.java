@@ -0,0 +1,520 @@
+/**
+ * Filename:   AVLTreeCache.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/** This is the AVLTreeCache class. It is an ordered cache: a sorted map
+ * with a maximum number of entries, where each entry may also have a time
+ * to live. Putting a new key into a full cache first evicts one entry,
+ * chosen by the cache's EvictionPolicy.
+ *
+ * The keys are kept in an AVLTree whose nodes carry the entries. The other
+ * orders the policies need are kept in small AVLTrees of their own, sorted
+ * by a Comparator: one by expiry time, for the entries that have one, and
+ * for LEAST_RECENTLY_USED, one by last use. Finding and evicting the next
+ * victim in any order therefore costs O(log n).
+ *
+ * evictBelow and evictRange drop a whole range of keys by splitting the key
+ * tree, in O(log n) however many keys go. Their entries are left in the
+ * other orders and skipped when they come up, since a victim is only
+ * evicted if the key tree still holds that same entry. Those orders are
+ * rebuilt from the live entries once they grow past twice the cache's size.
+ *
+ * Expired entries are never returned. They are removed when they are looked
+ * up, before each put, and by evictExpired. Like AVLTree, an AVLTreeCache
+ * must not be used by more than one thread at a time.
+ * @param <K> generic type of the keys
+ * @param <V> generic type of the values
+ */
+public class AVLTreeCache<K, V> {
+	/* fields */
+	private static final long NEVER = Long.MAX_VALUE; //expiry time of an entry without a time to live
+	private final int capacity; //most entries the cache holds
+	private final EvictionPolicy policy; //which entry a full cache evicts
+	private final Comparator<? super K> comparator; //order of the keys, or null for their natural ordering
+	private final LongSupplier clock; //current time in nanoseconds
+	private final long origin; //clock reading when the cache was made, which times are measured from
+	private AVLTree<K> keys; //the keys, each node carrying its Entry
+	private AVLTree<Entry<K, V>> expiries; //entries with a time to live, soonest expiry first
+	private AVLTree<Entry<K, V>> recency; //entries least recently used first, or null unless the policy is LRU
+	private long ticks; //counter giving every entry a unique sequence number and use time
+
+	/** This is the EvictionPolicy enum. It names the entry a full cache
+	 * gives up to make room for a new key.
+	 */
+	public enum EvictionPolicy {
+		OLDEST_KEY, //the lowest key, which for time-windowed keys is the oldest
+		LEAST_RECENTLY_USED, //the entry that has gone longest without a get or put
+		EARLIEST_EXPIRY //the entry that will expire soonest, or the lowest key if none will
+	}
+
+	/** This is the Entry class. It holds a key's value along with the
+	 * times the other orders sort it by.
+	 * @param <K> generic type of the keys
+	 * @param <V> generic type of the values
+	 */
+	static final class Entry<K, V> {
+		/* fields */
+		private final K key; //key the entry belongs to
+		private final long sequence; //unique number, breaking ties between equal expiry times
+		private V value; //value mapped to the key
+		private long expiresAt; //nanoseconds after origin that the entry expires, or NEVER
+		private long lastUsed; //tick of the last get or put, unique across entries
+
+		/**
+		 * This is the constructor for an Entry.
+		 * @param key key the entry belongs to
+		 * @param sequence unique number of the entry
+		 */
+		Entry(K key, long sequence) {
+			this.key = key;
+			this.sequence = sequence;
+			expiresAt = NEVER;
+		}
+	}
+
+	/**
+	 * This is the constructor for an AVLTreeCache whose keys are in their
+	 * natural ordering and whose times come from System.nanoTime.
+	 * @param capacity most entries the cache holds
+	 * @param policy which entry a full cache evicts
+	 * @throws IllegalArgumentException if capacity is not positive or policy is null
+	 */
+	public AVLTreeCache(int capacity, EvictionPolicy policy) throws IllegalArgumentException {
+		this(capacity, policy, null, System::nanoTime);
+	}
+
+	/**
+	 * This is the constructor for an AVLTreeCache.
+	 * @param capacity most entries the cache holds
+	 * @param policy which entry a full cache evicts
+	 * @param comparator order of the keys, or null for their natural ordering
+	 * @param clock current time in nanoseconds, such as System::nanoTime
+	 * @throws IllegalArgumentException if capacity is not positive or policy
+	 * or clock is null
+	 */
+	public AVLTreeCache(int capacity, EvictionPolicy policy, Comparator<? super K> comparator, LongSupplier clock)
+			throws IllegalArgumentException {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+		if(policy == null || clock == null) {
+			throw new IllegalArgumentException("Cannot make a cache without a policy and a clock.");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.comparator = comparator;
+		this.clock = clock;
+		origin = clock.getAsLong();
+		keys = new AVLTree<K>(comparator);
+		expiries = newExpiries();
+		recency = policy == EvictionPolicy.LEAST_RECENTLY_USED ? newRecency() : null;
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of entries, counting expired ones not yet removed
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the cache holds no entries, counting expired ones not yet removed
+	 */
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	/**
+	 * This is the get method. Under LEAST_RECENTLY_USED this counts as a use.
+	 * @param key key to look up
+	 * @return the value mapped to key, or null if there is none or it expired
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public V get(K key) throws IllegalArgumentException {
+		Entry<K, V> entry = find(key);
+		if(entry == null) {
+			return null;
+		}
+		touch(entry);
+		return entry.value;
+	}
+
+	/**
+	 * This is the containsKey method. It does not count as a use.
+	 * @param key key to look up
+	 * @return true if key is mapped to a value that has not expired
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public boolean containsKey(K key) throws IllegalArgumentException {
+		return find(key) != null;
+	}
+
+	/**
+	 * This is the put method for an entry that does not expire.
+	 * @param key key to map
+	 * @param value value to map it to
+	 * @return the value key was mapped to before, or null if there was none
+	 * @throws IllegalArgumentException if key or value is null
+	 */
+	public V put(K key, V value) throws IllegalArgumentException {
+		return put(key, value, NEVER);
+	}
+
+	/**
+	 * This is the put method for an entry with a time to live. Putting a key
+	 * that is already there replaces its value and restarts its time to live.
+	 * @param key key to map
+	 * @param value value to map it to
+	 * @param ttl how long the entry lives
+	 * @param unit unit of ttl
+	 * @return the value key was mapped to before, or null if there was none
+	 * @throws IllegalArgumentException if key, value or unit is null or ttl
+	 * is not positive
+	 */
+	public V put(K key, V value, long ttl, TimeUnit unit) throws IllegalArgumentException {
+		if(unit == null || ttl <= 0) {
+			throw new IllegalArgumentException("The time to live must be positive.");
+		}
+		long expiresAt;
+		try {
+			expiresAt = Math.min(Math.addExact(now(), unit.toNanos(ttl)), NEVER - 1);
+		} catch(ArithmeticException e) {
+			expiresAt = NEVER - 1;
+		}
+		return put(key, value, expiresAt);
+	}
+
+	/**
+	 * This is the put helper method.
+	 * @param key key to map
+	 * @param value value to map it to
+	 * @param expiresAt time the entry expires, or NEVER
+	 * @return the value key was mapped to before, or null if there was none
+	 * @throws IllegalArgumentException if key or value is null
+	 */
+	private V put(K key, V value, long expiresAt) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot map a null key.");
+		}
+		if(value == null) {
+			throw new IllegalArgumentException("Cannot map "+key+" to null.");
+		}
+		evictExpired();
+		AVLTree<K>.BSTNode<K> n = keys.descend(key);
+		if(n != null) {
+			Entry<K, V> entry = entry(n);
+			V old = entry.value;
+			entry.value = value;
+			setExpiry(entry, expiresAt);
+			touch(entry);
+			return old;
+		}
+		if(keys.size() >= capacity) {
+			evictOne();
+			keys.descend(key);
+		}
+		Entry<K, V> entry = new Entry<K, V>(key, ++ticks);
+		entry.value = value;
+		keys.insertAtPath(key).setValue(entry);
+		setExpiry(entry, expiresAt);
+		entry.lastUsed = ++ticks;
+		if(recency != null) {
+			recency.tryInsert(entry);
+		}
+		return null;
+	}
+
+	/**
+	 * This is the remove method.
+	 * @param key key to remove
+	 * @return the value key was mapped to, or null if there was none or it expired
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public V remove(K key) throws IllegalArgumentException {
+		Entry<K, V> entry = find(key);
+		if(entry == null) {
+			return null;
+		}
+		unlink(entry);
+		return entry.value;
+	}
+
+	/**
+	 * This is the firstKey method.
+	 * @return the lowest key, or null if the cache is empty
+	 */
+	public K firstKey() {
+		return keys.first();
+	}
+
+	/**
+	 * This is the lastKey method.
+	 * @return the highest key, or null if the cache is empty
+	 */
+	public K lastKey() {
+		return keys.last();
+	}
+
+	/**
+	 * This is the forEach method. It hands every entry that has not expired
+	 * to action in key order, without counting as a use.
+	 * @param action called once for each key and its value
+	 */
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		long now = now();
+		Iterator<AVLTree<K>.BSTNode<K>> nodes = keys.nodeIterator();
+		while(nodes.hasNext()) {
+			Entry<K, V> entry = entry(nodes.next());
+			if(!isExpired(entry, now)) {
+				action.accept(entry.key, entry.value);
+			}
+		}
+	}
+
+	/**
+	 * This is the evictExpired method. It removes every entry whose time to
+	 * live has run out, soonest expiry first, at O(log n) each.
+	 * @return the number of entries removed
+	 */
+	public int evictExpired() {
+		long now = now();
+		int evicted = 0;
+		Entry<K, V> entry;
+		while((entry = expiries.first()) != null && isExpired(entry, now)) {
+			expiries.remove(entry);
+			if(isLive(entry)) {
+				keys.deleteAtPath(keys.descend(entry.key));
+				if(recency != null) {
+					recency.remove(entry);
+				}
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * This is the evictBelow method. It drops every key lower than key with
+	 * one split of the key tree.
+	 * @param key lowest key to keep
+	 * @return the number of entries dropped
+	 * @throws IllegalArgumentException if key is null
+	 */
+	public int evictBelow(K key) throws IllegalArgumentException {
+		AVLTree<K> kept = keys.split(key);
+		int evicted = keys.size();
+		keys = kept;
+		compactOrders();
+		return evicted;
+	}
+
+	/**
+	 * This is the evictRange method. It drops every key from low up to but
+	 * not including high with two splits of the key tree, and joins the keys
+	 * on either side back together.
+	 * @param low lowest key to drop
+	 * @param high lowest key above low to keep
+	 * @return the number of entries dropped
+	 * @throws IllegalArgumentException if low or high is null or low is after high
+	 */
+	public int evictRange(K low, K high) throws IllegalArgumentException {
+		if(low == null || high == null) {
+			throw new IllegalArgumentException("Range bounds cannot be null.");
+		}
+		if(keys.compare(low, high) > 0) {
+			throw new IllegalArgumentException("low is after high.");
+		}
+		AVLTree<K> dropped = keys.split(low);
+		AVLTree<K> above = dropped.split(high);
+		keys.union(above);
+		compactOrders();
+		return dropped.size();
+	}
+
+	/**
+	 * This is the find method. It removes the entry for key if it expired.
+	 * @param key key to look up
+	 * @return the entry for key, or null if there is none or it expired
+	 * @throws IllegalArgumentException if key is null
+	 */
+	private Entry<K, V> find(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot look up a null key.");
+		}
+		AVLTree<K>.BSTNode<K> n = keys.descend(key);
+		if(n == null) {
+			return null;
+		}
+		Entry<K, V> entry = entry(n);
+		if(isExpired(entry, now())) {
+			unlink(entry);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * This is the evictOne method. It evicts the entry the policy picks.
+	 */
+	private void evictOne() {
+		if(policy == EvictionPolicy.LEAST_RECENTLY_USED && evictFirst(recency)) {
+			return;
+		}
+		if(policy == EvictionPolicy.EARLIEST_EXPIRY && evictFirst(expiries)) {
+			return;
+		}
+		K lowest = keys.first();
+		if(lowest != null) {
+			unlink(entry(keys.descend(lowest)));
+		}
+	}
+
+	/**
+	 * This is the evictFirst method. It takes entries off the front of an
+	 * order until it finds one the cache still holds, and evicts that one.
+	 * @param order entries sorted in the order they should be evicted
+	 * @return true if an entry was evicted
+	 */
+	private boolean evictFirst(AVLTree<Entry<K, V>> order) {
+		Entry<K, V> entry;
+		while((entry = order.first()) != null) {
+			if(isLive(entry)) {
+				unlink(entry);
+				return true;
+			}
+			order.remove(entry);
+		}
+		return false;
+	}
+
+	/**
+	 * This is the unlink method. It removes an entry from the key tree and
+	 * from the other orders.
+	 * @param entry entry the key tree holds
+	 */
+	private void unlink(Entry<K, V> entry) {
+		keys.deleteAtPath(keys.descend(entry.key));
+		if(entry.expiresAt != NEVER) {
+			expiries.remove(entry);
+		}
+		if(recency != null) {
+			recency.remove(entry);
+		}
+	}
+
+	/**
+	 * This is the setExpiry method. It moves an entry to its new place in
+	 * the expiry order.
+	 * @param entry entry the key tree holds
+	 * @param expiresAt new time the entry expires, or NEVER
+	 */
+	private void setExpiry(Entry<K, V> entry, long expiresAt) {
+		if(entry.expiresAt != NEVER) {
+			expiries.remove(entry);
+		}
+		entry.expiresAt = expiresAt;
+		if(expiresAt != NEVER) {
+			expiries.tryInsert(entry);
+		}
+	}
+
+	/**
+	 * This is the touch method. Under LEAST_RECENTLY_USED it moves an entry
+	 * to the back of the recency order.
+	 * @param entry entry that was just used
+	 */
+	private void touch(Entry<K, V> entry) {
+		if(recency != null) {
+			recency.remove(entry);
+			entry.lastUsed = ++ticks;
+			recency.tryInsert(entry);
+		}
+	}
+
+	/**
+	 * This is the isLive method.
+	 * @param entry entry taken from one of the other orders
+	 * @return true if the key tree still holds this entry, rather than
+	 * having dropped it in a range eviction
+	 */
+	private boolean isLive(Entry<K, V> entry) {
+		AVLTree<K>.BSTNode<K> n = keys.descend(entry.key);
+		return n != null && n.getValue() == entry;
+	}
+
+	/**
+	 * This is the now method. Times are kept as nanoseconds since the cache
+	 * was made, rather than as raw clock readings, so that a clock that reads
+	 * negative, as System.nanoTime may, cannot make them overflow.
+	 * @return nanoseconds since origin
+	 */
+	private long now() {
+		return clock.getAsLong() - origin;
+	}
+
+	/**
+	 * This is the isExpired method.
+	 * @param entry entry to check
+	 * @param now current time, from now()
+	 * @return true if the entry's time to live has run out
+	 */
+	private static boolean isExpired(Entry<?, ?> entry, long now) {
+		return entry.expiresAt != NEVER && entry.expiresAt <= now;
+	}
+
+	/**
+	 * This is the compactOrders method. After a range eviction, it rebuilds
+	 * the other orders from the live entries if the dropped ones have made
+	 * them more than twice the size of the cache.
+	 */
+	private void compactOrders() {
+		int limit = 2 * keys.size() + 64;
+		if(expiries.size() <= limit && (recency == null || recency.size() <= limit)) {
+			return;
+		}
+		List<Entry<K, V>> timed = new ArrayList<Entry<K, V>>();
+		List<Entry<K, V>> all = new ArrayList<Entry<K, V>>();
+		Iterator<AVLTree<K>.BSTNode<K>> nodes = keys.nodeIterator();
+		while(nodes.hasNext()) {
+			Entry<K, V> entry = entry(nodes.next());
+			all.add(entry);
+			if(entry.expiresAt != NEVER) {
+				timed.add(entry);
+			}
+		}
+		expiries = newExpiries();
+		expiries.insertAll(timed);
+		if(recency != null) {
+			recency = newRecency();
+			recency.insertAll(all);
+		}
+	}
+
+	private AVLTree<Entry<K, V>> newExpiries() {
+		return new AVLTree<Entry<K, V>>(Comparator.<Entry<K, V>>comparingLong(entry -> entry.expiresAt)
+				.thenComparingLong(entry -> entry.sequence));
+	}
+
+	private AVLTree<Entry<K, V>> newRecency() {
+		return new AVLTree<Entry<K, V>>(Comparator.comparingLong(entry -> entry.lastUsed));
+	}
+
+	@SuppressWarnings("unchecked")
+	private Entry<K, V> entry(AVLTree<K>.BSTNode<K> n) {
+		return (Entry<K, V>) n.getValue();
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * Filename:   AVLTreeMap.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/** This is the AVLTreeMap class. It is a sorted map kept in an AVLTree
+ * whose nodes carry a value next to their key, so a key and its value take
+ * one node and one lookup instead of a tree node plus a hash map entry.
+ *
+ * Every operation walks down the tree once. put, remove, compute, merge
+ * and the rest look at the key's node and then finish the insert or delete
+ * from the path that walk left behind. A key that is already there is
+ * reported through the return value, never with an exception.
+ *
+ * Keys and values cannot be null. A function given to compute or merge
+ * removes the key by returning null, and must not change the map itself.
+ * @param <K> generic type of the keys
+ * @param <V> generic type of the values
+ */
+public class AVLTreeMap<K, V> extends AbstractMap<K, V> {
+	/* fields */
+	private AVLTree<K> tree; //tree holding the keys, each node carrying its value
+	private final EntrySet entries; //view of the mappings, created once
+
+	/**
+	 * This is the constructor for an AVLTreeMap. It creates an empty map
+	 * whose keys are sorted by their natural ordering.
+	 */
+	public AVLTreeMap() {
+		this(null);
+	}
+
+	/**
+	 * This is the constructor for an AVLTreeMap sorted by a Comparator.
+	 * @param comparator order of the keys, or null for their natural ordering
+	 */
+	public AVLTreeMap(Comparator<? super K> comparator) {
+		tree = new AVLTree<K>(comparator);
+		entries = new EntrySet();
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return tree.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key != null && tree.find(cast(key)) != null;
+	}
+
+	/**
+	 * This is the get method.
+	 * @param key key to look up
+	 * @return the value mapped to key, or null if there is none
+	 */
+	@Override
+	public V get(Object key) {
+		if(key == null) {
+			return null;
+		}
+		AVLTree<K>.BSTNode<K> n = tree.find(cast(key));
+		return n == null ? null : value(n);
+	}
+
+	/**
+	 * This is the put method.
+	 * @param key key to map
+	 * @param value value to map it to
+	 * @return the value key was mapped to before, or null if it was not in the map
+	 * @throws IllegalArgumentException if key or value is null
+	 */
+	@Override
+	public V put(K key, V value) throws IllegalArgumentException {
+		checkNotNull(key, value);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		if(n == null) {
+			tree.insertAtPath(key).setValue(value);
+			return null;
+		}
+		V old = value(n);
+		n.setValue(value);
+		return old;
+	}
+
+	/**
+	 * This is the putIfAbsent method.
+	 * @param key key to map
+	 * @param value value to map it to if key is not in the map
+	 * @return the value key is already mapped to, or null if value was added
+	 * @throws IllegalArgumentException if key or value is null
+	 */
+	@Override
+	public V putIfAbsent(K key, V value) throws IllegalArgumentException {
+		checkNotNull(key, value);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		if(n == null) {
+			tree.insertAtPath(key).setValue(value);
+			return null;
+		}
+		return value(n);
+	}
+
+	/**
+	 * This is the remove method.
+	 * @param key key to remove
+	 * @return the value key was mapped to, or null if it was not in the map
+	 */
+	@Override
+	public V remove(Object key) {
+		if(key == null) {
+			return null;
+		}
+		AVLTree<K>.BSTNode<K> n = tree.descend(cast(key));
+		if(n == null) {
+			return null;
+		}
+		V old = value(n);
+		tree.deleteAtPath(n);
+		return old;
+	}
+
+	/**
+	 * This is the compute method.
+	 * @param key key to map
+	 * @param remapping given the key and its current value, or null if it
+	 * has none, returns the new value, or null to remove the key
+	 * @return the new value, or null if the key is not in the map afterwards
+	 * @throws IllegalArgumentException if key or remapping is null
+	 * @throws java.util.ConcurrentModificationException if remapping changed the map
+	 */
+	@Override
+	public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping)
+			throws IllegalArgumentException {
+		checkNotNull(key, remapping);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		int token = tree.pathToken();
+		return update(key, n, token, remapping.apply(key, n == null ? null : value(n)));
+	}
+
+	/**
+	 * This is the computeIfAbsent method.
+	 * @param key key to map
+	 * @param mapping given the key, returns its value, or null to leave it out
+	 * @return the value key is mapped to afterwards, or null if there is none
+	 * @throws IllegalArgumentException if key or mapping is null
+	 * @throws java.util.ConcurrentModificationException if mapping changed the map
+	 */
+	@Override
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping) throws IllegalArgumentException {
+		checkNotNull(key, mapping);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		if(n != null) {
+			return value(n);
+		}
+		int token = tree.pathToken();
+		return update(key, null, token, mapping.apply(key));
+	}
+
+	/**
+	 * This is the computeIfPresent method.
+	 * @param key key to remap
+	 * @param remapping given the key and its current value, returns the new
+	 * value, or null to remove the key
+	 * @return the new value, or null if the key is not in the map afterwards
+	 * @throws IllegalArgumentException if key or remapping is null
+	 * @throws java.util.ConcurrentModificationException if remapping changed the map
+	 */
+	@Override
+	public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping)
+			throws IllegalArgumentException {
+		checkNotNull(key, remapping);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		if(n == null) {
+			return null;
+		}
+		int token = tree.pathToken();
+		return update(key, n, token, remapping.apply(key, value(n)));
+	}
+
+	/**
+	 * This is the merge method.
+	 * @param key key to map
+	 * @param value value to map key to if it is not in the map
+	 * @param remapping given the current value and value, returns the new
+	 * value, or null to remove the key
+	 * @return the new value, or null if the key is not in the map afterwards
+	 * @throws IllegalArgumentException if key, value or remapping is null
+	 * @throws java.util.ConcurrentModificationException if remapping changed the map
+	 */
+	@Override
+	public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping)
+			throws IllegalArgumentException {
+		checkNotNull(key, value);
+		checkNotNull(key, remapping);
+		AVLTree<K>.BSTNode<K> n = tree.descend(key);
+		int token = tree.pathToken();
+		return update(key, n, token, n == null ? value : remapping.apply(value(n), value));
+	}
+
+	@Override
+	public void clear() {
+		tree = new AVLTree<K>(tree.comparator());
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return entries;
+	}
+
+	/**
+	 * This is the update method. It finishes a compute or merge from the
+	 * path left by the descent that found n. The function ran after that
+	 * descent, so the insert or delete is given the path token taken right
+	 * after it, and throws ConcurrentModificationException if the function
+	 * changed the tree or refilled the path stack.
+	 * @param key key being mapped
+	 * @param n node holding key, or null if key was not in the map
+	 * @param token the tree's path token right after the descent that found n
+	 * @param value new value, or null to remove the key
+	 * @return value
+	 */
+	private V update(K key, AVLTree<K>.BSTNode<K> n, int token, V value) {
+		if(value == null) {
+			if(n != null) {
+				tree.deleteAtPath(n, token);
+			}
+		}
+		else if(n == null) {
+			tree.insertAtPath(key, token).setValue(value);
+		}
+		else {
+			n.setValue(value);
+		}
+		return value;
+	}
+
+	/**
+	 * This is the checkNotNull method.
+	 * @param key key passed in
+	 * @param argument value or function passed in
+	 * @throws IllegalArgumentException if either is null
+	 */
+	private static void checkNotNull(Object key, Object argument) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot map a null key.");
+		}
+		if(argument == null) {
+			throw new IllegalArgumentException("Cannot map "+key+" to null.");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(AVLTree<K>.BSTNode<K> n) {
+		return (V) n.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private K cast(Object key) {
+		return (K) key;
+	}
+
+	/** This is the EntrySet class. Its entries are the tree's nodes, so
+	 * setValue writes through to the map.
+	 */
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		@Override
+		public int size() {
+			return tree.size();
+		}
+
+		@Override
+		public void clear() {
+			AVLTreeMap.this.clear();
+		}
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			Iterator<AVLTree<K>.BSTNode<K>> nodes = tree.nodeIterator();
+			return new Iterator<Map.Entry<K, V>>() {
+				@Override
+				public boolean hasNext() {
+					return nodes.hasNext();
+				}
+
+				@Override
+				public Map.Entry<K, V> next() {
+					return new Entry(nodes.next());
+				}
+
+				@Override
+				public void remove() {
+					nodes.remove();
+				}
+			};
+		}
+	}
+
+	/** This is the Entry class. It is a mapping backed by a node of the
+	 * tree. Like the entries of a TreeMap, it is only good until the next
+	 * insert or delete.
+	 */
+	private class Entry implements Map.Entry<K, V> {
+		/* fields */
+		private final AVLTree<K>.BSTNode<K> node; //node holding the key and value
+
+		/**
+		 * This is the constructor for an Entry.
+		 * @param node node holding the key and value
+		 */
+		Entry(AVLTree<K>.BSTNode<K> node) {
+			this.node = node;
+		}
+
+		@Override
+		public K getKey() {
+			return node.getKey();
+		}
+
+		@Override
+		public V getValue() {
+			return value(node);
+		}
+
+		@Override
+		public V setValue(V value) throws IllegalArgumentException {
+			checkNotNull(node.getKey(), value);
+			V old = value(node);
+			node.setValue(value);
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			return getKey().equals(other.getKey()) && getValue().equals(other.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return getKey()+"="+getValue();
+		}
+	}
+}
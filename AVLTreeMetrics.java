@@ -0,0 +1,220 @@
+/**
+ * Filename:   AVLTreeMetrics.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This is the AVLTreeMetrics class. It counts what an AVLTree does:
+ * operations, single and double rotations, duplicate and null keys that
+ * were rejected, and how long the paths from the root were. A tree only
+ * records anything after AVLTree.setMetrics has been given one of these.
+ * With no metrics set, the cost to the tree is one null check per
+ * operation.
+ *
+ * The counters are LongAdders. The tree can update them while snapshot()
+ * or a JMX client reads them from another thread, and one AVLTreeMetrics
+ * can be shared by several trees.
+ */
+public class AVLTreeMetrics implements AVLTreeMetricsMXBean {
+	/* fields */
+	private static final int MAX_DEPTH = 64; //an AVLTree with 2^31 keys is at most 45 levels deep
+	private final LongAdder inserts = new LongAdder(); //inserts, including duplicates
+	private final LongAdder deletes = new LongAdder(); //deletes, including misses
+	private final LongAdder searches = new LongAdder(); //searches
+	private final LongAdder singleRotations = new LongAdder(); //single rotations
+	private final LongAdder doubleRotations = new LongAdder(); //double rotations, each counted once
+	private final LongAdder duplicateRejections = new LongAdder(); //inserts of a key that was already there
+	private final LongAdder nullRejections = new LongAdder(); //calls rejected because the key was null
+	private final LongAdder[] depthHistogram = new LongAdder[MAX_DEPTH + 1]; //operations by path length
+
+	/**
+	 * This is the constructor for an AVLTreeMetrics. Every counter starts at zero.
+	 */
+	public AVLTreeMetrics() {
+		for(int depth = 0; depth < depthHistogram.length; depth++) {
+			depthHistogram[depth] = new LongAdder();
+		}
+	}
+
+	/**
+	 * This is the snapshot method. Counters that change while the snapshot
+	 * is being taken may or may not be included.
+	 * @return the current value of every counter
+	 */
+	public AVLTreeStats snapshot() {
+		return new AVLTreeStats(inserts.sum(), deletes.sum(), searches.sum(), singleRotations.sum(),
+				doubleRotations.sum(), duplicateRejections.sum(), nullRejections.sum(), getMaxDepth(),
+				getDepthHistogram());
+	}
+
+	/**
+	 * This is the register method. It registers these metrics with the
+	 * platform MBean server under AVLTree:type=AVLTreeMetrics,name=name.
+	 * @param name name telling this tree apart from others
+	 * @return the name the metrics were registered under
+	 * @throws JMException if the name is taken or not a valid ObjectName
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = objectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * This is the unregister method.
+	 * @param name name the metrics were registered under
+	 * @throws JMException if nothing is registered under that name
+	 */
+	public void unregister(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+	}
+
+	/**
+	 * This is the objectName method.
+	 * @param name name telling this tree apart from others
+	 * @return the JMX name for a tree called name
+	 * @throws JMException if the name is not a valid ObjectName
+	 */
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName("AVLTree:type=AVLTreeMetrics,name="+ObjectName.quote(name));
+	}
+
+	/**
+	 * This is the recordInsert method.
+	 * @param depth number of nodes the insert compared against
+	 * @param added false if the key was already there
+	 */
+	void recordInsert(int depth, boolean added) {
+		inserts.increment();
+		if(!added) {
+			duplicateRejections.increment();
+		}
+		recordDepth(depth);
+	}
+
+	/**
+	 * This is the recordDelete method.
+	 * @param depth number of nodes the delete compared against
+	 */
+	void recordDelete(int depth) {
+		deletes.increment();
+		recordDepth(depth);
+	}
+
+	/**
+	 * This is the recordSearch method.
+	 * @param depth number of nodes the search compared against
+	 */
+	void recordSearch(int depth) {
+		searches.increment();
+		recordDepth(depth);
+	}
+
+	/**
+	 * This is the recordRotation method.
+	 * @param twice true for a double rotation
+	 */
+	void recordRotation(boolean twice) {
+		if(twice) {
+			doubleRotations.increment();
+		}
+		else {
+			singleRotations.increment();
+		}
+	}
+
+	/**
+	 * This is the recordNullKey method.
+	 */
+	void recordNullKey() {
+		nullRejections.increment();
+	}
+
+	/**
+	 * This is the recordDepth method.
+	 * @param depth path length, clamped to the histogram
+	 */
+	private void recordDepth(int depth) {
+		depthHistogram[Math.min(depth, MAX_DEPTH)].increment();
+	}
+
+	@Override
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return deletes.sum();
+	}
+
+	@Override
+	public long getSearches() {
+		return searches.sum();
+	}
+
+	@Override
+	public long getSingleRotations() {
+		return singleRotations.sum();
+	}
+
+	@Override
+	public long getDoubleRotations() {
+		return doubleRotations.sum();
+	}
+
+	@Override
+	public long getDuplicateRejections() {
+		return duplicateRejections.sum();
+	}
+
+	@Override
+	public long getNullRejections() {
+		return nullRejections.sum();
+	}
+
+	@Override
+	public long getMaxDepth() {
+		for(int depth = MAX_DEPTH; depth > 0; depth--) {
+			if(depthHistogram[depth].sum() > 0) {
+				return depth;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public double getMeanDepth() {
+		return snapshot().getMeanDepth();
+	}
+
+	@Override
+	public long[] getDepthHistogram() {
+		long[] counts = new long[depthHistogram.length];
+		for(int depth = 0; depth < counts.length; depth++) {
+			counts[depth] = depthHistogram[depth].sum();
+		}
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		inserts.reset();
+		deletes.reset();
+		searches.reset();
+		singleRotations.reset();
+		doubleRotations.reset();
+		duplicateRejections.reset();
+		nullRejections.reset();
+		for(LongAdder count : depthHistogram) {
+			count.reset();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Filename:   AVLTreeMetricsMXBean.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+/**
+ * This is the AVLTreeMetricsMXBean interface. It is the management
+ * interface AVLTreeMetrics is registered under, so the counters of a
+ * running tree can be read from JConsole or any other JMX client.
+ */
+public interface AVLTreeMetricsMXBean {
+
+	/**
+	 * @return the number of inserts, including the ones rejected as duplicates
+	 */
+	public long getInserts();
+
+	/**
+	 * @return the number of deletes, including the ones that found no key
+	 */
+	public long getDeletes();
+
+	/**
+	 * @return the number of searches
+	 */
+	public long getSearches();
+
+	/**
+	 * @return the number of single rotations
+	 */
+	public long getSingleRotations();
+
+	/**
+	 * @return the number of double rotations, each counted once
+	 */
+	public long getDoubleRotations();
+
+	/**
+	 * @return the number of inserts rejected because the key was already there
+	 */
+	public long getDuplicateRejections();
+
+	/**
+	 * @return the number of calls rejected because the key was null
+	 */
+	public long getNullRejections();
+
+	/**
+	 * @return the longest path any recorded operation walked
+	 */
+	public long getMaxDepth();
+
+	/**
+	 * @return the mean number of nodes a recorded operation walked, or 0 if none were recorded
+	 */
+	public double getMeanDepth();
+
+	/**
+	 * @return the number of operations that walked each path length, indexed by length
+	 */
+	public long[] getDepthHistogram();
+
+	/**
+	 * Sets every counter back to zero.
+	 */
+	public void reset();
+}
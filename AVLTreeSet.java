@@ -0,0 +1,367 @@
+/**
+ * Filename:   AVLTreeSet.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.Spliterator;
+
+/** This is the AVLTreeSet class. It is a NavigableSet view of an AVLTree,
+ * so the tree can be passed to code written against TreeSet. Changes made
+ * through the view go straight to the tree and changes made to the tree
+ * show up in the view.
+ *
+ * Sub-set, head-set, tail-set and descending views are views of the same
+ * tree with bounds and a direction; nothing is ever copied. Every lookup
+ * is one of the tree's O(log n) navigation methods plus a bounds check,
+ * and iteration costs O(log n + k) for k keys.
+ * @param <K> generic type of the keys in the tree
+ */
+public class AVLTreeSet<K> extends AbstractSet<K> implements NavigableSet<K> {
+	/* fields */
+	private final AVLTree<K> tree; //tree holding the keys
+	private final K low; //lowest key in the view, or null for no lower bound
+	private final boolean lowInclusive; //whether low itself is in the view
+	private final K high; //highest key in the view, or null for no upper bound
+	private final boolean highInclusive; //whether high itself is in the view
+	private final boolean descending; //whether the view runs from high to low
+
+	/**
+	 * This is the constructor for an AVLTreeSet that views a whole tree.
+	 * @param tree tree holding the keys
+	 */
+	public AVLTreeSet(AVLTree<K> tree) {
+		this(tree, null, false, null, false, false);
+	}
+
+	/**
+	 * This is the constructor for a bounded or descending view.
+	 * @param tree tree holding the keys
+	 * @param low lowest key in the view, or null for no lower bound
+	 * @param lowInclusive whether low itself is in the view
+	 * @param high highest key in the view, or null for no upper bound
+	 * @param highInclusive whether high itself is in the view
+	 * @param descending whether the view runs from high to low
+	 */
+	private AVLTreeSet(AVLTree<K> tree, K low, boolean lowInclusive, K high, boolean highInclusive,
+			boolean descending) {
+		this.tree = tree;
+		this.low = low;
+		this.lowInclusive = lowInclusive;
+		this.high = high;
+		this.highInclusive = highInclusive;
+		this.descending = descending;
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return descending ? Collections.reverseOrder(tree.comparator()) : tree.comparator();
+	}
+
+	/**
+	 * This is the size method. The size of a bounded view is worked out from
+	 * the ranks of its bounds, so it costs O(log n) rather than a scan.
+	 * @return the number of keys in the view
+	 */
+	@Override
+	public int size() {
+		int above = high == null ? tree.size() : tree.rank(high) + (highInclusive && tree.search(high) ? 1 : 0);
+		int below = low == null ? 0 : tree.rank(low) + (!lowInclusive && tree.search(low) ? 1 : 0);
+		return Math.max(0, above - below);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return absLowest() == null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean contains(Object o) {
+		checkNotNull(o);
+		K key = (K) o;
+		return inRange(key) && tree.search(key);
+	}
+
+	/**
+	 * This is the add method.
+	 * @param key key to be added
+	 * @return true if the key was not already in the tree
+	 * @throws NullPointerException if key is null
+	 * @throws IllegalArgumentException if key is outside the view
+	 */
+	@Override
+	public boolean add(K key) throws NullPointerException, IllegalArgumentException {
+		checkNotNull(key);
+		if(!inRange(key)) {
+			throw new IllegalArgumentException("Key "+key+" is out of range.");
+		}
+		return tree.tryInsert(key);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean remove(Object o) {
+		checkNotNull(o);
+		K key = (K) o;
+		return inRange(key) && tree.remove(key);
+	}
+
+	@Override
+	public Iterator<K> iterator() {
+		return tree.rangeIterator(low, lowInclusive, high, highInclusive, descending);
+	}
+
+	/**
+	 * This is the spliterator method. A view of the whole tree in ascending
+	 * order uses the tree's own spliterator, which splits evenly for
+	 * parallel streams; other views walk their iterator.
+	 * @return a spliterator over the keys in the view's order
+	 */
+	@Override
+	public Spliterator<K> spliterator() {
+		if(low == null && high == null && !descending) {
+			return tree.spliterator();
+		}
+		return NavigableSet.super.spliterator();
+	}
+
+	@Override
+	public Iterator<K> descendingIterator() {
+		return tree.rangeIterator(low, lowInclusive, high, highInclusive, !descending);
+	}
+
+	@Override
+	public K first() {
+		K key = descending ? absHighest() : absLowest();
+		if(key == null) {
+			throw new NoSuchElementException();
+		}
+		return key;
+	}
+
+	@Override
+	public K last() {
+		K key = descending ? absLowest() : absHighest();
+		if(key == null) {
+			throw new NoSuchElementException();
+		}
+		return key;
+	}
+
+	@Override
+	public K lower(K key) {
+		checkNotNull(key);
+		return descending ? absHigher(key) : absLower(key);
+	}
+
+	@Override
+	public K floor(K key) {
+		checkNotNull(key);
+		return descending ? absCeiling(key) : absFloor(key);
+	}
+
+	@Override
+	public K ceiling(K key) {
+		checkNotNull(key);
+		return descending ? absFloor(key) : absCeiling(key);
+	}
+
+	@Override
+	public K higher(K key) {
+		checkNotNull(key);
+		return descending ? absLower(key) : absHigher(key);
+	}
+
+	@Override
+	public K pollFirst() {
+		K key = descending ? absHighest() : absLowest();
+		if(key != null) {
+			tree.delete(key);
+		}
+		return key;
+	}
+
+	@Override
+	public K pollLast() {
+		K key = descending ? absLowest() : absHighest();
+		if(key != null) {
+			tree.delete(key);
+		}
+		return key;
+	}
+
+	@Override
+	public NavigableSet<K> descendingSet() {
+		return new AVLTreeSet<K>(tree, low, lowInclusive, high, highInclusive, !descending);
+	}
+
+	@Override
+	public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+		checkNotNull(fromElement);
+		checkNotNull(toElement);
+		int cmp = tree.compare(fromElement, toElement);
+		if(descending ? cmp < 0 : cmp > 0) {
+			throw new IllegalArgumentException("fromElement is after toElement.");
+		}
+		checkBound(fromElement, fromInclusive);
+		checkBound(toElement, toInclusive);
+		if(descending) {
+			return bounded(toElement, toInclusive, fromElement, fromInclusive);
+		}
+		return bounded(fromElement, fromInclusive, toElement, toInclusive);
+	}
+
+	@Override
+	public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+		checkNotNull(toElement);
+		checkBound(toElement, inclusive);
+		if(descending) {
+			return bounded(toElement, inclusive, high, highInclusive);
+		}
+		return bounded(low, lowInclusive, toElement, inclusive);
+	}
+
+	@Override
+	public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+		checkNotNull(fromElement);
+		checkBound(fromElement, inclusive);
+		if(descending) {
+			return bounded(low, lowInclusive, fromElement, inclusive);
+		}
+		return bounded(fromElement, inclusive, high, highInclusive);
+	}
+
+	@Override
+	public SortedSet<K> subSet(K fromElement, K toElement) {
+		return subSet(fromElement, true, toElement, false);
+	}
+
+	@Override
+	public SortedSet<K> headSet(K toElement) {
+		return headSet(toElement, false);
+	}
+
+	@Override
+	public SortedSet<K> tailSet(K fromElement) {
+		return tailSet(fromElement, true);
+	}
+
+	/**
+	 * This is the bounded helper method for the sub-set views.
+	 * @param newLow lowest key of the new view, or null for no lower bound
+	 * @param newLowInclusive whether newLow is in the new view
+	 * @param newHigh highest key of the new view, or null for no upper bound
+	 * @param newHighInclusive whether newHigh is in the new view
+	 * @return a view with the new bounds and this view's direction
+	 */
+	private NavigableSet<K> bounded(K newLow, boolean newLowInclusive, K newHigh, boolean newHighInclusive) {
+		return new AVLTreeSet<K>(tree, newLow, newLowInclusive, newHigh, newHighInclusive, descending);
+	}
+
+	/**
+	 * This is the checkNotNull method. A NavigableSet throws
+	 * NullPointerException for a null key, as TreeSet does, rather than the
+	 * IllegalArgumentException the tree itself throws.
+	 * @param key key passed in
+	 * @throws NullPointerException if key is null
+	 */
+	private static void checkNotNull(Object key) throws NullPointerException {
+		if(key == null) {
+			throw new NullPointerException("Keys and range bounds cannot be null.");
+		}
+	}
+
+	/**
+	 * This is the checkBound method. A sub-set view's bounds must lie inside
+	 * this view, although an exclusive bound may sit on this view's own
+	 * exclusive bound.
+	 * @param key new bound
+	 * @param inclusive whether the new bound is inclusive
+	 * @throws IllegalArgumentException if the new bound is outside this view
+	 */
+	private void checkBound(K key, boolean inclusive) throws IllegalArgumentException {
+		boolean allowed;
+		if(inclusive) {
+			allowed = inRange(key);
+		}
+		else {
+			allowed = (low == null || tree.compare(key, low) >= 0) && (high == null || tree.compare(key, high) <= 0);
+		}
+		if(!allowed) {
+			throw new IllegalArgumentException("Key "+key+" is out of range.");
+		}
+	}
+
+	private boolean tooLow(K key) {
+		if(low == null) {
+			return false;
+		}
+		int cmp = tree.compare(key, low);
+		return cmp < 0 || (cmp == 0 && !lowInclusive);
+	}
+
+	private boolean tooHigh(K key) {
+		if(high == null) {
+			return false;
+		}
+		int cmp = tree.compare(key, high);
+		return cmp > 0 || (cmp == 0 && !highInclusive);
+	}
+
+	private boolean inRange(K key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	/* navigation in ascending key order, ignoring the view's direction */
+
+	private K absLowest() {
+		K key = low == null ? tree.first() : lowInclusive ? tree.ceiling(low) : tree.higher(low);
+		return key == null || tooHigh(key) ? null : key;
+	}
+
+	private K absHighest() {
+		K key = high == null ? tree.last() : highInclusive ? tree.floor(high) : tree.lower(high);
+		return key == null || tooLow(key) ? null : key;
+	}
+
+	private K absLower(K key) {
+		if(tooHigh(key)) {
+			return absHighest();
+		}
+		K found = tree.lower(key);
+		return found == null || tooLow(found) ? null : found;
+	}
+
+	private K absFloor(K key) {
+		if(tooHigh(key)) {
+			return absHighest();
+		}
+		K found = tree.floor(key);
+		return found == null || tooLow(found) ? null : found;
+	}
+
+	private K absCeiling(K key) {
+		if(tooLow(key)) {
+			return absLowest();
+		}
+		K found = tree.ceiling(key);
+		return found == null || tooHigh(found) ? null : found;
+	}
+
+	private K absHigher(K key) {
+		if(tooLow(key)) {
+			return absLowest();
+		}
+		K found = tree.higher(key);
+		return found == null || tooHigh(found) ? null : found;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Filename:   AVLTreeStats.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.util.Arrays;
+
+/**
+ * This is the AVLTreeStats class. It is a snapshot of the counters in an
+ * AVLTreeMetrics, taken by AVLTreeMetrics.snapshot(). It does not change
+ * when the tree does, so two snapshots can be subtracted to see what
+ * happened in between.
+ */
+public class AVLTreeStats {
+	/* fields */
+	private final long inserts; //inserts, including duplicates
+	private final long deletes; //deletes, including misses
+	private final long searches; //searches
+	private final long singleRotations; //single rotations
+	private final long doubleRotations; //double rotations, each counted once
+	private final long duplicateRejections; //inserts of a key that was already there
+	private final long nullRejections; //calls rejected because the key was null
+	private final long maxDepth; //longest path walked
+	private final long[] depthHistogram; //operations by the length of the path they walked
+
+	/**
+	 * This is the constructor for an AVLTreeStats.
+	 * @param inserts inserts, including duplicates
+	 * @param deletes deletes, including misses
+	 * @param searches searches
+	 * @param singleRotations single rotations
+	 * @param doubleRotations double rotations, each counted once
+	 * @param duplicateRejections inserts of a key that was already there
+	 * @param nullRejections calls rejected because the key was null
+	 * @param maxDepth longest path walked
+	 * @param depthHistogram operations by the length of the path they walked
+	 */
+	public AVLTreeStats(long inserts, long deletes, long searches, long singleRotations, long doubleRotations,
+			long duplicateRejections, long nullRejections, long maxDepth, long[] depthHistogram) {
+		this.inserts = inserts;
+		this.deletes = deletes;
+		this.searches = searches;
+		this.singleRotations = singleRotations;
+		this.doubleRotations = doubleRotations;
+		this.duplicateRejections = duplicateRejections;
+		this.nullRejections = nullRejections;
+		this.maxDepth = maxDepth;
+		this.depthHistogram = depthHistogram.clone();
+	}
+
+	/**
+	 * @return the number of inserts, including the ones rejected as duplicates
+	 */
+	public long getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * @return the number of deletes, including the ones that found no key
+	 */
+	public long getDeletes() {
+		return deletes;
+	}
+
+	/**
+	 * @return the number of searches
+	 */
+	public long getSearches() {
+		return searches;
+	}
+
+	/**
+	 * @return the number of single rotations
+	 */
+	public long getSingleRotations() {
+		return singleRotations;
+	}
+
+	/**
+	 * @return the number of double rotations, each counted once
+	 */
+	public long getDoubleRotations() {
+		return doubleRotations;
+	}
+
+	/**
+	 * @return the number of inserts rejected because the key was already there
+	 */
+	public long getDuplicateRejections() {
+		return duplicateRejections;
+	}
+
+	/**
+	 * @return the number of calls rejected because the key was null
+	 */
+	public long getNullRejections() {
+		return nullRejections;
+	}
+
+	/**
+	 * @return the longest path any recorded operation walked
+	 */
+	public long getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the mean number of nodes a recorded operation walked, or 0 if none were recorded
+	 */
+	public double getMeanDepth() {
+		long operations = 0;
+		long total = 0;
+		for(int depth = 0; depth < depthHistogram.length; depth++) {
+			operations += depthHistogram[depth];
+			total += depth * depthHistogram[depth];
+		}
+		return operations == 0 ? 0 : (double) total / operations;
+	}
+
+	/**
+	 * @return the number of operations that walked each path length, indexed by length
+	 */
+	public long[] getDepthHistogram() {
+		return depthHistogram.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "inserts="+inserts+" deletes="+deletes+" searches="+searches+" singleRotations="+singleRotations
+				+" doubleRotations="+doubleRotations+" duplicateRejections="+duplicateRejections
+				+" nullRejections="+nullRejections+" maxDepth="+maxDepth+" meanDepth="+getMeanDepth()
+				+" depthHistogram="+Arrays.toString(depthHistogram);
+	}
+}
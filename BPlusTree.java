@@ -0,0 +1,552 @@
+/**
+ * Filename:   BPlusTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/** This is the BPlusTree class. It holds the same sorted set of keys as an
+ * AVLTree and implements AVLTreeADT, so it can be used in place of one,
+ * but it packs many keys into each node instead of one.
+ *
+ * A binary tree of ten million keys is about 24 levels deep, and nearly
+ * every level is a cache miss. With 64 keys to a node this tree is 4 or 5
+ * levels deep, and each level is a binary search over one array of keys
+ * that sits next to each other in memory. Every key is kept in a leaf,
+ * leaves are linked in key order, and the keys in the inner nodes only
+ * steer searches. A node splits when it fills up and borrows from or
+ * merges with a neighbour when it falls below half full, so all leaves
+ * stay at the same depth.
+ * @param <K> generic type for elements to be inserted
+ */
+public class BPlusTree<K extends Comparable<K>> implements AVLTreeADT<K> {
+	/* fields */
+	private static final int DEFAULT_NODE_CAPACITY = 64; //keys per node, 64 references fill four cache lines
+	private static final int MAX_DEPTH = 64; //deeper than any tree of 2^31 keys with at least 3 keys to a node
+	private final int capacity; //most keys a node holds
+	private final int minimum; //fewest keys a node other than the root holds
+	private Node root; //root of the tree, a leaf when the tree is small
+	private int size; //number of keys in the tree
+	private final Node[] pathNodes = new Node[MAX_DEPTH]; //inner nodes from the root down to the current leaf
+	private final int[] pathIndex = new int[MAX_DEPTH]; //which child was taken at each of those nodes
+
+	/** This is the Node class. A leaf holds keys and a link to the next
+	 * leaf. An inner node with count keys has count + 1 children, and
+	 * child i holds the keys that are at least keys[i - 1] and less than
+	 * keys[i]. The arrays have room for one extra entry so a node can
+	 * overflow by one before it is split.
+	 */
+	static final class Node {
+		/* fields */
+		private final Object[] keys; //sorted keys, count of them in use
+		private final Node[] children; //children of an inner node, null for a leaf
+		private int count; //number of keys in use
+		private Node next; //next leaf in key order, null for the last leaf and inner nodes
+
+		/**
+		 * This is the constructor for a Node.
+		 * @param capacity most keys the node holds
+		 * @param leaf whether the node is a leaf
+		 */
+		Node(int capacity, boolean leaf) {
+			keys = new Object[capacity + 1];
+			children = leaf ? null : new Node[capacity + 2];
+		}
+
+		/**
+		 * @return true if the node is a leaf
+		 */
+		private boolean isLeaf() {
+			return children == null;
+		}
+	}
+
+	/**
+	 * This is the constructor for a BPlusTree. It creates an empty tree with
+	 * 64 keys to a node.
+	 */
+	public BPlusTree() {
+		this(DEFAULT_NODE_CAPACITY);
+	}
+
+	/**
+	 * This is the constructor for a BPlusTree with a chosen node size.
+	 * @param capacity most keys a node holds
+	 * @throws IllegalArgumentException if capacity is less than 3
+	 */
+	public BPlusTree(int capacity) throws IllegalArgumentException {
+		if(capacity < 3) {
+			throw new IllegalArgumentException("A node must hold at least 3 keys.");
+		}
+		this.capacity = capacity;
+		this.minimum = capacity / 2;
+		root = new Node(capacity, true);
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the tree contains no keys
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of keys in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be inserted
+	 */
+	@Override
+	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method walks down to the leaf where
+	 * key belongs and adds it there, splitting the leaf and then its
+	 * ancestors for as long as they overflow.
+	 * @param key element's key to be inserted
+	 * @return true if key was added, false if it was already in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		int depth = descend(key);
+		Node n = depth == 0 ? root : pathNodes[depth - 1].children[pathIndex[depth - 1]];
+		int pos = leafIndex(n, key);
+		if(pos < n.count && compare(key, n.keys[pos]) == 0) {
+			return false;
+		}
+		insertAt(n.keys, n.count, pos, key);
+		n.count++;
+		size++;
+		if(n.count <= capacity) {
+			return true;
+		}
+		Node right = splitLeaf(n);
+		Object separator = right.keys[0];
+		while(depth > 0) {
+			Node parent = pathNodes[--depth];
+			int i = pathIndex[depth];
+			insertAt(parent.keys, parent.count, i, separator);
+			insertAt(parent.children, parent.count + 1, i + 1, right);
+			parent.count++;
+			if(parent.count <= capacity) {
+				return true;
+			}
+			int mid = parent.count / 2;
+			separator = parent.keys[mid];
+			right = splitInner(parent, mid);
+		}
+		Node newRoot = new Node(capacity, false);
+		newRoot.keys[0] = separator;
+		newRoot.children[0] = root;
+		newRoot.children[1] = right;
+		newRoot.count = 1;
+		root = newRoot;
+		return true;
+	}
+
+	/**
+	 * This is the delete method. This method calls remove, so deleting a key
+	 * that is not in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be deleted
+	 */
+	@Override
+	public void delete(K key) throws IllegalArgumentException {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. This method removes key from its leaf and
+	 * then, for as long as a node falls below half full, borrows a key from
+	 * a neighbour or merges with it.
+	 * @param key element's key to be deleted
+	 * @return true if key was removed, false if it was not in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean remove(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		int depth = descend(key);
+		Node n = depth == 0 ? root : pathNodes[depth - 1].children[pathIndex[depth - 1]];
+		int pos = leafIndex(n, key);
+		if(pos == n.count || compare(key, n.keys[pos]) != 0) {
+			return false;
+		}
+		removeAt(n.keys, n.count, pos);
+		n.count--;
+		size--;
+		while(depth > 0 && n.count < minimum) {
+			Node parent = pathNodes[--depth];
+			int i = pathIndex[depth];
+			if(i > 0 && parent.children[i - 1].count > minimum) {
+				borrowFromLeft(parent, i);
+				return true;
+			}
+			if(i < parent.count && parent.children[i + 1].count > minimum) {
+				borrowFromRight(parent, i);
+				return true;
+			}
+			merge(parent, i > 0 ? i - 1 : i);
+			n = parent;
+		}
+		if(!root.isLeaf() && root.count == 0) {
+			root = root.children[0];
+		}
+		return true;
+	}
+
+	/**
+	 * This is the search method. This method does a binary search in each
+	 * node on the way down to the leaf where key would be.
+	 * @param key element's key to search for
+	 * @return true if the key is in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean search(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot search for a null key.");
+		}
+		Node n = root;
+		while(!n.isLeaf()) {
+			n = n.children[childIndex(n, key)];
+		}
+		int pos = leafIndex(n, key);
+		return pos < n.count && compare(key, n.keys[pos]) == 0;
+	}
+
+	/**
+	 * This is the print method. This method follows the links between the
+	 * leaves from the first to the last.
+	 * @return a String with all the keys, in order, each followed by one space
+	 */
+	@Override
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		Node n = root;
+		while(!n.isLeaf()) {
+			n = n.children[0];
+		}
+		for(; n != null; n = n.next) {
+			for(int i = 0; i < n.count; i++) {
+				inOrder.append(n.keys[i]).append(' ');
+			}
+		}
+		return inOrder.toString();
+	}
+
+	/**
+	 * This is the checkForBalancedTree method.
+	 * @return true if every leaf is at the same depth and every node other
+	 * than the root is at least half full
+	 */
+	@Override
+	public boolean checkForBalancedTree() {
+		return checkBalance(root, true) >= 0;
+	}
+
+	/**
+	 * This is the checkBalance helper method. Recursion is bounded by the
+	 * height of the tree.
+	 * @param n root of the subtree to check
+	 * @param isRoot whether n is the root of the whole tree
+	 * @return the height of the subtree, or -1 if it is not balanced
+	 */
+	private int checkBalance(Node n, boolean isRoot) {
+		if(n.count > capacity || (!isRoot && n.count < minimum)) {
+			return -1;
+		}
+		if(n.isLeaf()) {
+			return 1;
+		}
+		int height = checkBalance(n.children[0], false);
+		for(int i = 1; i <= n.count && height >= 0; i++) {
+			if(checkBalance(n.children[i], false) != height) {
+				return -1;
+			}
+		}
+		return height < 0 ? -1 : height + 1;
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method.
+	 * @return true if the keys in every node are in order and between the
+	 * keys its parent steers by, and the leaf links visit every key in order
+	 */
+	@Override
+	public boolean checkForBinarySearchTree() {
+		if(!checkOrder(root, null, null)) {
+			return false;
+		}
+		Node n = root;
+		while(!n.isLeaf()) {
+			n = n.children[0];
+		}
+		int seen = 0;
+		Object last = null;
+		for(; n != null; n = n.next) {
+			for(int i = 0; i < n.count; i++) {
+				if(last != null && compare(last, n.keys[i]) >= 0) {
+					return false;
+				}
+				last = n.keys[i];
+				seen++;
+			}
+		}
+		return seen == size;
+	}
+
+	/**
+	 * This is the checkOrder helper method.
+	 * @param n root of the subtree to check
+	 * @param low every key must be at least this, or null for no bound
+	 * @param high every key must be less than this, or null for no bound
+	 * @return true if the subtree's keys are between low and high and in order
+	 */
+	private boolean checkOrder(Node n, Object low, Object high) {
+		for(int i = 0; i < n.count; i++) {
+			if((low != null && compare(n.keys[i], low) < 0) || (high != null && compare(n.keys[i], high) >= 0)
+					|| (i > 0 && compare(n.keys[i - 1], n.keys[i]) >= 0)) {
+				return false;
+			}
+		}
+		if(n.isLeaf()) {
+			return true;
+		}
+		for(int i = 0; i <= n.count; i++) {
+			if(!checkOrder(n.children[i], i == 0 ? low : n.keys[i - 1], i == n.count ? high : n.keys[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This is the descend method. This method walks from the root to the
+	 * leaf where key belongs, recording each inner node and the child taken.
+	 * @param key key being looked for
+	 * @return the number of inner nodes recorded
+	 */
+	private int descend(K key) {
+		Node n = root;
+		int depth = 0;
+		while(!n.isLeaf()) {
+			int i = childIndex(n, key);
+			pathNodes[depth] = n;
+			pathIndex[depth++] = i;
+			n = n.children[i];
+		}
+		return depth;
+	}
+
+	/**
+	 * This is the childIndex method.
+	 * @param n inner node
+	 * @param key key being looked for
+	 * @return the index of the child key belongs under, which is the number
+	 * of keys in n that are less than or equal to key
+	 */
+	private int childIndex(Node n, K key) {
+		int lo = 0;
+		int hi = n.count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(key, n.keys[mid]) >= 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * This is the leafIndex method.
+	 * @param n leaf
+	 * @param key key being looked for
+	 * @return the index of the first key in n that is not less than key
+	 */
+	private int leafIndex(Node n, K key) {
+		int lo = 0;
+		int hi = n.count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(key, n.keys[mid]) > 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * This is the splitLeaf method. The upper half of the keys move to a new
+	 * leaf, which is linked in after n.
+	 * @param n leaf holding one key more than capacity
+	 * @return the new leaf
+	 */
+	private Node splitLeaf(Node n) {
+		Node right = new Node(capacity, true);
+		int mid = n.count / 2;
+		right.count = n.count - mid;
+		System.arraycopy(n.keys, mid, right.keys, 0, right.count);
+		Arrays.fill(n.keys, mid, n.count, null);
+		n.count = mid;
+		right.next = n.next;
+		n.next = right;
+		return right;
+	}
+
+	/**
+	 * This is the splitInner method. The keys after mid and the children
+	 * after them move to a new node. The key at mid moves up to the parent,
+	 * so the caller reads it before calling this.
+	 * @param n inner node holding one key more than capacity
+	 * @param mid index of the key that moves up
+	 * @return the new node
+	 */
+	private Node splitInner(Node n, int mid) {
+		Node right = new Node(capacity, false);
+		right.count = n.count - mid - 1;
+		System.arraycopy(n.keys, mid + 1, right.keys, 0, right.count);
+		System.arraycopy(n.children, mid + 1, right.children, 0, right.count + 1);
+		Arrays.fill(n.keys, mid, n.count, null);
+		Arrays.fill(n.children, mid + 1, n.count + 1, null);
+		n.count = mid;
+		return right;
+	}
+
+	/**
+	 * This is the borrowFromLeft method. It moves one key from the left
+	 * neighbour of child i into child i, through the parent for inner nodes.
+	 * @param parent parent of both nodes
+	 * @param i index of the node that is short of keys
+	 */
+	private void borrowFromLeft(Node parent, int i) {
+		Node n = parent.children[i];
+		Node left = parent.children[i - 1];
+		if(n.isLeaf()) {
+			insertAt(n.keys, n.count, 0, left.keys[left.count - 1]);
+			parent.keys[i - 1] = n.keys[0];
+		}
+		else {
+			insertAt(n.keys, n.count, 0, parent.keys[i - 1]);
+			insertAt(n.children, n.count + 1, 0, left.children[left.count]);
+			left.children[left.count] = null;
+			parent.keys[i - 1] = left.keys[left.count - 1];
+		}
+		left.keys[left.count - 1] = null;
+		left.count--;
+		n.count++;
+	}
+
+	/**
+	 * This is the borrowFromRight method. It moves one key from the right
+	 * neighbour of child i into child i, through the parent for inner nodes.
+	 * @param parent parent of both nodes
+	 * @param i index of the node that is short of keys
+	 */
+	private void borrowFromRight(Node parent, int i) {
+		Node n = parent.children[i];
+		Node right = parent.children[i + 1];
+		if(n.isLeaf()) {
+			n.keys[n.count] = right.keys[0];
+			removeAt(right.keys, right.count, 0);
+			parent.keys[i] = right.keys[0];
+		}
+		else {
+			n.keys[n.count] = parent.keys[i];
+			n.children[n.count + 1] = right.children[0];
+			parent.keys[i] = right.keys[0];
+			removeAt(right.keys, right.count, 0);
+			removeAt(right.children, right.count + 1, 0);
+		}
+		right.count--;
+		n.count++;
+	}
+
+	/**
+	 * This is the merge method. It moves everything in child j + 1 into
+	 * child j and removes child j + 1 and the key between them from the parent.
+	 * @param parent parent of both nodes
+	 * @param j index of the left node
+	 */
+	private void merge(Node parent, int j) {
+		Node left = parent.children[j];
+		Node right = parent.children[j + 1];
+		if(left.isLeaf()) {
+			System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+			left.count += right.count;
+			left.next = right.next;
+		}
+		else {
+			left.keys[left.count] = parent.keys[j];
+			System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+			System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+			left.count += right.count + 1;
+		}
+		removeAt(parent.keys, parent.count, j);
+		removeAt(parent.children, parent.count + 1, j + 1);
+		parent.count--;
+	}
+
+	/**
+	 * This is the insertAt method.
+	 * @param array array to insert into, with room for one more entry
+	 * @param used number of entries in use
+	 * @param index where the new entry goes
+	 * @param entry entry to insert
+	 */
+	private static void insertAt(Object[] array, int used, int index, Object entry) {
+		System.arraycopy(array, index, array, index + 1, used - index);
+		array[index] = entry;
+	}
+
+	/**
+	 * This is the removeAt method. The freed slot at the end is cleared so
+	 * the node does not keep a removed key alive.
+	 * @param array array to remove from
+	 * @param used number of entries in use
+	 * @param index entry to remove
+	 */
+	private static void removeAt(Object[] array, int used, int index) {
+		System.arraycopy(array, index + 1, array, index, used - index - 1);
+		array[used - 1] = null;
+	}
+
+	/**
+	 * This is the compare method.
+	 * @param key key being looked for
+	 * @param stored key stored in a node
+	 * @return negative, zero or positive as key is less than, equal to or
+	 * greater than stored
+	 */
+	@SuppressWarnings("unchecked")
+	private int compare(Object key, Object stored) {
+		return ((K) key).compareTo((K) stored);
+	}
+}
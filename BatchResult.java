@@ -0,0 +1,67 @@
+/**
+ * Filename:   BatchResult.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+/**
+ * This is the BatchResult class. It reports what happened to a batch of
+ * keys passed to insertAll or deleteAll, so that duplicate and missing
+ * keys are counted instead of being reported one key at a time.
+ */
+public class BatchResult {
+	/* fields */
+	private final int inserted; //keys that were added to the tree
+	private final int removed; //keys that were deleted from the tree
+	private final int duplicates; //keys not added because they were already there
+	private final int missing; //keys not deleted because they were not there
+
+	/**
+	 * This is the constructor for a BatchResult.
+	 * @param inserted keys that were added to the tree
+	 * @param removed keys that were deleted from the tree
+	 * @param duplicates keys not added because they were already there
+	 * @param missing keys not deleted because they were not there
+	 */
+	public BatchResult(int inserted, int removed, int duplicates, int missing) {
+		this.inserted = inserted;
+		this.removed = removed;
+		this.duplicates = duplicates;
+		this.missing = missing;
+	}
+
+	/**
+	 * @return the number of keys that were added to the tree
+	 */
+	public int getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * @return the number of keys that were deleted from the tree
+	 */
+	public int getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the number of keys that were already in the tree, or that
+	 * appeared more than once in the batch
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return the number of keys that were not in the tree to be deleted
+	 */
+	public int getMissing() {
+		return missing;
+	}
+
+	@Override
+	public String toString() {
+		return "inserted="+inserted+" removed="+removed+" duplicates="+duplicates+" missing="+missing;
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Filename:   CombiningAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** This is the CombiningAVLTree class. It lets any number of threads share
+ * one AVLTree without a lock around each call. Every insert, delete and
+ * search is queued as a request and answered with a CompletableFuture,
+ * and a single combiner applies the queued requests to the tree in
+ * batches. This is flat combining: rather than each thread taking a lock
+ * to make its own change, one thread makes everyone's.
+ *
+ * A batch is sorted by key, keeping the requests for the same key in the
+ * order they arrived, and walked with one AVLTree.Cursor, so neighbouring
+ * keys share most of their descent. Requests for the same key are
+ * coalesced: the key is looked up once, the requests are answered in
+ * order as if each had been applied, and the tree is changed at most once
+ * for the net result. Requests for different keys do not affect each
+ * other's answers, so the answers are the same as if the requests had
+ * been applied one at a time in the order they arrived.
+ *
+ * Nothing here blocks or holds a monitor. The queue is lock-free, and the
+ * combiner is whichever task wins a compare-and-set on a flag; a thread
+ * that loses returns at once with its future. The combiner runs on the
+ * Executor given to the constructor, or by default on the thread whose
+ * request found no combiner running. Futures are completed by the
+ * combiner, so work chained onto them without an async method runs on the
+ * combiner's thread; it should be short, and must not wait for the
+ * answer to another request.
+ * @param <K> generic type for elements to be inserted
+ */
+public class CombiningAVLTree<K> {
+	/* fields */
+	private static final int MAX_BATCH = 4096; //most requests the combiner takes off the queue at once
+	private static final byte SEARCH = 0, INSERT = 1, DELETE = 2; //request types
+	private final AVLTree<K> tree; //the keys, touched only by the combiner
+	private final AVLTree<K>.Cursor cursor; //cursor the combiner walks each batch with
+	private final Executor executor; //runs the combiner
+	private final ConcurrentLinkedQueue<Request<K>> queue; //requests not yet taken by the combiner
+	private final AtomicBoolean combining; //whether a combiner is running or about to
+	private final Comparator<Request<K>> byKey; //orders a batch by key, keeping arrival order for equal keys
+	private final Runnable combiner; //drains the queue, created once
+	private Request<K>[] batch; //requests taken off the queue, used only by the combiner
+
+	/** This is the Request class. It is one queued insert, delete or search.
+	 * @param <K> generic type for elements to be inserted
+	 */
+	private static final class Request<K> {
+		/* fields */
+		private final byte type; //SEARCH, INSERT or DELETE
+		private final K key; //key the request is for
+		private final CompletableFuture<Boolean> result; //completed by the combiner
+		private boolean answer; //result worked out by the combiner, before the tree is changed
+
+		/**
+		 * This is the constructor for a Request.
+		 * @param type SEARCH, INSERT or DELETE
+		 * @param key key the request is for
+		 */
+		Request(byte type, K key) {
+			this.type = type;
+			this.key = key;
+			result = new CompletableFuture<Boolean>();
+		}
+	}
+
+	/**
+	 * This is the constructor for a CombiningAVLTree holding a new, empty
+	 * AVLTree whose combiner runs on the threads making requests.
+	 */
+	public CombiningAVLTree() {
+		this(new AVLTree<K>(), Runnable::run);
+	}
+
+	/**
+	 * This is the constructor for a CombiningAVLTree. From then on, the tree
+	 * must only be used through it.
+	 * @param tree tree the requests are applied to
+	 * @param executor runs the combiner; Runnable::run runs it on the thread
+	 * whose request started it
+	 * @throws IllegalArgumentException if tree or executor is null
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public CombiningAVLTree(AVLTree<K> tree, Executor executor) throws IllegalArgumentException {
+		if(tree == null || executor == null) {
+			throw new IllegalArgumentException("Cannot combine requests without a tree and an executor.");
+		}
+		this.tree = tree;
+		this.executor = executor;
+		cursor = tree.cursor();
+		queue = new ConcurrentLinkedQueue<Request<K>>();
+		combining = new AtomicBoolean();
+		byKey = (a, b) -> tree.compare(a.key, b.key);
+		combiner = this::combine;
+		batch = (Request<K>[]) new Request[MAX_BATCH];
+	}
+
+	/**
+	 * This is the insert method.
+	 * @param key key to be inserted
+	 * @return a future completed with true if key was added, or false if it
+	 * was already in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public CompletableFuture<Boolean> insert(K key) throws IllegalArgumentException {
+		return submit(INSERT, key, "Cannot insert a null key.");
+	}
+
+	/**
+	 * This is the delete method.
+	 * @param key key to be deleted
+	 * @return a future completed with true if key was removed, or false if
+	 * it was not in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public CompletableFuture<Boolean> delete(K key) throws IllegalArgumentException {
+		return submit(DELETE, key, "Cannot delete a null key.");
+	}
+
+	/**
+	 * This is the search method.
+	 * @param key key to search for
+	 * @return a future completed with true if key is in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public CompletableFuture<Boolean> search(K key) throws IllegalArgumentException {
+		return submit(SEARCH, key, "Cannot search for a null key.");
+	}
+
+	/**
+	 * This is the submit method. This method queues a request and starts a
+	 * combiner if none is running.
+	 * @param type SEARCH, INSERT or DELETE
+	 * @param key key the request is for
+	 * @param nullMessage message for the exception thrown on a null key
+	 * @return the request's future
+	 * @throws IllegalArgumentException if key is null
+	 */
+	private CompletableFuture<Boolean> submit(byte type, K key, String nullMessage) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException(nullMessage);
+		}
+		Request<K> request = new Request<K>(type, key);
+		queue.offer(request);
+		if(combining.compareAndSet(false, true)) {
+			try {
+				executor.execute(combiner);
+			} catch(RejectedExecutionException e) {
+				//nobody else will drain the queue, so this thread has to
+				combine();
+			}
+		}
+		return request.result;
+	}
+
+	/**
+	 * This is the combine method. This method applies batches until the
+	 * queue is empty and then lets the flag go. A request queued just
+	 * before that would find the flag still set, so the queue is checked
+	 * once more after, and the combiner carries on if it can take the flag
+	 * back.
+	 */
+	private void combine() {
+		do {
+			int count;
+			while((count = takeBatch()) > 0) {
+				apply(count);
+			}
+			combining.set(false);
+		} while(!queue.isEmpty() && combining.compareAndSet(false, true));
+	}
+
+	/**
+	 * This is the takeBatch method.
+	 * @return the number of requests moved from the queue into batch
+	 */
+	private int takeBatch() {
+		int count = 0;
+		Request<K> request;
+		while(count < MAX_BATCH && (request = queue.poll()) != null) {
+			batch[count++] = request;
+		}
+		return count;
+	}
+
+	/**
+	 * This is the apply method. This method sorts a batch and answers each
+	 * run of requests for the same key in turn. If the tree throws, for
+	 * example because a key cannot be compared, the requests it was working
+	 * on fail with that exception and the rest go ahead.
+	 * @param count number of requests in batch
+	 */
+	private void apply(int count) {
+		try {
+			Arrays.sort(batch, 0, count, byKey);
+		} catch(RuntimeException e) {
+			for(int i = 0; i < count; i++) {
+				batch[i].result.completeExceptionally(e);
+			}
+			Arrays.fill(batch, 0, count, null);
+			return;
+		}
+		int start = 0;
+		while(start < count) {
+			int end = start + 1;
+			while(end < count && tree.compare(batch[start].key, batch[end].key) == 0) {
+				end++;
+			}
+			try {
+				applyRun(start, end);
+			} catch(RuntimeException e) {
+				for(int i = start; i < end; i++) {
+					batch[i].result.completeExceptionally(e);
+				}
+			}
+			start = end;
+		}
+		Arrays.fill(batch, 0, count, null);
+	}
+
+	/**
+	 * This is the applyRun method. This method answers the requests for one
+	 * key in the order they arrived, and then changes the tree once if the
+	 * key ends up present when it was absent, or the other way around.
+	 * @param start index of the first request for the key
+	 * @param end index one past the last request for the key
+	 */
+	private void applyRun(int start, int end) {
+		K key = batch[start].key;
+		boolean wasPresent = cursor.search(key);
+		boolean present = wasPresent;
+		for(int i = start; i < end; i++) {
+			Request<K> request = batch[i];
+			if(request.type == INSERT) {
+				request.answer = !present;
+				present = true;
+			}
+			else if(request.type == DELETE) {
+				request.answer = present;
+				present = false;
+			}
+			else {
+				request.answer = present;
+			}
+		}
+		if(present && !wasPresent) {
+			cursor.tryInsert(key);
+		}
+		else if(!present && wasPresent) {
+			cursor.remove(key);
+		}
+		for(int i = start; i < end; i++) {
+			batch[i].result.complete(batch[i].answer);
+		}
+	}
+}
@@ -0,0 +1,972 @@
+/**
+ * Filename:   ConcurrentAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/** This is the ConcurrentAVLTree class. This class is an AVLTree that
+ * many threads can share without any outside locking. It follows the
+ * relaxed balance tree of Bronson, Casper, Chafi and Olukotun, "A
+ * Practical Concurrent Binary Search Tree".
+ *
+ * There is no lock for the whole tree. Every node has its own version,
+ * which a rotation changes when it moves the node down, and its own
+ * monitor, which writers hold only around the few nodes they relink.
+ * Searches lock nothing: going from a node to its child, a search reads
+ * the child's version and then checks that the parent's version has not
+ * changed, hand over hand, so a rotation above it only sends it back up
+ * one level. Writers walk down the same way, lock the node they change
+ * (and its parent to unlink it), and then walk back up along parent links
+ * fixing heights, locking just the parent, node and child of each
+ * rotation. Writers in different parts of the tree do not wait for each
+ * other, and no write touches shared state outside the nodes it changes.
+ *
+ * A removed key whose node has two children is left in place as a
+ * routing node, as in the paper, and unlinked once a later change leaves
+ * it with one child. Heights are fixed by the thread that damaged them,
+ * so while writers are running the tree can be briefly out of balance,
+ * but once they finish it is balanced again. A node's key is final, so a
+ * reader that races with a writer always sees real keys.
+ * @param <K> generic type for elements to be inserted
+ */
+public class ConcurrentAVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
+	/* fields */
+	private static final long UNLINKED = 1L; //version of a node that has been unlinked from the tree
+	private static final long SHRINKING = 2L; //version bit set while a rotation moves the node down
+	private static final long SHRINK_COUNT = 4L; //added to a node's version by each rotation that moves it down
+	private static final int SPIN_COUNT = 100; //version checks before a search waits on a rotating node's monitor
+	private static final int YES = 1, NO = 0, RETRY = -1; //results of an attempt that may have to start again
+	private static final int UNLINK_REQUIRED = -1, REBALANCE_REQUIRED = -2, NOTHING_REQUIRED = -3; //results of nodeCondition
+	private final BSTNode<K> rootHolder; //node with no key whose right child is the root
+	private final LongAdder size; //number of keys in the tree, counted in stripes so writers do not share a counter
+
+	/** This is the BSTNode class. This class represents the elements
+	 * that will be inserted into the ConcurrentAVLTree. Its monitor is
+	 * the node's lock.
+	 * @param <K> generic type for elements to be inserted
+	 */
+	static class BSTNode<K> {
+		/* fields */
+		private final K key; //final so that racing readers always see it
+		private volatile int height; //height of the node in the tree
+		private volatile long version; //UNLINKED, or SHRINKING while rotating down plus SHRINK_COUNT per rotation
+		private volatile boolean present; //false for a routing node whose key was removed
+		private volatile BSTNode<K> parent; //node above, used to walk back up and rebalance
+		private volatile BSTNode<K> left, right; //references to each node's left and right subtree
+
+		/**
+		 * This is the constructor for a BSTNode.
+		 * @param key nodes are inserted in an order based on their key
+		 * @param parent node the new node hangs from
+		 */
+		BSTNode(K key, BSTNode<K> parent) {
+			this.key = key;
+			this.parent = parent;
+			height = 1;
+			present = key != null;
+		}
+
+		/**
+		 * This is the child method.
+		 * @param cmp comparison of a key with this node's key
+		 * @return the subtree the key would be in
+		 */
+		BSTNode<K> child(int cmp) {
+			return cmp < 0 ? left : right;
+		}
+
+		/**
+		 * This is the setChild method.
+		 * @param cmp comparison of a key with this node's key
+		 * @param child new subtree on that side
+		 */
+		void setChild(int cmp, BSTNode<K> child) {
+			if(cmp < 0) {
+				left = child;
+			}
+			else {
+				right = child;
+			}
+		}
+
+		/**
+		 * This is the waitUntilShrinkCompleted method. This method spins
+		 * for a while and then waits on the node's monitor, which the
+		 * rotation moving the node down holds until it is done.
+		 * @param seen version the caller read, with SHRINKING set
+		 */
+		void waitUntilShrinkCompleted(long seen) {
+			if((seen & SHRINKING) == 0) {
+				return;
+			}
+			for(int i = 0; i < SPIN_COUNT; i++) {
+				if(version != seen) {
+					return;
+				}
+				Thread.onSpinWait();
+			}
+			synchronized(this) {
+				//the rotation has finished once the monitor is free
+			}
+		}
+	}
+
+	/**
+	 * This is the constructor for a ConcurrentAVLTree. It creates an empty tree.
+	 */
+	public ConcurrentAVLTree() {
+		rootHolder = new BSTNode<K>(null, null);
+		size = new LongAdder();
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the tree contained no keys when it was checked
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of keys in the tree when it was checked
+	 */
+	public int size() {
+		return size.intValue();
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be inserted
+	 */
+	@Override
+	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method walks down to where key
+	 * belongs without locking, locks only the node it links a new leaf
+	 * under (or the routing node holding key), and then rebalances.
+	 * @param key element's key to be inserted
+	 * @return true if key was added, false if it was already in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		return update(key, true);
+	}
+
+	/**
+	 * This is the delete method. This method calls remove, so deleting a key
+	 * that is not in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be deleted
+	 */
+	@Override
+	public void delete(K key) throws IllegalArgumentException {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. This method walks down to key without
+	 * locking. A node with at most one child is unlinked while holding its
+	 * parent's and its own lock; a node with two children is only locked
+	 * and turned into a routing node.
+	 * @param key element's key to be deleted
+	 * @return true if key was removed, false if it was not in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean remove(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		return update(key, false);
+	}
+
+	/**
+	 * This is the update method. This method starts attemptUpdate at the
+	 * root, and starts again whenever the root is rotating.
+	 * @param key key to add or remove
+	 * @param insert true to add key, false to remove it
+	 * @return true if the tree was changed
+	 */
+	private boolean update(K key, boolean insert) {
+		while(true) {
+			BSTNode<K> right = rootHolder.right;
+			if(right == null) {
+				if(!insert || insertIntoEmpty(key)) {
+					return insert;
+				}
+			}
+			else {
+				long version = right.version;
+				if((version & (SHRINKING | UNLINKED)) != 0) {
+					right.waitUntilShrinkCompleted(version);
+				}
+				else if(right == rootHolder.right) {
+					int result = attemptUpdate(key, insert, rootHolder, right, version);
+					if(result != RETRY) {
+						return result == YES;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is the insertIntoEmpty method.
+	 * @param key key to become the root
+	 * @return false if another writer made a root first
+	 */
+	private boolean insertIntoEmpty(K key) {
+		synchronized(rootHolder) {
+			if(rootHolder.right != null) {
+				return false;
+			}
+			rootHolder.right = new BSTNode<K>(key, rootHolder);
+			rootHolder.height = 2;
+		}
+		size.increment();
+		return true;
+	}
+
+	/**
+	 * This is the attemptUpdate method. This method goes one level down
+	 * from node, checking that node has not been moved down by a rotation
+	 * since its parent read it, and calls itself for the child. Recursion
+	 * is bounded by the height of the tree.
+	 * @param key key to add or remove
+	 * @param insert true to add key, false to remove it
+	 * @param parent node above node
+	 * @param node node to go down from
+	 * @param nodeVersion node's version when the caller read it
+	 * @return YES if the tree was changed, NO if not, or RETRY if the
+	 * caller has to read node again
+	 */
+	private int attemptUpdate(K key, boolean insert, BSTNode<K> parent, BSTNode<K> node, long nodeVersion) {
+		int cmp = key.compareTo(node.key);
+		if(cmp == 0) {
+			return insert ? attemptRevive(node) : attemptRemove(parent, node);
+		}
+		while(true) {
+			BSTNode<K> child = node.child(cmp);
+			if(node.version != nodeVersion) {
+				return RETRY;
+			}
+			if(child == null) {
+				if(!insert) {
+					return NO;
+				}
+				BSTNode<K> damaged;
+				synchronized(node) {
+					if(node.version != nodeVersion) {
+						return RETRY;
+					}
+					if(node.child(cmp) != null) {
+						//lost a race with another insert, so look again from node
+						continue;
+					}
+					node.setChild(cmp, new BSTNode<K>(key, node));
+					damaged = fixHeight(node);
+				}
+				size.increment();
+				fixHeightAndRebalance(damaged);
+				return YES;
+			}
+			long childVersion = child.version;
+			if((childVersion & (SHRINKING | UNLINKED)) != 0) {
+				child.waitUntilShrinkCompleted(childVersion);
+			}
+			else if(child == node.child(cmp)) {
+				if(node.version != nodeVersion) {
+					return RETRY;
+				}
+				int result = attemptUpdate(key, insert, node, child, childVersion);
+				if(result != RETRY) {
+					return result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is the attemptRevive method. This method adds a key that is
+	 * already on a node, which is a routing node unless the key is present.
+	 * @param node node holding the key
+	 * @return YES if the key was revived, NO if it was present, or RETRY if
+	 * node was unlinked first
+	 */
+	private int attemptRevive(BSTNode<K> node) {
+		synchronized(node) {
+			if(node.version == UNLINKED) {
+				return RETRY;
+			}
+			if(node.present) {
+				return NO;
+			}
+			node.present = true;
+		}
+		size.increment();
+		return YES;
+	}
+
+	/**
+	 * This is the attemptRemove method. This method removes the key held by
+	 * node, unlinking node if it has at most one child.
+	 * @param parent node above node, locked only to unlink node
+	 * @param node node holding the key
+	 * @return YES if the key was removed, NO if it was not present, or
+	 * RETRY if the parent or node changed first
+	 */
+	private int attemptRemove(BSTNode<K> parent, BSTNode<K> node) {
+		if(!node.present) {
+			return NO;
+		}
+		if(node.left == null || node.right == null) {
+			BSTNode<K> damaged;
+			synchronized(parent) {
+				if(parent.version == UNLINKED || node.parent != parent) {
+					return RETRY;
+				}
+				synchronized(node) {
+					if(!node.present) {
+						return NO;
+					}
+					if(!attemptUnlink(parent, node)) {
+						return RETRY;
+					}
+				}
+				damaged = fixHeight(parent);
+			}
+			size.decrement();
+			fixHeightAndRebalance(damaged);
+			return YES;
+		}
+		synchronized(node) {
+			if(node.version == UNLINKED) {
+				return RETRY;
+			}
+			if(!node.present) {
+				return NO;
+			}
+			if(node.left == null || node.right == null) {
+				//a child went away, so node can be unlinked after all
+				return RETRY;
+			}
+			node.present = false;
+		}
+		size.decrement();
+		return YES;
+	}
+
+	/**
+	 * This is the attemptUnlink method. This method splices node out from
+	 * under parent. The caller holds both locks and fixes the sizes and
+	 * heights.
+	 * @param parent node above node
+	 * @param node node with at most one child
+	 * @return false if node is no longer parent's child or has two children
+	 */
+	private boolean attemptUnlink(BSTNode<K> parent, BSTNode<K> node) {
+		BSTNode<K> parentLeft = parent.left;
+		if(parentLeft != node && parent.right != node) {
+			return false;
+		}
+		BSTNode<K> left = node.left;
+		BSTNode<K> right = node.right;
+		if(left != null && right != null) {
+			return false;
+		}
+		BSTNode<K> splice = left != null ? left : right;
+		if(parentLeft == node) {
+			parent.left = splice;
+		}
+		else {
+			parent.right = splice;
+		}
+		if(splice != null) {
+			splice.parent = parent;
+		}
+		node.version = UNLINKED;
+		node.present = false;
+		return true;
+	}
+
+	/**
+	 * This is the search method. This method locks nothing. It walks down
+	 * hand over hand, and only waits if it reaches a node that a rotation is
+	 * moving down at that moment.
+	 * @param key element's key to search for
+	 * @return true if the key is in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean search(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot search for a null key.");
+		}
+		while(true) {
+			BSTNode<K> right = rootHolder.right;
+			if(right == null) {
+				return false;
+			}
+			int cmp = key.compareTo(right.key);
+			if(cmp == 0) {
+				return right.present;
+			}
+			long version = right.version;
+			if((version & (SHRINKING | UNLINKED)) != 0) {
+				right.waitUntilShrinkCompleted(version);
+			}
+			else if(right == rootHolder.right) {
+				int result = attemptSearch(key, right, cmp, version);
+				if(result != RETRY) {
+					return result == YES;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is the attemptSearch method. This method reads node's child,
+	 * then the child's version, and then checks node's version again, so
+	 * the step from node to child is known to have been right at that
+	 * moment. Recursion is bounded by the height of the tree.
+	 * @param key element's key to search for
+	 * @param node node to go down from
+	 * @param cmp comparison of key with node's key
+	 * @param nodeVersion node's version when the caller read it
+	 * @return YES, NO, or RETRY if the caller has to read node again
+	 */
+	private int attemptSearch(K key, BSTNode<K> node, int cmp, long nodeVersion) {
+		while(true) {
+			BSTNode<K> child = node.child(cmp);
+			if(child == null) {
+				return node.version != nodeVersion ? RETRY : NO;
+			}
+			int childCmp = key.compareTo(child.key);
+			if(childCmp == 0) {
+				return child.present ? YES : NO;
+			}
+			long childVersion = child.version;
+			if((childVersion & (SHRINKING | UNLINKED)) != 0) {
+				child.waitUntilShrinkCompleted(childVersion);
+				if(node.version != nodeVersion) {
+					return RETRY;
+				}
+			}
+			else if(child != node.child(cmp)) {
+				if(node.version != nodeVersion) {
+					return RETRY;
+				}
+			}
+			else {
+				if(node.version != nodeVersion) {
+					return RETRY;
+				}
+				int result = attemptSearch(key, child, childCmp, childVersion);
+				if(result != RETRY) {
+					return result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is the print method. This method performs an in-order traversal
+	 * using an explicit stack. It locks nothing, so it is only a true
+	 * picture of the tree when no writer is running.
+	 * @return a String with all the keys, in order, each followed by one space
+	 */
+	@Override
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		ArrayDeque<BSTNode<K>> stack = new ArrayDeque<BSTNode<K>>();
+		BSTNode<K> n = rootHolder.right;
+		while(n != null || !stack.isEmpty()) {
+			while(n != null) {
+				stack.push(n);
+				n = n.left;
+			}
+			n = stack.pop();
+			if(n.present) {
+				inOrder.append(n.key).append(' ');
+			}
+			n = n.right;
+		}
+		return inOrder.toString();
+	}
+
+	/**
+	 * This is the checkForBalancedTree method. Routing nodes count towards
+	 * the heights like any other node. It locks nothing, so it is only
+	 * meaningful when no writer is running.
+	 * @return true if every node's height is correct and its subtrees
+	 * differ in height by at most one
+	 */
+	@Override
+	public boolean checkForBalancedTree() {
+		return checkBalance(rootHolder.right) >= 0;
+	}
+
+	/**
+	 * This is the checkBalance helper method. Recursion is bounded by the
+	 * height of the tree.
+	 * @param n root of the subtree to check
+	 * @return the height of the subtree, or -1 if it is not balanced
+	 */
+	private int checkBalance(BSTNode<K> n) {
+		if(n == null) {
+			return 0;
+		}
+		int leftHeight = checkBalance(n.left);
+		int rightHeight = checkBalance(n.right);
+		if(leftHeight < 0 || rightHeight < 0 || Math.abs(leftHeight - rightHeight) > 1
+				|| n.height != 1 + Math.max(leftHeight, rightHeight)) {
+			return -1;
+		}
+		return n.height;
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method. This method walks the
+	 * tree in order, routing nodes included, and checks that every key is
+	 * larger than the one before and that every node's parent link is
+	 * right. It locks nothing, so it is only meaningful when no writer is
+	 * running.
+	 * @return true if the keys are in binary search tree order
+	 */
+	@Override
+	public boolean checkForBinarySearchTree() {
+		ArrayDeque<BSTNode<K>> stack = new ArrayDeque<BSTNode<K>>();
+		BSTNode<K> n = rootHolder.right;
+		if(n != null && n.parent != rootHolder) {
+			return false;
+		}
+		K previous = null;
+		while(n != null || !stack.isEmpty()) {
+			while(n != null) {
+				stack.push(n);
+				if(n.left != null && n.left.parent != n) {
+					return false;
+				}
+				n = n.left;
+			}
+			n = stack.pop();
+			if(previous != null && n.key.compareTo(previous) <= 0) {
+				return false;
+			}
+			previous = n.key;
+			if(n.right != null && n.right.parent != n) {
+				return false;
+			}
+			n = n.right;
+		}
+		return true;
+	}
+
+	private int getHeight(BSTNode<K> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * This is the nodeCondition method. This method reads node without
+	 * locking it to see what it needs. The reads may not be consistent,
+	 * but whoever changed node since is bound to fix it.
+	 * @param node node to check
+	 * @return UNLINK_REQUIRED for a routing node with at most one child,
+	 * REBALANCE_REQUIRED, NOTHING_REQUIRED, or otherwise node's new height
+	 */
+	private int nodeCondition(BSTNode<K> node) {
+		BSTNode<K> left = node.left;
+		BSTNode<K> right = node.right;
+		if((left == null || right == null) && !node.present) {
+			return UNLINK_REQUIRED;
+		}
+		int leftHeight = getHeight(left);
+		int rightHeight = getHeight(right);
+		int balance = leftHeight - rightHeight;
+		if(balance < -1 || balance > 1) {
+			return REBALANCE_REQUIRED;
+		}
+		int newHeight = 1 + Math.max(leftHeight, rightHeight);
+		return node.height != newHeight ? newHeight : NOTHING_REQUIRED;
+	}
+
+	/**
+	 * This is the fixHeightAndRebalance method. This method walks up the
+	 * parent links from a damaged node, fixing heights while holding one
+	 * node's lock and rotating while holding the parent's and the node's.
+	 * A rotation hands back the lowest node it left damaged, but it may also
+	 * have changed the height of the subtree it rotated, so the walk goes on
+	 * past nodes that need nothing, up to the root. It only reads those
+	 * nodes, and they are the path the writer came down.
+	 * @param node lowest damaged node, or null
+	 */
+	private void fixHeightAndRebalance(BSTNode<K> node) {
+		while(node != null && node.parent != null && node.version != UNLINKED) {
+			int condition = nodeCondition(node);
+			BSTNode<K> damaged = null;
+			if(condition == UNLINK_REQUIRED || condition == REBALANCE_REQUIRED) {
+				BSTNode<K> parent = node.parent;
+				damaged = node;
+				synchronized(parent) {
+					if(parent.version != UNLINKED && node.parent == parent) {
+						synchronized(node) {
+							damaged = rebalance(parent, node);
+						}
+					}
+				}
+			}
+			else if(condition != NOTHING_REQUIRED) {
+				synchronized(node) {
+					damaged = fixHeight(node);
+				}
+			}
+			node = damaged != null ? damaged : node.parent;
+		}
+	}
+
+	/**
+	 * This is the fixHeight method. The caller holds node's lock.
+	 * @param node damaged node
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> fixHeight(BSTNode<K> node) {
+		int condition = nodeCondition(node);
+		if(condition == REBALANCE_REQUIRED || condition == UNLINK_REQUIRED) {
+			return node;
+		}
+		if(condition == NOTHING_REQUIRED) {
+			return null;
+		}
+		node.height = condition;
+		return node.parent;
+	}
+
+	/**
+	 * This is the rebalance method. This method unlinks a routing node,
+	 * rotates an imbalanced node, or fixes a height. The caller holds the
+	 * locks of parent and n.
+	 * @param parent node above n
+	 * @param n damaged node
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> rebalance(BSTNode<K> parent, BSTNode<K> n) {
+		BSTNode<K> left = n.left;
+		BSTNode<K> right = n.right;
+		if((left == null || right == null) && !n.present) {
+			if(attemptUnlink(parent, n)) {
+				return fixHeight(parent);
+			}
+			return n;
+		}
+		int leftHeight = getHeight(left);
+		int rightHeight = getHeight(right);
+		int newHeight = 1 + Math.max(leftHeight, rightHeight);
+		int balance = leftHeight - rightHeight;
+		if(balance > 1) {
+			return rebalanceToRight(parent, n, left, rightHeight);
+		}
+		else if(balance < -1) {
+			return rebalanceToLeft(parent, n, right, leftHeight);
+		}
+		else if(newHeight != n.height) {
+			n.height = newHeight;
+			return fixHeight(parent);
+		}
+		return null;
+	}
+
+	/**
+	 * This is the rebalanceToRight method. This method rotates n right, or
+	 * rotates its left child left first when that child leans right. The
+	 * caller holds the locks of parent and n; this method locks left and,
+	 * for a double rotation, left's right child.
+	 * @param parent node above n
+	 * @param n node whose left subtree is too tall
+	 * @param left n's left child
+	 * @param rightHeight height of n's right subtree
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> rebalanceToRight(BSTNode<K> parent, BSTNode<K> n, BSTNode<K> left, int rightHeight) {
+		synchronized(left) {
+			if(left.height - rightHeight <= 1) {
+				return n;
+			}
+			BSTNode<K> leftRight = left.right;
+			int leftLeftHeight = getHeight(left.left);
+			int leftRightHeight = getHeight(leftRight);
+			if(leftLeftHeight >= leftRightHeight) {
+				return rightRotate(parent, n, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+			}
+			synchronized(leftRight) {
+				leftRightHeight = leftRight.height;
+				if(leftLeftHeight >= leftRightHeight) {
+					return rightRotate(parent, n, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+				}
+				int leftRightLeftHeight = getHeight(leftRight.left);
+				int balance = leftLeftHeight - leftRightLeftHeight;
+				if(balance >= -1 && balance <= 1
+						&& !((leftLeftHeight == 0 || leftRightLeftHeight == 0) && !left.present)) {
+					return doubleRightRotate(parent, n, left, rightHeight, leftLeftHeight, leftRight,
+							leftRightLeftHeight);
+				}
+				//rotate the left child on its own, so that the nodes it damages lie on one path up to n
+				return leftRotate(n, left, leftLeftHeight, leftRight, leftRight.left, leftRightLeftHeight,
+						getHeight(leftRight.right));
+			}
+		}
+	}
+
+	/**
+	 * This is the rebalanceToLeft method. This method is rebalanceToRight
+	 * with left and right swapped.
+	 * @param parent node above n
+	 * @param n node whose right subtree is too tall
+	 * @param right n's right child
+	 * @param leftHeight height of n's left subtree
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> rebalanceToLeft(BSTNode<K> parent, BSTNode<K> n, BSTNode<K> right, int leftHeight) {
+		synchronized(right) {
+			if(leftHeight - right.height >= -1) {
+				return n;
+			}
+			BSTNode<K> rightLeft = right.left;
+			int rightLeftHeight = getHeight(rightLeft);
+			int rightRightHeight = getHeight(right.right);
+			if(rightRightHeight >= rightLeftHeight) {
+				return leftRotate(parent, n, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+			}
+			synchronized(rightLeft) {
+				rightLeftHeight = rightLeft.height;
+				if(rightRightHeight >= rightLeftHeight) {
+					return leftRotate(parent, n, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+				}
+				int rightLeftRightHeight = getHeight(rightLeft.right);
+				int balance = rightRightHeight - rightLeftRightHeight;
+				if(balance >= -1 && balance <= 1
+						&& !((rightRightHeight == 0 || rightLeftRightHeight == 0) && !right.present)) {
+					return doubleLeftRotate(parent, n, leftHeight, right, rightLeft, rightRightHeight,
+							rightLeftRightHeight);
+				}
+				return rightRotate(n, right, rightLeft, rightRightHeight, getHeight(rightLeft.left),
+						rightLeft.right, rightLeftRightHeight);
+			}
+		}
+	}
+
+	/**
+	 * This is the replaceChild method. This method links a new subtree in
+	 * where the old one hung.
+	 * @param parent node above old
+	 * @param old subtree being replaced
+	 * @param replacement subtree to link in its place
+	 */
+	private void replaceChild(BSTNode<K> parent, BSTNode<K> old, BSTNode<K> replacement) {
+		if(parent.left == old) {
+			parent.left = replacement;
+		}
+		else {
+			parent.right = replacement;
+		}
+		replacement.parent = parent;
+	}
+
+	/**
+	 * This is the rightRotate method. The links are changed in an order that
+	 * keeps every key reachable by a search that is not passing through n,
+	 * and n is marked as shrinking meanwhile. The caller holds the locks of
+	 * parent, n and left.
+	 * @param parent node above n
+	 * @param n node that is height imbalanced
+	 * @param left n's left child, which takes its place
+	 * @param rightHeight height of n's right subtree
+	 * @param leftLeftHeight height of left's left subtree
+	 * @param leftRight left's right child, which moves under n
+	 * @param leftRightHeight height of leftRight
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> rightRotate(BSTNode<K> parent, BSTNode<K> n, BSTNode<K> left, int rightHeight,
+			int leftLeftHeight, BSTNode<K> leftRight, int leftRightHeight) {
+		long version = n.version;
+		n.version = version | SHRINKING;
+		n.left = leftRight;
+		if(leftRight != null) {
+			leftRight.parent = n;
+		}
+		left.right = n;
+		n.parent = left;
+		replaceChild(parent, n, left);
+		int nHeight = 1 + Math.max(leftRightHeight, rightHeight);
+		n.height = nHeight;
+		left.height = 1 + Math.max(leftLeftHeight, nHeight);
+		n.version = version + SHRINK_COUNT;
+		int balance = leftRightHeight - rightHeight;
+		if(balance < -1 || balance > 1 || ((leftRight == null || rightHeight == 0) && !n.present)) {
+			return n;
+		}
+		balance = leftLeftHeight - nHeight;
+		if(balance < -1 || balance > 1 || (leftLeftHeight == 0 && !left.present)) {
+			return left;
+		}
+		return fixHeight(parent);
+	}
+
+	/**
+	 * This is the leftRotate method. This method is rightRotate with left
+	 * and right swapped.
+	 * @param parent node above n
+	 * @param n node that is height imbalanced
+	 * @param leftHeight height of n's left subtree
+	 * @param right n's right child, which takes its place
+	 * @param rightLeft right's left child, which moves under n
+	 * @param rightLeftHeight height of rightLeft
+	 * @param rightRightHeight height of right's right subtree
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> leftRotate(BSTNode<K> parent, BSTNode<K> n, int leftHeight, BSTNode<K> right,
+			BSTNode<K> rightLeft, int rightLeftHeight, int rightRightHeight) {
+		long version = n.version;
+		n.version = version | SHRINKING;
+		n.right = rightLeft;
+		if(rightLeft != null) {
+			rightLeft.parent = n;
+		}
+		right.left = n;
+		n.parent = right;
+		replaceChild(parent, n, right);
+		int nHeight = 1 + Math.max(leftHeight, rightLeftHeight);
+		n.height = nHeight;
+		right.height = 1 + Math.max(nHeight, rightRightHeight);
+		n.version = version + SHRINK_COUNT;
+		int balance = rightLeftHeight - leftHeight;
+		if(balance < -1 || balance > 1 || ((rightLeft == null || leftHeight == 0) && !n.present)) {
+			return n;
+		}
+		balance = rightRightHeight - nHeight;
+		if(balance < -1 || balance > 1 || (rightRightHeight == 0 && !right.present)) {
+			return right;
+		}
+		return fixHeight(parent);
+	}
+
+	/**
+	 * This is the doubleRightRotate method. This method rotates left's right
+	 * child up over both left and n, so both of them shrink. The caller
+	 * holds the locks of parent, n, left and leftRight.
+	 * @param parent node above n
+	 * @param n node that is height imbalanced
+	 * @param left n's left child
+	 * @param rightHeight height of n's right subtree
+	 * @param leftLeftHeight height of left's left subtree
+	 * @param leftRight left's right child, which takes n's place
+	 * @param leftRightLeftHeight height of leftRight's left subtree
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> doubleRightRotate(BSTNode<K> parent, BSTNode<K> n, BSTNode<K> left, int rightHeight,
+			int leftLeftHeight, BSTNode<K> leftRight, int leftRightLeftHeight) {
+		long version = n.version;
+		long leftVersion = left.version;
+		BSTNode<K> leftRightLeft = leftRight.left;
+		BSTNode<K> leftRightRight = leftRight.right;
+		int leftRightRightHeight = getHeight(leftRightRight);
+		n.version = version | SHRINKING;
+		left.version = leftVersion | SHRINKING;
+		n.left = leftRightRight;
+		if(leftRightRight != null) {
+			leftRightRight.parent = n;
+		}
+		left.right = leftRightLeft;
+		if(leftRightLeft != null) {
+			leftRightLeft.parent = left;
+		}
+		leftRight.left = left;
+		left.parent = leftRight;
+		leftRight.right = n;
+		n.parent = leftRight;
+		replaceChild(parent, n, leftRight);
+		int nHeight = 1 + Math.max(leftRightRightHeight, rightHeight);
+		n.height = nHeight;
+		int leftHeight = 1 + Math.max(leftLeftHeight, leftRightLeftHeight);
+		left.height = leftHeight;
+		leftRight.height = 1 + Math.max(leftHeight, nHeight);
+		n.version = version + SHRINK_COUNT;
+		left.version = leftVersion + SHRINK_COUNT;
+		int balance = leftRightRightHeight - rightHeight;
+		if(balance < -1 || balance > 1 || ((leftRightRight == null || rightHeight == 0) && !n.present)) {
+			return n;
+		}
+		balance = leftHeight - nHeight;
+		if(balance < -1 || balance > 1) {
+			return leftRight;
+		}
+		return fixHeight(parent);
+	}
+
+	/**
+	 * This is the doubleLeftRotate method. This method is doubleRightRotate
+	 * with left and right swapped.
+	 * @param parent node above n
+	 * @param n node that is height imbalanced
+	 * @param leftHeight height of n's left subtree
+	 * @param right n's right child
+	 * @param rightLeft right's left child, which takes n's place
+	 * @param rightRightHeight height of right's right subtree
+	 * @param rightLeftRightHeight height of rightLeft's right subtree
+	 * @return the lowest node this thread still has to fix, or null
+	 */
+	private BSTNode<K> doubleLeftRotate(BSTNode<K> parent, BSTNode<K> n, int leftHeight, BSTNode<K> right,
+			BSTNode<K> rightLeft, int rightRightHeight, int rightLeftRightHeight) {
+		long version = n.version;
+		long rightVersion = right.version;
+		BSTNode<K> rightLeftLeft = rightLeft.left;
+		BSTNode<K> rightLeftRight = rightLeft.right;
+		int rightLeftLeftHeight = getHeight(rightLeftLeft);
+		n.version = version | SHRINKING;
+		right.version = rightVersion | SHRINKING;
+		n.right = rightLeftLeft;
+		if(rightLeftLeft != null) {
+			rightLeftLeft.parent = n;
+		}
+		right.left = rightLeftRight;
+		if(rightLeftRight != null) {
+			rightLeftRight.parent = right;
+		}
+		rightLeft.right = right;
+		right.parent = rightLeft;
+		rightLeft.left = n;
+		n.parent = rightLeft;
+		replaceChild(parent, n, rightLeft);
+		int nHeight = 1 + Math.max(leftHeight, rightLeftLeftHeight);
+		n.height = nHeight;
+		int rightHeight = 1 + Math.max(rightLeftRightHeight, rightRightHeight);
+		right.height = rightHeight;
+		rightLeft.height = 1 + Math.max(nHeight, rightHeight);
+		n.version = version + SHRINK_COUNT;
+		right.version = rightVersion + SHRINK_COUNT;
+		int balance = rightLeftLeftHeight - leftHeight;
+		if(balance < -1 || balance > 1 || ((rightLeftLeft == null || leftHeight == 0) && !n.present)) {
+			return n;
+		}
+		balance = rightHeight - nHeight;
+		if(balance < -1 || balance > 1) {
+			return rightLeft;
+		}
+		return fixHeight(parent);
+	}
+}
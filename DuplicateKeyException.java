@@ -4,14 +4,19 @@
  *
  * Bugs:       no known bugs
  */
+/**
+ * This is the DuplicateKeyException class. It does not capture a stack
+ * trace, which is most of the cost of creating an exception, so callers
+ * that reject duplicates with it stay cheap.
+ */
 class DuplicateKeyException extends Exception {
         private static final long serialVersionUID = 1L; 
  
         public DuplicateKeyException() {
-		super("Duplicate Key is not permitted");
+		this("Duplicate Key is not permitted");
         }   
  
         public DuplicateKeyException(String message) {
-                super(message);
+                super(message, null, false, false);
         }   
 }
\ No newline at end of file
@@ -0,0 +1,726 @@
+/**
+ * Filename:   DurableAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.lang.IllegalArgumentException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/** This is the DurableAVLTree class. It is an AVLTree kept in memory whose
+ * changes survive a restart. It keeps two files in its directory: a
+ * snapshot of the whole tree in the format of AVLTree.save, and an
+ * append-only write-ahead log of every insert and delete made since that
+ * snapshot. Opening the tree loads the snapshot and replays the log.
+ *
+ * Log records are built in memory and written out in groups. With a sync
+ * batch of 1, an insert or delete does not return until its record has
+ * been forced to disk, but threads that change the tree at the same time
+ * share one write and one fsync: whichever thread gets there first writes
+ * out every record waiting, and the others find their records already on
+ * disk. With a larger batch, the log is only forced once that many records
+ * are waiting, so a crash can lose up to that many of the latest changes.
+ *
+ * Once the log grows past a size limit, the next sync checkpoints: the tree
+ * is saved to a new snapshot, which atomically replaces the old one, and
+ * the log is emptied. Replaying an insert or delete twice leaves the same
+ * key present or absent, so a crash between those two steps only means
+ * records are replayed over a snapshot that already holds them.
+ *
+ * Each insert or delete is one record, and so is each insertAll or
+ * deleteAll, so a batch is replayed whole or not at all. Each record
+ * carries a CRC32. Replay stops at the first record that is incomplete or
+ * does not match its checksum, as left by a crash partway through a write,
+ * and the log is cut back to the last good record.
+ *
+ * All methods may be called from many threads. Searches share a read lock;
+ * changes take the write lock only to update the tree and add a record,
+ * and do their disk I/O after letting it go.
+ * @param <K> generic type for elements to be inserted
+ */
+public class DurableAVLTree<K> implements AVLTreeADT<K>, Closeable {
+	/* fields */
+	private static final int LOG_MAGIC = 0x41564C57; //"AVLW", the first four bytes of a log file
+	private static final int LOG_VERSION = 1; //layout of the log files this class writes
+	private static final int LOG_HEADER_SIZE = 8; //bytes taken by the magic number and version
+	private static final int LOG_BUFFER_SIZE = 1 << 20; //bytes of records that may wait before they are written out
+	private static final byte INSERT = 1, DELETE = 2; //record types
+	private final AVLTree<K> tree; //the keys, in memory
+	private final KeySerializer<K> serializer; //writes keys into records and snapshots
+	private final Path snapshotFile; //latest checkpoint of the tree
+	private final Path logFile; //records of the changes made since the snapshot
+	private final FileChannel log; //open log file, positioned at its end
+	private final int syncBatch; //records that may wait before the log is forced
+	private final long checkpointSize; //log size that triggers a checkpoint
+	private final ReentrantReadWriteLock lock; //guards the tree and the pending records
+	private final ReentrantLock syncLock; //held by the one thread writing out records or checkpointing
+	private final CRC32 checksum; //checksum of the record being added, used under the write lock
+	private ByteBuffer pending; //records added but not yet written to the log
+	private ByteBuffer spare; //empty buffer that replaces pending when it is written out
+	private ByteBuffer keyBytes; //encoded keys of the record being added
+	private long appended; //number of records added since the tree was opened
+	private volatile long synced; //number of those records known to be on disk
+	private long logSize; //bytes in the log file, changed only under syncLock
+	private volatile IOException failure; //first write that failed, after which no change is accepted
+
+	/**
+	 * This is the constructor for a DurableAVLTree that forces every change
+	 * to disk before returning and checkpoints once the log reaches 64MB.
+	 * @param directory where the snapshot and log are kept; created if missing
+	 * @param serializer writes the keys, which must be in their natural ordering
+	 * @throws IOException if the files cannot be read, written or recovered
+	 * @throws IllegalArgumentException if directory or serializer is null
+	 */
+	public DurableAVLTree(Path directory, KeySerializer<K> serializer) throws IOException, IllegalArgumentException {
+		this(directory, serializer, null, 1, 64L << 20);
+	}
+
+	/**
+	 * This is the constructor for a DurableAVLTree. It opens the tree saved
+	 * in directory, if there is one.
+	 * @param directory where the snapshot and log are kept; created if missing
+	 * @param serializer writes the keys
+	 * @param comparator order of the keys, or null for their natural ordering;
+	 * it must be the order the files were written in
+	 * @param syncBatch number of records that may wait before the log is
+	 * forced to disk, 1 to force every change before it returns
+	 * @param checkpointSize log size in bytes that triggers a checkpoint
+	 * @throws IOException if the files cannot be read, written or recovered
+	 * @throws IllegalArgumentException if directory or serializer is null or a
+	 * size is not positive
+	 */
+	public DurableAVLTree(Path directory, KeySerializer<K> serializer, Comparator<? super K> comparator,
+			int syncBatch, long checkpointSize) throws IOException, IllegalArgumentException {
+		if(directory == null || serializer == null) {
+			throw new IllegalArgumentException("Cannot open a tree without a directory and a serializer.");
+		}
+		if(syncBatch < 1 || checkpointSize < 1) {
+			throw new IllegalArgumentException("The sync batch and checkpoint size must be positive.");
+		}
+		this.serializer = serializer;
+		this.syncBatch = syncBatch;
+		this.checkpointSize = checkpointSize;
+		tree = new AVLTree<K>(comparator);
+		lock = new ReentrantReadWriteLock();
+		syncLock = new ReentrantLock();
+		checksum = new CRC32();
+		pending = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+		spare = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+		keyBytes = ByteBuffer.allocate(256);
+		Files.createDirectories(directory);
+		snapshotFile = directory.resolve("tree.snapshot");
+		logFile = directory.resolve("tree.log");
+		if(Files.exists(snapshotFile)) {
+			try(FileChannel snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+				tree.load(snapshot, serializer);
+			}
+		}
+		log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			recover();
+		} catch(IOException | RuntimeException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * This is the recover method. This method writes the header of a new
+	 * log, or replays an existing one and cuts off any torn record at its end.
+	 * @throws IOException if the log cannot be read or is not a log file
+	 */
+	private void recover() throws IOException {
+		if(log.size() < LOG_HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+			header.putInt(LOG_MAGIC).putInt(LOG_VERSION).flip();
+			log.truncate(0);
+			while(header.hasRemaining()) {
+				log.write(header, header.position());
+			}
+			log.force(true);
+			logSize = LOG_HEADER_SIZE;
+			log.position(logSize);
+			return;
+		}
+		ByteBuffer in = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+		long position = 0;
+		boolean finished = false;
+		while(!finished && in.position() < LOG_HEADER_SIZE) {
+			finished = log.read(in, position + in.position()) < 0;
+		}
+		in.flip();
+		if(in.getInt() != LOG_MAGIC) {
+			throw new StreamCorruptedException("Not an AVLTree log file.");
+		}
+		int version = in.getInt();
+		if(version != LOG_VERSION) {
+			throw new StreamCorruptedException("Unsupported log file version "+version+".");
+		}
+		position = LOG_HEADER_SIZE;
+		while(true) {
+			int start = in.position();
+			int length;
+			try {
+				length = replay(in);
+			} catch(BufferUnderflowException e) {
+				in.position(start);
+				length = 0;
+			}
+			if(length > 0) {
+				position += length;
+				continue;
+			}
+			if(length < 0 || finished) {
+				break;
+			}
+			//the record runs past what has been read, so read more behind it
+			if(in.position() == 0 && in.limit() == in.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+				bigger.put(in);
+				in = bigger;
+			}
+			else {
+				in.compact();
+			}
+			finished = log.read(in, position + in.position()) < 0;
+			in.flip();
+		}
+		log.truncate(position);
+		log.force(true);
+		logSize = position;
+		log.position(logSize);
+	}
+
+	/**
+	 * This is the replay method. This method applies the record at the
+	 * buffer's position to the tree.
+	 * @param in buffer holding the record
+	 * @return the length of the record, or -1 if it is damaged
+	 * @throws BufferUnderflowException if the buffer ends partway through the record
+	 */
+	private int replay(ByteBuffer in) throws BufferUnderflowException {
+		int start = in.position();
+		byte type = in.get();
+		long length = KeySerializer.readVarLong(in);
+		if((type != INSERT && type != DELETE) || length < 0 || length > Integer.MAX_VALUE - 16) {
+			return -1;
+		}
+		if(in.remaining() < length + 4) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer encoded = in.slice();
+		encoded.limit((int) length);
+		checksum.reset();
+		checksum.update(type);
+		checksum.update(encoded.duplicate());
+		in.position(in.position() + (int) length);
+		if(in.getInt() != (int) checksum.getValue()) {
+			return -1;
+		}
+		//decode every key before changing the tree, so a bad record changes nothing
+		List<K> keys = new ArrayList<K>();
+		try {
+			K previous = null;
+			while(encoded.hasRemaining()) {
+				previous = serializer.read(encoded, previous);
+				keys.add(previous);
+			}
+			if(keys.size() == 1) {
+				if(type == INSERT) {
+					tree.tryInsert(keys.get(0));
+				}
+				else {
+					tree.remove(keys.get(0));
+				}
+			}
+			else if(type == INSERT) {
+				tree.insertAll(keys);
+			}
+			else {
+				tree.deleteAll(keys);
+			}
+		} catch(BufferUnderflowException | IllegalArgumentException e) {
+			return -1;
+		}
+		return in.position() - start;
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the tree holds no keys
+	 */
+	@Override
+	public boolean isEmpty() {
+		lock.readLock().lock();
+		try {
+			return tree.isEmpty();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of keys in the tree
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return tree.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @param key key to be added
+	 * @throws IllegalArgumentException if key is null
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. It returns once the change is as
+	 * durable as the sync batch asks for.
+	 * @param key key to be added
+	 * @return true if key was added, false if it was already in the tree
+	 * @throws IllegalArgumentException if key is null
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		return change(INSERT, key);
+	}
+
+	/**
+	 * This is the delete method.
+	 * @param key key to be removed
+	 * @throws IllegalArgumentException if key is null
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public void delete(K key) throws IllegalArgumentException {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. It returns once the change is as durable
+	 * as the sync batch asks for.
+	 * @param key key to be removed
+	 * @return true if key was removed, false if it was not in the tree
+	 * @throws IllegalArgumentException if key is null
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public boolean remove(K key) throws IllegalArgumentException {
+		return change(DELETE, key);
+	}
+
+	/**
+	 * This is the change helper method for tryInsert and remove. The record
+	 * is built before the tree is touched, so a key the serializer cannot
+	 * write leaves the tree as it was, and it is taken back out if the tree
+	 * does not change.
+	 * @param type INSERT or DELETE
+	 * @param key key to add or remove
+	 * @return true if the tree changed
+	 * @throws IllegalArgumentException if key is null
+	 */
+	private boolean change(byte type, K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException(type == INSERT ? "Cannot insert a null key." : "Cannot delete a null key.");
+		}
+		long record;
+		boolean due;
+		lock.writeLock().lock();
+		try {
+			checkHealthy();
+			int start = pending.position();
+			append(type, key);
+			boolean changed = type == INSERT ? tree.tryInsert(key) : tree.remove(key);
+			if(!changed) {
+				pending.position(start);
+				appended--;
+				return false;
+			}
+			record = appended;
+			due = isSyncDue();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if(due) {
+			commit(record);
+		}
+		return true;
+	}
+
+	/**
+	 * This is the insertAll method. The batch is merged into the tree in one
+	 * pass as in AVLTree, and every key in it is logged.
+	 * @param keys keys to be added
+	 * @return how many keys were inserted and how many were duplicates
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is inserted
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public BatchResult insertAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		return changeAll(INSERT, keys);
+	}
+
+	/**
+	 * This is the deleteAll method. The batch is removed from the tree in
+	 * one pass as in AVLTree, and every key in it is logged.
+	 * @param keys keys to be deleted
+	 * @return how many keys were removed and how many were missing
+	 * @throws IllegalArgumentException if any key is null, in which case
+	 * nothing is deleted
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	@Override
+	public BatchResult deleteAll(Collection<? extends K> keys) throws IllegalArgumentException {
+		return changeAll(DELETE, keys);
+	}
+
+	/**
+	 * This is the changeAll helper method for insertAll and deleteAll.
+	 * The whole batch is one record, including keys it did not change, since
+	 * replaying them does nothing. As in change, the record is built first.
+	 * @param type INSERT or DELETE
+	 * @param keys keys to add or remove
+	 * @return the result of the batch
+	 * @throws IllegalArgumentException if any key is null
+	 */
+	private BatchResult changeAll(byte type, Collection<? extends K> keys) throws IllegalArgumentException {
+		BatchResult result;
+		long record;
+		boolean due;
+		lock.writeLock().lock();
+		try {
+			checkHealthy();
+			for(K key : keys) {
+				if(key == null) {
+					throw new IllegalArgumentException(type == INSERT ? "Cannot insert a null key." : "Cannot delete a null key.");
+				}
+			}
+			if(!keys.isEmpty()) {
+				append(type, keys);
+			}
+			result = type == INSERT ? tree.insertAll(keys) : tree.deleteAll(keys);
+			record = appended;
+			due = isSyncDue();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if(due) {
+			commit(record);
+		}
+		return result;
+	}
+
+	/**
+	 * This is the search method.
+	 * @param key key to look for
+	 * @return true if key is in the tree
+	 * @throws IllegalArgumentException if key is null
+	 */
+	@Override
+	public boolean search(K key) throws IllegalArgumentException {
+		lock.readLock().lock();
+		try {
+			return tree.search(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String print() {
+		lock.readLock().lock();
+		try {
+			return tree.print();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean checkForBalancedTree() {
+		lock.readLock().lock();
+		try {
+			return tree.checkForBalancedTree();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean checkForBinarySearchTree() {
+		lock.readLock().lock();
+		try {
+			return tree.checkForBinarySearchTree();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This is the sync method. This method forces every change made so far
+	 * to disk, whatever the sync batch.
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		long record;
+		lock.readLock().lock();
+		try {
+			record = appended;
+		} finally {
+			lock.readLock().unlock();
+		}
+		try {
+			commit(record);
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * This is the checkpoint method. This method saves the tree to a new
+	 * snapshot and empties the log, so the next open has nothing to replay.
+	 * @throws IOException if the snapshot or log cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		syncLock.lock();
+		try {
+			checkpointHoldingSyncLock();
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * This is the close method. This method forces every change to disk and
+	 * closes the log. The tree must not be changed after it is closed.
+	 * @throws IOException if the log cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(failure == null) {
+				sync();
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * This is the append method for a record of one key. Called with the
+	 * write lock held.
+	 * @param type INSERT or DELETE
+	 * @param key key of the record
+	 */
+	private void append(byte type, K key) {
+		keyBytes.clear();
+		encode(null, key);
+		appendRecord(type);
+	}
+
+	/**
+	 * This is the append method for a record of a batch of keys, each
+	 * written against the one before it. Called with the write lock held.
+	 * @param type INSERT or DELETE
+	 * @param keys keys of the record
+	 */
+	private void append(byte type, Collection<? extends K> keys) {
+		keyBytes.clear();
+		K previous = null;
+		for(K key : keys) {
+			encode(previous, key);
+			previous = key;
+		}
+		appendRecord(type);
+	}
+
+	/**
+	 * This is the encode method. This method adds a key to keyBytes,
+	 * doubling it if the key does not fit.
+	 * @param previous key encoded just before, or null for the first key
+	 * @param key key to encode
+	 */
+	private void encode(K previous, K key) {
+		while(true) {
+			int start = keyBytes.position();
+			try {
+				serializer.write(keyBytes, previous, key);
+				return;
+			} catch(BufferOverflowException e) {
+				keyBytes.position(start);
+				ByteBuffer bigger = ByteBuffer.allocate(keyBytes.capacity() * 2);
+				keyBytes.flip();
+				bigger.put(keyBytes);
+				keyBytes = bigger;
+			}
+		}
+	}
+
+	/**
+	 * This is the appendRecord method. This method adds a record holding
+	 * the keys in keyBytes to the pending buffer: its type, the length of
+	 * its keys, the keys and a CRC32 of the type and keys.
+	 * @param type INSERT or DELETE
+	 */
+	private void appendRecord(byte type) {
+		keyBytes.flip();
+		int needed = 1 + 10 + keyBytes.remaining() + 4;
+		if(pending.remaining() < needed) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + needed));
+			pending.flip();
+			bigger.put(pending);
+			pending = bigger;
+		}
+		checksum.reset();
+		checksum.update(type);
+		checksum.update(keyBytes.duplicate());
+		pending.put(type);
+		KeySerializer.writeVarLong(pending, keyBytes.remaining());
+		pending.put(keyBytes);
+		pending.putInt((int) checksum.getValue());
+		appended++;
+	}
+
+	/**
+	 * This is the isSyncDue method. Called with the write lock held.
+	 * @return true if enough records are waiting that the log should be forced
+	 */
+	private boolean isSyncDue() {
+		return appended - synced >= syncBatch || pending.position() >= LOG_BUFFER_SIZE;
+	}
+
+	/**
+	 * This is the commit method. This method makes sure a record is on
+	 * disk. The first thread in writes out every record waiting and forces
+	 * the log once for all of them; threads that queued up behind it find
+	 * their records already covered and return without any I/O.
+	 * @param record number of the record that must be on disk
+	 * @throws UncheckedIOException if the log cannot be written
+	 */
+	private void commit(long record) throws UncheckedIOException {
+		if(synced >= record) {
+			return;
+		}
+		syncLock.lock();
+		try {
+			if(synced >= record) {
+				return;
+			}
+			checkHealthy();
+			ByteBuffer batch;
+			long upTo;
+			lock.writeLock().lock();
+			try {
+				batch = pending;
+				pending = spare;
+				upTo = appended;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			batch.flip();
+			while(batch.hasRemaining()) {
+				logSize += log.write(batch);
+			}
+			log.force(false);
+			batch.clear();
+			spare = batch;
+			synced = upTo;
+			if(logSize >= checkpointSize) {
+				checkpointHoldingSyncLock();
+			}
+		} catch(IOException e) {
+			failure = e;
+			throw new UncheckedIOException(e);
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * This is the checkpointHoldingSyncLock method. This method holds the
+	 * read lock while it works, so the tree it saves holds exactly the
+	 * changes in the log, and the records still pending can be dropped
+	 * because the snapshot already has them.
+	 * @throws IOException if the snapshot or log cannot be written
+	 */
+	private void checkpointHoldingSyncLock() throws IOException {
+		checkHealthy();
+		lock.readLock().lock();
+		try {
+			Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName()+".tmp");
+			try(FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				tree.save(snapshot, serializer);
+				snapshot.force(true);
+			}
+			Files.move(temporary, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			syncDirectory();
+			log.truncate(LOG_HEADER_SIZE);
+			log.force(true);
+			logSize = LOG_HEADER_SIZE;
+			log.position(logSize);
+			pending.clear();
+			synced = appended;
+		} catch(IOException e) {
+			failure = e;
+			throw e;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This is the syncDirectory method. This method forces the rename of the
+	 * snapshot to disk where the platform allows a directory to be opened;
+	 * elsewhere the rename is left to the file system.
+	 */
+	private void syncDirectory() {
+		try(FileChannel directory = FileChannel.open(snapshotFile.getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch(IOException e) {
+			//directories cannot be opened as channels on every platform
+		}
+	}
+
+	/**
+	 * This is the checkHealthy method.
+	 * @throws UncheckedIOException if an earlier write to the log failed
+	 */
+	private void checkHealthy() throws UncheckedIOException {
+		if(failure != null) {
+			throw new UncheckedIOException("An earlier write to the log failed.", failure);
+		}
+	}
+}
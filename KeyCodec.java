@@ -0,0 +1,102 @@
+/**
+ * Filename:   KeyCodec.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * This is the KeyCodec interface. A KeyCodec turns keys into a fixed
+ * number of bytes and back, so that trees which keep their nodes outside
+ * the Java heap can store a key inside each node record.
+ * @param <K> generic type of the keys being stored
+ */
+public interface KeyCodec<K extends Comparable<K>> {
+
+	/**
+	 * Codec for Integer keys, stored as 4 big-endian bytes.
+	 */
+	public static final KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+		@Override
+		public int width() {
+			return 4;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, int offset, Integer key) {
+			buf.putInt(offset, key);
+		}
+
+		@Override
+		public Integer read(ByteBuffer buf, int offset) {
+			return buf.getInt(offset);
+		}
+
+		@Override
+		public int compare(Integer key, ByteBuffer buf, int offset) {
+			return Integer.compare(key, buf.getInt(offset));
+		}
+	};
+
+	/**
+	 * Codec for Long keys, stored as 8 big-endian bytes.
+	 */
+	public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+		@Override
+		public int width() {
+			return 8;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, int offset, Long key) {
+			buf.putLong(offset, key);
+		}
+
+		@Override
+		public Long read(ByteBuffer buf, int offset) {
+			return buf.getLong(offset);
+		}
+
+		@Override
+		public int compare(Long key, ByteBuffer buf, int offset) {
+			return Long.compare(key, buf.getLong(offset));
+		}
+	};
+
+	/**
+	 * Number of bytes every encoded key takes up.
+	 * @return the fixed width of a key in bytes
+	 */
+	public int width();
+
+	/**
+	 * Writes key into buf starting at offset, using exactly width() bytes.
+	 * @param buf buffer to write into
+	 * @param offset absolute position of the first byte
+	 * @param key key to be written
+	 */
+	public void write(ByteBuffer buf, int offset, K key);
+
+	/**
+	 * Reads back a key that was written at offset.
+	 * @param buf buffer to read from
+	 * @param offset absolute position of the first byte
+	 * @return the decoded key
+	 */
+	public K read(ByteBuffer buf, int offset);
+
+	/**
+	 * Compares key with the key stored at offset. Codecs for primitive
+	 * keys override this to compare without decoding a key object.
+	 * @param key key being looked up
+	 * @param buf buffer holding the stored key
+	 * @param offset absolute position of the stored key
+	 * @return negative, zero or positive as key is less than, equal to or
+	 * greater than the stored key
+	 */
+	public default int compare(K key, ByteBuffer buf, int offset) {
+		return key.compareTo(read(buf, offset));
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Filename:   KeyPrefix.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+/**
+ * This is the KeyPrefix interface. A KeyPrefix sums up the start of a key
+ * as a long, so that an AVLTree can keep it in each node and settle most
+ * comparisons on the way down without following the node's key into the
+ * heap. Comparing two prefixes as unsigned longs must agree with the
+ * tree's ordering whenever they differ; only keys with equal prefixes are
+ * compared in full.
+ * @param <K> generic type of the keys being summed up
+ */
+public interface KeyPrefix<K> {
+
+	/**
+	 * Prefix for String keys in their natural ordering: the first four
+	 * UTF-16 characters, 16 bits each, with missing characters as zero.
+	 */
+	public static final KeyPrefix<String> STRING = key -> {
+		long prefix = 0;
+		for(int i = 0; i < 4; i++) {
+			prefix = prefix << 16 | (i < key.length() ? key.charAt(i) : 0);
+		}
+		return prefix;
+	};
+
+	/**
+	 * Prefix for byte[] keys ordered as unsigned bytes, as by
+	 * java.util.Arrays::compareUnsigned: the first eight bytes, with missing
+	 * bytes as zero.
+	 */
+	public static final KeyPrefix<byte[]> BYTES = key -> {
+		long prefix = 0;
+		for(int i = 0; i < 8; i++) {
+			prefix = prefix << 8 | (i < key.length ? key[i] & 0xFF : 0);
+		}
+		return prefix;
+	};
+
+	/**
+	 * Sums up the start of a key.
+	 * @param key key to sum up
+	 * @return a value whose unsigned order agrees with the order of the keys
+	 */
+	public long prefix(K key);
+}
@@ -0,0 +1,146 @@
+/**
+ * Filename:   KeySerializer.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This is the KeySerializer interface. A KeySerializer writes the keys of
+ * an AVLTree to a save file and reads them back. Keys are saved in the
+ * tree's order, and each one is written against the key before it, so a
+ * serializer can store just the difference between neighbouring keys.
+ *
+ * Unlike a KeyCodec, an encoded key can take any number of bytes. If a key
+ * does not fit in the buffer, write or read should let the buffer's
+ * BufferOverflowException or BufferUnderflowException escape; the tree then
+ * moves the buffer's position back, makes room, and calls it again.
+ * @param <K> generic type of the keys being saved
+ */
+public interface KeySerializer<K> {
+
+	/**
+	 * Serializer for Integer keys. Each key is written as the zigzag varint
+	 * of its difference from the key before it, so the sorted keys of a
+	 * dense tree take one byte each.
+	 */
+	public static final KeySerializer<Integer> INTEGER = new KeySerializer<Integer>() {
+		@Override
+		public void write(ByteBuffer out, Integer previous, Integer key) {
+			writeVarLong(out, (long) key - (previous == null ? 0 : previous));
+		}
+
+		@Override
+		public Integer read(ByteBuffer in, Integer previous) {
+			return (int) ((previous == null ? 0 : previous) + readVarLong(in));
+		}
+	};
+
+	/**
+	 * Serializer for Long keys, written the same way as INTEGER. A
+	 * difference that overflows wraps around and is undone on the way back.
+	 */
+	public static final KeySerializer<Long> LONG = new KeySerializer<Long>() {
+		@Override
+		public void write(ByteBuffer out, Long previous, Long key) {
+			writeVarLong(out, key - (previous == null ? 0 : previous));
+		}
+
+		@Override
+		public Long read(ByteBuffer in, Long previous) {
+			return (previous == null ? 0 : previous) + readVarLong(in);
+		}
+	};
+
+	/**
+	 * Serializer for String keys. Each key is written as the number of
+	 * leading characters it shares with the key before it, followed by the
+	 * rest of the key in UTF-8.
+	 */
+	public static final KeySerializer<String> STRING = new KeySerializer<String>() {
+		@Override
+		public void write(ByteBuffer out, String previous, String key) {
+			int shared = 0;
+			if(previous != null) {
+				int limit = Math.min(previous.length(), key.length());
+				while(shared < limit && previous.charAt(shared) == key.charAt(shared)) {
+					shared++;
+				}
+				//never split a surrogate pair between the two parts
+				if(shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))) {
+					shared--;
+				}
+			}
+			byte[] rest = key.substring(shared).getBytes(StandardCharsets.UTF_8);
+			writeVarLong(out, shared);
+			writeVarLong(out, rest.length);
+			out.put(rest);
+		}
+
+		@Override
+		public String read(ByteBuffer in, String previous) {
+			int shared = (int) readVarLong(in);
+			byte[] rest = new byte[(int) readVarLong(in)];
+			in.get(rest);
+			String suffix = new String(rest, StandardCharsets.UTF_8);
+			return shared == 0 ? suffix : previous.substring(0, shared).concat(suffix);
+		}
+	};
+
+	/**
+	 * Writes a key.
+	 * @param out buffer to write into, at its position
+	 * @param previous key written just before, or null for the first key
+	 * @param key key to be written
+	 * @throws BufferOverflowException if the key does not fit
+	 */
+	public void write(ByteBuffer out, K previous, K key) throws BufferOverflowException;
+
+	/**
+	 * Reads back a key written by write.
+	 * @param in buffer to read from, at its position
+	 * @param previous key read just before, or null for the first key
+	 * @return the decoded key
+	 * @throws BufferUnderflowException if the buffer ends partway through the key
+	 */
+	public K read(ByteBuffer in, K previous) throws BufferUnderflowException;
+
+	/**
+	 * Writes a long as a zigzag varint: small values of either sign take one
+	 * byte, and no value takes more than ten.
+	 * @param out buffer to write into
+	 * @param value value to write
+	 * @throws BufferOverflowException if the buffer fills up
+	 */
+	public static void writeVarLong(ByteBuffer out, long value) throws BufferOverflowException {
+		long bits = (value << 1) ^ (value >> 63);
+		while((bits & ~0x7FL) != 0) {
+			out.put((byte) ((bits & 0x7F) | 0x80));
+			bits >>>= 7;
+		}
+		out.put((byte) bits);
+	}
+
+	/**
+	 * Reads a long written by writeVarLong.
+	 * @param in buffer to read from
+	 * @return the value
+	 * @throws BufferUnderflowException if the buffer ends partway through the value
+	 */
+	public static long readVarLong(ByteBuffer in) throws BufferUnderflowException {
+		long bits = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			bits |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0 && shift < 64);
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+}
@@ -0,0 +1,427 @@
+/**
+ * Filename:   LongAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/** This is the LongAVLTree class. This class is an AVLTree for primitive
+ * long keys. Instead of one BSTNode object per key, every node is an index
+ * into parallel arrays holding its key, height and children, so keys are
+ * never boxed. Index 0 stands for the null node. Slots given back by delete
+ * are chained into a free list through the left array and reused by insert.
+ */
+public class LongAVLTree {
+	/* fields */
+	private static final int NIL = 0; //index of the null node, its height is always 0
+	private static final int MAX_DEPTH = 64; //an AVLTree with 2^31 keys is at most 45 levels deep
+	private static final int DEFAULT_CAPACITY = 16; //number of nodes allocated by the default constructor
+	private long[] keys; //key of each node
+	private byte[] heights; //height of each node, never more than MAX_DEPTH
+	private int[] left; //left child of each node, or the next free slot for a free node
+	private int[] right; //right child of each node
+	private int root; //index of the root node
+	private int size; //number of keys in the tree
+	private int freeList; //first free slot that can be reused, NIL if there is none
+	private int nextUnused; //first slot that has never been handed out
+	private final int[] path; //reused stack of the nodes from the root down to the current node
+
+	/**
+	 * This is the constructor for a LongAVLTree with room for a small
+	 * number of keys before the arrays have to grow.
+	 */
+	public LongAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * This is the constructor for a LongAVLTree that allocates its arrays
+	 * up front for the expected number of keys.
+	 * @param initialCapacity number of keys the tree can hold before growing
+	 * @throws IllegalArgumentException if initialCapacity is negative
+	 */
+	public LongAVLTree(int initialCapacity) throws IllegalArgumentException {
+		if(initialCapacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative.");
+		}
+		int slots = initialCapacity + 1; //slot 0 is the null node
+		keys = new long[slots];
+		heights = new byte[slots];
+		left = new int[slots];
+		right = new int[slots];
+		root = NIL;
+		size = 0;
+		freeList = NIL;
+		nextUnused = 1;
+		path = new int[MAX_DEPTH];
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the tree contains no keys
+	 */
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of keys in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @param key key to be inserted in the tree
+	 */
+	public void insert(long key) {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method walks down from the root
+	 * once, links a new node in as a leaf and then walks back up the path
+	 * stack checking for height imbalance.
+	 * @param key key to be inserted in the tree
+	 * @return true if key was added, false if it was already in the tree
+	 */
+	public boolean tryInsert(long key) {
+		if(root == NIL) {
+			root = allocate(key);
+			size++;
+			return true;
+		}
+		int n = root;
+		int depth = 0;
+		boolean goLeft;
+		while(true) {
+			long nodeKey = keys[n];
+			if(key == nodeKey) {
+				return false;
+			}
+			path[depth++] = n;
+			goLeft = key < nodeKey;
+			int next = goLeft ? left[n] : right[n];
+			if(next == NIL) {
+				break;
+			}
+			n = next;
+		}
+		int newNode = allocate(key);
+		if(goLeft) {
+			left[n] = newNode;
+		}
+		else {
+			right[n] = newNode;
+		}
+		size++;
+		rebalancePath(depth);
+		return true;
+	}
+
+	/**
+	 * This is the delete method. This method calls remove, so deleting a key
+	 * that is not in the tree does nothing.
+	 * @param key key to be deleted from the tree
+	 */
+	public void delete(long key) {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. A node with two children takes the key of
+	 * its in-order successor and the successor's slot is freed instead.
+	 * @param key key to be deleted from the tree
+	 * @return true if key was removed, false if it was not in the tree
+	 */
+	public boolean remove(long key) {
+		int n = root;
+		int depth = 0;
+		while(n != NIL) {
+			long nodeKey = keys[n];
+			if(key == nodeKey) {
+				break;
+			}
+			path[depth++] = n;
+			n = key < nodeKey ? left[n] : right[n];
+		}
+		if(n == NIL) {
+			return false;
+		}
+		if(left[n] != NIL && right[n] != NIL) {
+			path[depth++] = n;
+			int successor = right[n];
+			while(left[successor] != NIL) {
+				path[depth++] = successor;
+				successor = left[successor];
+			}
+			keys[n] = keys[successor];
+			n = successor;
+		}
+		int child = left[n] != NIL ? left[n] : right[n];
+		replaceChild(depth, n, child);
+		release(n);
+		size--;
+		rebalancePath(depth);
+		return true;
+	}
+
+	/**
+	 * This is the search method.
+	 * @param key key to search for
+	 * @return true if the key is in the tree
+	 */
+	public boolean search(long key) {
+		int n = root;
+		while(n != NIL) {
+			long nodeKey = keys[n];
+			if(key == nodeKey) {
+				return true;
+			}
+			n = key < nodeKey ? left[n] : right[n];
+		}
+		return false;
+	}
+
+	/**
+	 * This is the print method. This method performs an in-order traversal
+	 * of the tree using an explicit stack.
+	 * @return a String with all the keys, in order, each followed by one space
+	 */
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		int[] stack = new int[MAX_DEPTH];
+		int depth = 0;
+		int n = root;
+		while(n != NIL || depth > 0) {
+			while(n != NIL) {
+				stack[depth++] = n;
+				n = left[n];
+			}
+			n = stack[--depth];
+			inOrder.append(keys[n]).append(' ');
+			n = right[n];
+		}
+		return inOrder.toString();
+	}
+
+	/**
+	 * This is the checkForBalancedTree method.
+	 * @return true if every node's height is correct and its subtrees
+	 * differ in height by at most one
+	 */
+	public boolean checkForBalancedTree() {
+		return checkBalance(root) >= 0;
+	}
+
+	/**
+	 * This is the checkBalance helper method. Recursion is bounded by the
+	 * height of the tree.
+	 * @param n root of the subtree to check
+	 * @return the height of the subtree, or -1 if it is not balanced
+	 */
+	private int checkBalance(int n) {
+		if(n == NIL) {
+			return 0;
+		}
+		int leftHeight = checkBalance(left[n]);
+		int rightHeight = checkBalance(right[n]);
+		if(leftHeight < 0 || rightHeight < 0 || Math.abs(leftHeight - rightHeight) > 1
+				|| heights[n] != 1 + Math.max(leftHeight, rightHeight)) {
+			return -1;
+		}
+		return heights[n];
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method. This method walks the
+	 * tree in order and checks that every key is larger than the one before.
+	 * @return true if the keys are in binary search tree order
+	 */
+	public boolean checkForBinarySearchTree() {
+		int[] stack = new int[MAX_DEPTH];
+		int depth = 0;
+		int n = root;
+		boolean first = true;
+		long previous = 0;
+		while(n != NIL || depth > 0) {
+			while(n != NIL) {
+				if(depth == MAX_DEPTH) {
+					return false;
+				}
+				stack[depth++] = n;
+				n = left[n];
+			}
+			n = stack[--depth];
+			if(!first && keys[n] <= previous) {
+				return false;
+			}
+			first = false;
+			previous = keys[n];
+			n = right[n];
+		}
+		return true;
+	}
+
+	/**
+	 * This is the allocate method. This method hands out a slot for a new
+	 * leaf, reusing a freed slot if there is one and growing the arrays
+	 * otherwise.
+	 * @param key key of the new node
+	 * @return index of the new node
+	 */
+	private int allocate(long key) {
+		int n;
+		if(freeList != NIL) {
+			n = freeList;
+			freeList = left[n];
+		}
+		else {
+			if(nextUnused == keys.length) {
+				grow();
+			}
+			n = nextUnused++;
+		}
+		keys[n] = key;
+		heights[n] = 1;
+		left[n] = NIL;
+		right[n] = NIL;
+		return n;
+	}
+
+	/**
+	 * This is the release method. This method puts a slot that is no longer
+	 * in the tree at the front of the free list.
+	 * @param n index of the unlinked node
+	 */
+	private void release(int n) {
+		left[n] = freeList;
+		right[n] = NIL;
+		freeList = n;
+	}
+
+	/**
+	 * This is the grow method. This method doubles the length of all the
+	 * node arrays.
+	 */
+	private void grow() {
+		int newLength = keys.length < 8 ? 16 : keys.length * 2;
+		if(newLength < 0) {
+			newLength = Integer.MAX_VALUE - 8;
+			if(newLength <= keys.length) {
+				throw new IllegalStateException("LongAVLTree cannot hold any more keys.");
+			}
+		}
+		keys = Arrays.copyOf(keys, newLength);
+		heights = Arrays.copyOf(heights, newLength);
+		left = Arrays.copyOf(left, newLength);
+		right = Arrays.copyOf(right, newLength);
+	}
+
+	/**
+	 * This is the rebalancePath method. This method walks back up the path
+	 * stack fixing heights and rotating imbalanced nodes. It stops once a
+	 * subtree keeps the height it had before.
+	 * @param depth number of nodes on the path stack
+	 */
+	private void rebalancePath(int depth) {
+		while(depth > 0) {
+			int n = path[--depth];
+			int oldHeight = heights[n];
+			int subtree = checkHeightImbalance(n);
+			if(subtree != n) {
+				replaceChild(depth, n, subtree);
+			}
+			else if(heights[subtree] == oldHeight) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This is the replaceChild method. This method links a new subtree in
+	 * where the old one hung.
+	 * @param depth position of the old subtree on the path stack
+	 * @param old subtree being replaced
+	 * @param replacement subtree to link in its place
+	 */
+	private void replaceChild(int depth, int old, int replacement) {
+		if(depth == 0) {
+			root = replacement;
+		}
+		else if(left[path[depth - 1]] == old) {
+			left[path[depth - 1]] = replacement;
+		}
+		else {
+			right[path[depth - 1]] = replacement;
+		}
+	}
+
+	/**
+	 * This is the checkHeightImbalance method. This method fixes the height
+	 * of a node and performs the rotations needed if it is imbalanced.
+	 * @param n node to be checked for height imbalance
+	 * @return the root of the subtree after any rotations
+	 */
+	private int checkHeightImbalance(int n) {
+		int balance = heights[left[n]] - heights[right[n]];
+		if(balance > 1) {
+			int l = left[n];
+			if(heights[left[l]] < heights[right[l]]) {
+				left[n] = leftRotate(l);
+			}
+			return rightRotate(n);
+		}
+		else if(balance < -1) {
+			int r = right[n];
+			if(heights[right[r]] < heights[left[r]]) {
+				right[n] = rightRotate(r);
+			}
+			return leftRotate(n);
+		}
+		updateHeight(n);
+		return n;
+	}
+
+	/**
+	 * This is the updateHeight method.
+	 * @param n node whose children have their correct heights
+	 */
+	private void updateHeight(int n) {
+		heights[n] = (byte) (1 + Math.max(heights[left[n]], heights[right[n]]));
+	}
+
+	/**
+	 * This is the rightRotate method.
+	 * @param n node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private int rightRotate(int n) {
+		int pivot = left[n];
+		left[n] = right[pivot];
+		right[pivot] = n;
+		updateHeight(n);
+		updateHeight(pivot);
+		return pivot;
+	}
+
+	/**
+	 * This is the leftRotate method.
+	 * @param n node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private int leftRotate(int n) {
+		int pivot = right[n];
+		right[n] = left[pivot];
+		left[pivot] = n;
+		updateHeight(n);
+		updateHeight(pivot);
+		return pivot;
+	}
+}
@@ -0,0 +1,633 @@
+/**
+ * Filename:   MappedAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.IllegalArgumentException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** This is the MappedAVLTree class. This class is an AVLTree whose nodes
+ * live in a memory-mapped file instead of on the Java heap, so the tree
+ * survives restarts and opening it only reads the file header.
+ *
+ * The file starts with a header holding the root, the number of keys and
+ * the free list. After it come fixed-size node records, each holding the
+ * left child, right child and height as ints followed by the key written
+ * by a KeyCodec. Nodes refer to each other by record number and record 0
+ * is the null node. Records are mapped in segments of up to 1GB, and the
+ * last segment is remapped at twice its size whenever it fills up.
+ * @param <K> generic type for elements to be inserted
+ */
+public class MappedAVLTree<K extends Comparable<K>> implements AVLTreeADT<K>, Closeable {
+	/* fields */
+	private static final int MAGIC = 0x41564c54; //"AVLT" at the start of every tree file
+	private static final int VERSION = 1; //version of the file layout
+	private static final int HEADER_SIZE = 64; //bytes reserved for the header
+	private static final int NIL = 0; //record number of the null node
+	private static final int MAX_DEPTH = 64; //an AVLTree with 2^31 keys is at most 45 levels deep
+	private static final int LEFT = 0, RIGHT = 4, HEIGHT = 8, KEY = 12; //offsets of the fields in a record
+	private static final int SEGMENT_BYTES = 1 << 30; //largest single mapping
+	private static final int FIRST_MAPPING = 1024; //records mapped when a segment is started
+	/* offsets of the fields in the header */
+	private static final int H_MAGIC = 0, H_VERSION = 4, H_KEY_WIDTH = 8, H_ROOT = 12,
+			H_SIZE = 16, H_FREE_LIST = 20, H_NEXT_UNUSED = 24;
+
+	private final FileChannel channel; //channel the file was opened with
+	private final KeyCodec<K> codec; //converts keys to and from bytes
+	private final int recordSize; //bytes per node record
+	private final int recordsPerSegment; //records in a full segment
+	private final MappedByteBuffer header; //mapping of the header
+	private MappedByteBuffer[] segments; //mappings of the node records
+	private int segmentCount; //number of segments in use
+	private int lastSegmentRecords; //records currently mapped in the last segment
+	private int root; //record number of the root node
+	private int size; //number of keys in the tree
+	private int freeList; //first free record that can be reused, NIL if there is none
+	private int nextUnused; //first record that has never been handed out
+	private final int[] path; //reused stack of the nodes from the root down to the current node
+
+	/**
+	 * This is the constructor for a MappedAVLTree. It opens the tree stored
+	 * in file, or creates an empty one if the file does not exist or is empty.
+	 * @param file file holding the tree
+	 * @param codec codec used to store keys, must match the one the file was created with
+	 * @throws IOException if the file cannot be opened or mapped
+	 * @throws IllegalArgumentException if the file is not a tree file or was
+	 * written with a different key width
+	 */
+	public MappedAVLTree(Path file, KeyCodec<K> codec) throws IOException, IllegalArgumentException {
+		this.codec = codec;
+		recordSize = KEY + codec.width();
+		recordsPerSegment = SEGMENT_BYTES / recordSize;
+		path = new int[MAX_DEPTH];
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			boolean existing = channel.size() >= HEADER_SIZE;
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			if(existing) {
+				if(header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+					throw new IllegalArgumentException(file+" is not an AVLTree file.");
+				}
+				if(header.getInt(H_KEY_WIDTH) != codec.width()) {
+					throw new IllegalArgumentException(file+" stores keys of "+header.getInt(H_KEY_WIDTH)
+							+" bytes, not "+codec.width()+".");
+				}
+				root = header.getInt(H_ROOT);
+				size = header.getInt(H_SIZE);
+				freeList = header.getInt(H_FREE_LIST);
+				nextUnused = header.getInt(H_NEXT_UNUSED);
+			}
+			else {
+				header.putInt(H_MAGIC, MAGIC);
+				header.putInt(H_VERSION, VERSION);
+				header.putInt(H_KEY_WIDTH, codec.width());
+				root = NIL;
+				size = 0;
+				freeList = NIL;
+				nextUnused = 1;
+				writeHeader();
+			}
+			mapExistingRecords();
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the tree contains no keys
+	 */
+	@Override
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	/**
+	 * This is the size method.
+	 * @return the number of keys in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be inserted
+	 */
+	@Override
+	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method walks down from the root
+	 * once, writes a new record for the key and then walks back up the path
+	 * stack checking for height imbalance.
+	 * @param key element's key to be inserted
+	 * @return true if key was added, false if it was already in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		return insertKey(key);
+	}
+
+	/**
+	 * This is the insertKey helper method for tryInsert.
+	 * @param key element's key to be inserted
+	 * @return false if the key was already in the tree
+	 */
+	private boolean insertKey(K key) {
+		if(root == NIL) {
+			root = allocate(key);
+			size++;
+			writeHeader();
+			return true;
+		}
+		int n = root;
+		int depth = 0;
+		int cmp;
+		while(true) {
+			cmp = compare(key, n);
+			if(cmp == 0) {
+				return false;
+			}
+			path[depth++] = n;
+			int next = cmp < 0 ? left(n) : right(n);
+			if(next == NIL) {
+				break;
+			}
+			n = next;
+		}
+		int newNode = allocate(key);
+		if(cmp < 0) {
+			setLeft(n, newNode);
+		}
+		else {
+			setRight(n, newNode);
+		}
+		size++;
+		rebalancePath(depth);
+		writeHeader();
+		return true;
+	}
+
+	/**
+	 * This is the delete method. This method calls remove, so deleting a key
+	 * that is not in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be deleted
+	 */
+	@Override
+	public void delete(K key) throws IllegalArgumentException {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. A node with two children takes the key of
+	 * its in-order successor and the successor's record is freed instead.
+	 * @param key element's key to be deleted
+	 * @return true if key was removed, false if it was not in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean remove(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		int n = root;
+		int depth = 0;
+		while(n != NIL) {
+			int cmp = compare(key, n);
+			if(cmp == 0) {
+				break;
+			}
+			path[depth++] = n;
+			n = cmp < 0 ? left(n) : right(n);
+		}
+		if(n == NIL) {
+			return false;
+		}
+		if(left(n) != NIL && right(n) != NIL) {
+			path[depth++] = n;
+			int successor = right(n);
+			while(left(successor) != NIL) {
+				path[depth++] = successor;
+				successor = left(successor);
+			}
+			setKey(n, getKey(successor));
+			n = successor;
+		}
+		int child = left(n) != NIL ? left(n) : right(n);
+		replaceChild(depth, n, child);
+		release(n);
+		size--;
+		rebalancePath(depth);
+		writeHeader();
+		return true;
+	}
+
+	/**
+	 * This is the search method.
+	 * @param key element's key to search for
+	 * @return true if the key is in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean search(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot search for a null key.");
+		}
+		int n = root;
+		while(n != NIL) {
+			int cmp = compare(key, n);
+			if(cmp == 0) {
+				return true;
+			}
+			n = cmp < 0 ? left(n) : right(n);
+		}
+		return false;
+	}
+
+	/**
+	 * This is the print method. This method performs an in-order traversal
+	 * of the tree using an explicit stack.
+	 * @return a String with all the keys, in order, each followed by one space
+	 */
+	@Override
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		int[] stack = new int[MAX_DEPTH];
+		int depth = 0;
+		int n = root;
+		while(n != NIL || depth > 0) {
+			while(n != NIL) {
+				stack[depth++] = n;
+				n = left(n);
+			}
+			n = stack[--depth];
+			inOrder.append(getKey(n)).append(' ');
+			n = right(n);
+		}
+		return inOrder.toString();
+	}
+
+	/**
+	 * This is the checkForBalancedTree method.
+	 * @return true if every node's height is correct and its subtrees
+	 * differ in height by at most one
+	 */
+	@Override
+	public boolean checkForBalancedTree() {
+		return checkBalance(root, 0) >= 0;
+	}
+
+	/**
+	 * This is the checkBalance helper method. Recursion is cut off at
+	 * MAX_DEPTH in case the file has been damaged.
+	 * @param n root of the subtree to check
+	 * @param depth depth of n in the tree
+	 * @return the height of the subtree, or -1 if it is not balanced
+	 */
+	private int checkBalance(int n, int depth) {
+		if(n == NIL) {
+			return 0;
+		}
+		if(depth == MAX_DEPTH) {
+			return -1;
+		}
+		int leftHeight = checkBalance(left(n), depth + 1);
+		int rightHeight = checkBalance(right(n), depth + 1);
+		if(leftHeight < 0 || rightHeight < 0 || Math.abs(leftHeight - rightHeight) > 1
+				|| height(n) != 1 + Math.max(leftHeight, rightHeight)) {
+			return -1;
+		}
+		return height(n);
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method. This method walks the
+	 * tree in order and checks that every key is larger than the one before.
+	 * @return true if the keys are in binary search tree order
+	 */
+	@Override
+	public boolean checkForBinarySearchTree() {
+		int[] stack = new int[MAX_DEPTH];
+		int depth = 0;
+		int n = root;
+		K previous = null;
+		while(n != NIL || depth > 0) {
+			while(n != NIL) {
+				if(depth == MAX_DEPTH) {
+					return false;
+				}
+				stack[depth++] = n;
+				n = left(n);
+			}
+			n = stack[--depth];
+			K key = getKey(n);
+			if(previous != null && key.compareTo(previous) <= 0) {
+				return false;
+			}
+			previous = key;
+			n = right(n);
+		}
+		return true;
+	}
+
+	/**
+	 * This is the force method. This method writes any changes still held
+	 * in memory out to the storage device.
+	 */
+	public void force() {
+		header.force();
+		for(int i = 0; i < segmentCount; i++) {
+			segments[i].force();
+		}
+	}
+
+	/**
+	 * This is the close method. This method forces all changes to disk and
+	 * closes the file. The tree cannot be used afterwards.
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	/**
+	 * This is the writeHeader method. This method copies the root, size
+	 * and allocation state into the mapped header.
+	 */
+	private void writeHeader() {
+		header.putInt(H_ROOT, root);
+		header.putInt(H_SIZE, size);
+		header.putInt(H_FREE_LIST, freeList);
+		header.putInt(H_NEXT_UNUSED, nextUnused);
+	}
+
+	/**
+	 * This is the mapExistingRecords method. This method maps enough
+	 * segments to cover every record that has been handed out.
+	 * @throws IOException if a segment cannot be mapped
+	 */
+	private void mapExistingRecords() throws IOException {
+		segmentCount = (nextUnused - 1) / recordsPerSegment + 1;
+		segments = new MappedByteBuffer[Math.max(4, segmentCount)];
+		for(int i = 0; i < segmentCount - 1; i++) {
+			segments[i] = map(i, recordsPerSegment);
+		}
+		int used = nextUnused - (segmentCount - 1) * recordsPerSegment;
+		int records = Math.min(FIRST_MAPPING, recordsPerSegment);
+		while(records < used) {
+			records = (int) Math.min((long) records * 2, recordsPerSegment);
+		}
+		lastSegmentRecords = records;
+		segments[segmentCount - 1] = map(segmentCount - 1, records);
+	}
+
+	/**
+	 * This is the map method. Mapping past the end of the file grows it.
+	 * @param segment number of the segment to map
+	 * @param records number of records to map from its start
+	 * @return the mapping
+	 * @throws IOException if the segment cannot be mapped
+	 */
+	private MappedByteBuffer map(int segment, int records) throws IOException {
+		long position = HEADER_SIZE + (long) segment * recordsPerSegment * recordSize;
+		return channel.map(FileChannel.MapMode.READ_WRITE, position, (long) records * recordSize);
+	}
+
+	/**
+	 * This is the allocate method. This method hands out a record for a new
+	 * leaf, reusing a freed record if there is one and growing the mapping
+	 * otherwise.
+	 * @param key key of the new node
+	 * @return record number of the new node
+	 */
+	private int allocate(K key) {
+		int n;
+		if(freeList != NIL) {
+			n = freeList;
+			freeList = left(n);
+		}
+		else {
+			if(nextUnused == Integer.MAX_VALUE) {
+				throw new IllegalStateException("MappedAVLTree cannot hold any more keys.");
+			}
+			ensureMapped(nextUnused);
+			n = nextUnused++;
+		}
+		setLeft(n, NIL);
+		setRight(n, NIL);
+		setHeight(n, 1);
+		setKey(n, key);
+		return n;
+	}
+
+	/**
+	 * This is the release method. This method puts a record that is no
+	 * longer in the tree at the front of the free list.
+	 * @param n record number of the unlinked node
+	 */
+	private void release(int n) {
+		setLeft(n, freeList);
+		setRight(n, NIL);
+		freeList = n;
+	}
+
+	/**
+	 * This is the ensureMapped method. This method makes sure record n is
+	 * inside a mapping, remapping the last segment at twice its size or
+	 * starting a new segment when it is not.
+	 * @param n record number about to be written
+	 */
+	private void ensureMapped(int n) {
+		int segment = n / recordsPerSegment;
+		int index = n - segment * recordsPerSegment;
+		try {
+			if(segment == segmentCount) {
+				if(segmentCount == segments.length) {
+					segments = Arrays.copyOf(segments, segmentCount * 2);
+				}
+				lastSegmentRecords = Math.min(FIRST_MAPPING, recordsPerSegment);
+				segments[segmentCount++] = map(segment, lastSegmentRecords);
+			}
+			else if(index >= lastSegmentRecords) {
+				lastSegmentRecords = (int) Math.min((long) lastSegmentRecords * 2, recordsPerSegment);
+				segments[segment] = map(segment, lastSegmentRecords);
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not grow the tree file.", e);
+		}
+	}
+
+	/**
+	 * This is the segment method.
+	 * @param n record number
+	 * @return the mapping holding record n
+	 */
+	private ByteBuffer segment(int n) {
+		return segments[n / recordsPerSegment];
+	}
+
+	/**
+	 * This is the offset method.
+	 * @param n record number
+	 * @return position of record n inside its segment
+	 */
+	private int offset(int n) {
+		return (n % recordsPerSegment) * recordSize;
+	}
+
+	private int left(int n) {
+		return segment(n).getInt(offset(n) + LEFT);
+	}
+
+	private int right(int n) {
+		return segment(n).getInt(offset(n) + RIGHT);
+	}
+
+	private int height(int n) {
+		return n == NIL ? 0 : segment(n).getInt(offset(n) + HEIGHT);
+	}
+
+	private void setLeft(int n, int child) {
+		segment(n).putInt(offset(n) + LEFT, child);
+	}
+
+	private void setRight(int n, int child) {
+		segment(n).putInt(offset(n) + RIGHT, child);
+	}
+
+	private void setHeight(int n, int height) {
+		segment(n).putInt(offset(n) + HEIGHT, height);
+	}
+
+	private K getKey(int n) {
+		return codec.read(segment(n), offset(n) + KEY);
+	}
+
+	private void setKey(int n, K key) {
+		codec.write(segment(n), offset(n) + KEY, key);
+	}
+
+	private int compare(K key, int n) {
+		return codec.compare(key, segment(n), offset(n) + KEY);
+	}
+
+	/**
+	 * This is the rebalancePath method. This method walks back up the path
+	 * stack fixing heights and rotating imbalanced nodes. It stops once a
+	 * subtree keeps the height it had before.
+	 * @param depth number of nodes on the path stack
+	 */
+	private void rebalancePath(int depth) {
+		while(depth > 0) {
+			int n = path[--depth];
+			int oldHeight = height(n);
+			int subtree = checkHeightImbalance(n);
+			if(subtree != n) {
+				replaceChild(depth, n, subtree);
+			}
+			else if(height(subtree) == oldHeight) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This is the replaceChild method. This method links a new subtree in
+	 * where the old one hung.
+	 * @param depth position of the old subtree on the path stack
+	 * @param old subtree being replaced
+	 * @param replacement subtree to link in its place
+	 */
+	private void replaceChild(int depth, int old, int replacement) {
+		if(depth == 0) {
+			root = replacement;
+		}
+		else if(left(path[depth - 1]) == old) {
+			setLeft(path[depth - 1], replacement);
+		}
+		else {
+			setRight(path[depth - 1], replacement);
+		}
+	}
+
+	/**
+	 * This is the checkHeightImbalance method. This method fixes the height
+	 * of a node and performs the rotations needed if it is imbalanced.
+	 * @param n node to be checked for height imbalance
+	 * @return the root of the subtree after any rotations
+	 */
+	private int checkHeightImbalance(int n) {
+		int balance = height(left(n)) - height(right(n));
+		if(balance > 1) {
+			int l = left(n);
+			if(height(left(l)) < height(right(l))) {
+				setLeft(n, leftRotate(l));
+			}
+			return rightRotate(n);
+		}
+		else if(balance < -1) {
+			int r = right(n);
+			if(height(right(r)) < height(left(r))) {
+				setRight(n, rightRotate(r));
+			}
+			return leftRotate(n);
+		}
+		updateHeight(n);
+		return n;
+	}
+
+	private void updateHeight(int n) {
+		setHeight(n, 1 + Math.max(height(left(n)), height(right(n))));
+	}
+
+	/**
+	 * This is the rightRotate method.
+	 * @param n node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private int rightRotate(int n) {
+		int pivot = left(n);
+		setLeft(n, right(pivot));
+		setRight(pivot, n);
+		updateHeight(n);
+		updateHeight(pivot);
+		return pivot;
+	}
+
+	/**
+	 * This is the leftRotate method.
+	 * @param n node that is height imbalanced
+	 * @return the node that took its place at the top of the subtree
+	 */
+	private int leftRotate(int n) {
+		int pivot = right(n);
+		setRight(n, left(pivot));
+		setLeft(pivot, n);
+		updateHeight(n);
+		updateHeight(pivot);
+		return pivot;
+	}
+}
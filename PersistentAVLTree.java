@@ -0,0 +1,397 @@
+/**
+ * Filename:   PersistentAVLTree.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** This is the PersistentAVLTree class. This class is an AVLTree whose
+ * nodes never change once they are built. An insert or delete copies only
+ * the nodes on the path from the root to the key, O(log n) of them, and
+ * the copies share every untouched subtree with the old version.
+ *
+ * Because old versions are never modified, snapshot() is O(1): it hands
+ * out a second tree over the current root. Readers need no locks at all,
+ * and writers publish a new root with a compare-and-set, retrying if
+ * another writer got there first.
+ * @param <K> generic type for elements to be inserted
+ */
+public class PersistentAVLTree<K extends Comparable<K>> implements AVLTreeADT<K> {
+	/* fields */
+	private static final int MAX_DEPTH = 64; //an AVLTree with 2^31 keys is at most 45 levels deep
+	private final AtomicReference<BSTNode<K>> root; //root of the current version
+
+	/** This is the BSTNode class. This class represents the elements
+	 * that will be inserted into the PersistentAVLTree. Every field is
+	 * final, so a node can be shared by any number of versions.
+	 * @param <K> generic type for elements to be inserted
+	 */
+	static final class BSTNode<K> {
+		/* fields */
+		private final K key; //key stored in this node
+		private final int height; //height of the node in the tree
+		private final BSTNode<K> left, right; //references to each node's left and right subtree
+
+		/**
+		 * This is the constructor for a BSTNode. The height is worked out
+		 * from the children.
+		 * @param left subtree of smaller keys
+		 * @param key key stored in this node
+		 * @param right subtree of larger keys
+		 */
+		BSTNode(BSTNode<K> left, K key, BSTNode<K> right) {
+			this.key = key;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(heightOf(left), heightOf(right));
+		}
+	}
+
+	/**
+	 * This is the constructor for a PersistentAVLTree. It creates an empty tree.
+	 */
+	public PersistentAVLTree() {
+		this(null);
+	}
+
+	/**
+	 * This is the constructor for a PersistentAVLTree that starts from an
+	 * existing version.
+	 * @param root root of the version to start from
+	 */
+	private PersistentAVLTree(BSTNode<K> root) {
+		this.root = new AtomicReference<BSTNode<K>>(root);
+	}
+
+	/**
+	 * This is the snapshot method. The snapshot shares every node with this
+	 * tree, and neither tree sees changes later made to the other.
+	 * @return a tree holding the keys this tree holds right now
+	 */
+	public PersistentAVLTree<K> snapshot() {
+		return new PersistentAVLTree<K>(root.get());
+	}
+
+	/**
+	 * This is the with method. This tree is not changed.
+	 * @param key key to be added
+	 * @return a new tree holding this tree's keys and key, or this tree if
+	 * key is already in it
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public PersistentAVLTree<K> with(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		BSTNode<K> current = root.get();
+		BSTNode<K> updated = insert(current, key);
+		return updated == current ? this : new PersistentAVLTree<K>(updated);
+	}
+
+	/**
+	 * This is the without method. This tree is not changed.
+	 * @param key key to be removed
+	 * @return a new tree holding this tree's keys except key, or this tree
+	 * if key is not in it
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	public PersistentAVLTree<K> without(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		BSTNode<K> current = root.get();
+		BSTNode<K> updated = delete(current, key);
+		return updated == current ? this : new PersistentAVLTree<K>(updated);
+	}
+
+	/**
+	 * This is the isEmpty method.
+	 * @return true if the current version contains no keys
+	 */
+	@Override
+	public boolean isEmpty() {
+		return root.get() == null;
+	}
+
+	/**
+	 * This is the insert method. This method calls tryInsert, so inserting a
+	 * key that is already in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be inserted
+	 */
+	@Override
+	public void insert(K key) throws DuplicateKeyException, IllegalArgumentException {
+		tryInsert(key);
+	}
+
+	/**
+	 * This is the tryInsert method. This method builds a new version holding
+	 * key and makes it current. Snapshots taken earlier are not affected.
+	 * @param key element's key to be inserted
+	 * @return true if key was added, false if it was already in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean tryInsert(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot insert a null key.");
+		}
+		while(true) {
+			BSTNode<K> current = root.get();
+			BSTNode<K> updated = insert(current, key);
+			if(updated == current) {
+				return false;
+			}
+			if(root.compareAndSet(current, updated)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * This is the delete method. This method calls remove, so deleting a key
+	 * that is not in the tree does nothing.
+	 * @throws IllegalArgumentException if key is null value
+	 * @param key element's key to be deleted
+	 */
+	@Override
+	public void delete(K key) throws IllegalArgumentException {
+		remove(key);
+	}
+
+	/**
+	 * This is the remove method. This method builds a new version without
+	 * key and makes it current.
+	 * @param key element's key to be deleted
+	 * @return true if key was removed, false if it was not in the tree
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean remove(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot delete a null key.");
+		}
+		while(true) {
+			BSTNode<K> current = root.get();
+			BSTNode<K> updated = delete(current, key);
+			if(updated == current) {
+				return false;
+			}
+			if(root.compareAndSet(current, updated)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * This is the search method.
+	 * @param key element's key to search for
+	 * @return true if the key is in the current version
+	 * @throws IllegalArgumentException if key is null value
+	 */
+	@Override
+	public boolean search(K key) throws IllegalArgumentException {
+		if(key == null) {
+			throw new IllegalArgumentException("Cannot search for a null key.");
+		}
+		BSTNode<K> n = root.get();
+		while(n != null) {
+			int cmp = key.compareTo(n.key);
+			if(cmp == 0) {
+				return true;
+			}
+			n = cmp < 0 ? n.left : n.right;
+		}
+		return false;
+	}
+
+	/**
+	 * This is the print method. This method performs an in-order traversal
+	 * of the current version using an explicit stack.
+	 * @return a String with all the keys, in order, each followed by one space
+	 */
+	@Override
+	public String print() {
+		StringBuilder inOrder = new StringBuilder();
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		BSTNode<K>[] stack = (BSTNode<K>[]) new BSTNode[MAX_DEPTH];
+		int depth = 0;
+		BSTNode<K> n = root.get();
+		while(n != null || depth > 0) {
+			while(n != null) {
+				stack[depth++] = n;
+				n = n.left;
+			}
+			n = stack[--depth];
+			inOrder.append(n.key).append(' ');
+			n = n.right;
+		}
+		return inOrder.toString();
+	}
+
+	/**
+	 * This is the checkForBalancedTree method.
+	 * @return true if every node's subtrees differ in height by at most one
+	 */
+	@Override
+	public boolean checkForBalancedTree() {
+		return checkBalance(root.get()) >= 0;
+	}
+
+	/**
+	 * This is the checkBalance helper method. Recursion is bounded by the
+	 * height of the tree.
+	 * @param n root of the subtree to check
+	 * @return the height of the subtree, or -1 if it is not balanced
+	 */
+	private int checkBalance(BSTNode<K> n) {
+		if(n == null) {
+			return 0;
+		}
+		int leftHeight = checkBalance(n.left);
+		int rightHeight = checkBalance(n.right);
+		if(leftHeight < 0 || rightHeight < 0 || Math.abs(leftHeight - rightHeight) > 1) {
+			return -1;
+		}
+		return n.height;
+	}
+
+	/**
+	 * This is the checkForBinarySearchTree method.
+	 * @return true if the keys of the current version are in binary search tree order
+	 */
+	@Override
+	public boolean checkForBinarySearchTree() {
+		return checkOrder(root.get(), null, null);
+	}
+
+	/**
+	 * This is the checkOrder helper method.
+	 * @param n root of the subtree to check
+	 * @param low every key must be greater than this, or null for no bound
+	 * @param high every key must be less than this, or null for no bound
+	 * @return true if the subtree's keys are between low and high and in order
+	 */
+	private boolean checkOrder(BSTNode<K> n, K low, K high) {
+		if(n == null) {
+			return true;
+		}
+		if((low != null && n.key.compareTo(low) <= 0) || (high != null && n.key.compareTo(high) >= 0)) {
+			return false;
+		}
+		return checkOrder(n.left, low, n.key) && checkOrder(n.right, n.key, high);
+	}
+
+	/**
+	 * This is the private insert method. This method copies the nodes on the
+	 * path down to where key belongs.
+	 * @param n root of the subtree
+	 * @param key key to be added
+	 * @return the root of a subtree that also holds key, or n itself if key
+	 * was already there
+	 */
+	private BSTNode<K> insert(BSTNode<K> n, K key) {
+		if(n == null) {
+			return new BSTNode<K>(null, key, null);
+		}
+		int cmp = key.compareTo(n.key);
+		if(cmp == 0) {
+			return n;
+		}
+		if(cmp < 0) {
+			BSTNode<K> left = insert(n.left, key);
+			return left == n.left ? n : balance(left, n.key, n.right);
+		}
+		BSTNode<K> right = insert(n.right, key);
+		return right == n.right ? n : balance(n.left, n.key, right);
+	}
+
+	/**
+	 * This is the private delete method. This method copies the nodes on the
+	 * path down to key. A node with two children is rebuilt around the
+	 * smallest key of its right subtree.
+	 * @param n root of the subtree
+	 * @param key key to be removed
+	 * @return the root of a subtree without key, or n itself if key was not there
+	 */
+	private BSTNode<K> delete(BSTNode<K> n, K key) {
+		if(n == null) {
+			return null;
+		}
+		int cmp = key.compareTo(n.key);
+		if(cmp < 0) {
+			BSTNode<K> left = delete(n.left, key);
+			return left == n.left ? n : balance(left, n.key, n.right);
+		}
+		if(cmp > 0) {
+			BSTNode<K> right = delete(n.right, key);
+			return right == n.right ? n : balance(n.left, n.key, right);
+		}
+		if(n.left == null) {
+			return n.right;
+		}
+		if(n.right == null) {
+			return n.left;
+		}
+		BSTNode<K> min = n.right;
+		while(min.left != null) {
+			min = min.left;
+		}
+		return balance(n.left, min.key, removeMin(n.right));
+	}
+
+	/**
+	 * This is the removeMin method.
+	 * @param n root of the subtree
+	 * @return a copy of the subtree without its smallest key
+	 */
+	private BSTNode<K> removeMin(BSTNode<K> n) {
+		if(n.left == null) {
+			return n.right;
+		}
+		return balance(removeMin(n.left), n.key, n.right);
+	}
+
+	/**
+	 * This is the balance method. This method builds a node from two subtrees
+	 * whose heights differ by at most two, making new nodes for a single or
+	 * double rotation if they differ by two.
+	 * @param left subtree of smaller keys
+	 * @param key key of the new node
+	 * @param right subtree of larger keys
+	 * @return the root of the new balanced subtree
+	 */
+	private BSTNode<K> balance(BSTNode<K> left, K key, BSTNode<K> right) {
+		int leftHeight = heightOf(left);
+		int rightHeight = heightOf(right);
+		if(leftHeight > rightHeight + 1) {
+			if(heightOf(left.left) >= heightOf(left.right)) {
+				return new BSTNode<K>(left.left, left.key, new BSTNode<K>(left.right, key, right));
+			}
+			BSTNode<K> pivot = left.right;
+			return new BSTNode<K>(new BSTNode<K>(left.left, left.key, pivot.left), pivot.key,
+					new BSTNode<K>(pivot.right, key, right));
+		}
+		if(rightHeight > leftHeight + 1) {
+			if(heightOf(right.right) >= heightOf(right.left)) {
+				return new BSTNode<K>(new BSTNode<K>(left, key, right.left), right.key, right.right);
+			}
+			BSTNode<K> pivot = right.left;
+			return new BSTNode<K>(new BSTNode<K>(left, key, pivot.left), pivot.key,
+					new BSTNode<K>(pivot.right, right.key, right.right));
+		}
+		return new BSTNode<K>(left, key, right);
+	}
+
+	/**
+	 * This is the heightOf method.
+	 * @param node node to check, may be null
+	 * @return the height of node, 0 for null
+	 */
+	private static int heightOf(BSTNode<?> node) {
+		return node == null ? 0 : node.height;
+	}
+}
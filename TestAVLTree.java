@@ -8,7 +8,38 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.IllegalArgumentException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 import org.junit.Test;
 
 /**
@@ -96,7 +127,7 @@ public class TestAVLTree {
 				tree.insert(i);
 			}
 			//many elements deleted
-			for(int i = 1000000; i > 0; i++) {
+			for(int i = 999999; i >= 0; i--) {
 				tree.delete(i);
 			}
 			assertTrue(tree.isEmpty());
@@ -331,4 +362,984 @@ public class TestAVLTree {
 		}
 	}
 	
+	/**
+	 * This method tests the IntAVLTree and LongAVLTree implementations,
+	 * making sure that inserting, deleting and searching primitive keys
+	 * keeps the tree balanced and in order, and that slots freed by 
+	 * delete are reused.
+	 */
+	@Test
+	public void test12primitiveTrees() {
+		IntAVLTree ints = new IntAVLTree(4);
+		LongAVLTree longs = new LongAVLTree(4);
+		for(int i = 0; i < 1000; i++) {
+			ints.insert(i);
+			longs.insert(i * 10000000000L);
+		}
+		for(int i = 0; i < 1000; i += 2) {
+			ints.delete(i);
+			longs.delete(i * 10000000000L);
+		}
+		for(int i = 0; i < 1000; i += 2) {
+			ints.insert(i);
+		}
+		assertEquals(1000, ints.size());
+		assertEquals(500, longs.size());
+		assertTrue(ints.search(998));
+		assertFalse(longs.search(998 * 10000000000L));
+		assertTrue(longs.search(999 * 10000000000L));
+		assertTrue(ints.checkForBalancedTree());
+		assertTrue(ints.checkForBinarySearchTree());
+		assertTrue(longs.checkForBalancedTree());
+		assertTrue(longs.checkForBinarySearchTree());
+		IntAVLTree small = new IntAVLTree();
+		small.insert(3);
+		small.insert(1);
+		small.insert(2);
+		assertEquals("1 2 3 ", small.print());
+	}
+	
+	/**
+	 * This method tests the MappedAVLTree implementation, making sure that
+	 * the keys written to the file are all there, still balanced and still
+	 * in order after the tree is closed and opened again.
+	 */
+	@Test
+	public void test13mappedTreeSurvivesReopen() throws Exception {
+		File file = File.createTempFile("avltree", ".idx");
+		file.deleteOnExit();
+		MappedAVLTree<Integer> tree = new MappedAVLTree<Integer>(file.toPath(), KeyCodec.INTEGER);
+		for(int i = 0; i < 5000; i++) {
+			tree.insert(i);
+		}
+		for(int i = 0; i < 5000; i += 3) {
+			tree.delete(i);
+		}
+		tree.close();
+		MappedAVLTree<Integer> reopened = new MappedAVLTree<Integer>(file.toPath(), KeyCodec.INTEGER);
+		assertEquals(3333, reopened.size());
+		assertFalse(reopened.search(3));
+		assertTrue(reopened.search(4));
+		assertTrue(reopened.checkForBalancedTree());
+		assertTrue(reopened.checkForBinarySearchTree());
+		reopened.close();
+	}
+	
+	/**
+	 * This method tests the fromSorted bulk load, making sure the tree it
+	 * builds holds every key and is balanced, and that the checked mode
+	 * rejects keys that are out of order or repeated.
+	 */
+	@Test
+	public void test14bulkLoadFromSorted() {
+		Integer[] keys = new Integer[1000];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = i * 2;
+		}
+		AVLTree<Integer> tree = AVLTree.fromSorted(keys, true);
+		assertTrue(tree.search(0));
+		assertTrue(tree.search(1998));
+		assertFalse(tree.search(1001));
+		AVLTree<Integer> fromStream = AVLTree.fromSorted(IntStream.range(0, 100).boxed(), true);
+		assertTrue(fromStream.search(99));
+		try {
+			AVLTree.fromSorted(Arrays.asList(1, 2, 2, 3).iterator(), true);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("position 2"));
+		}
+	}
+	
+	/**
+	 * This method tests insertAll and deleteAll, making sure that keys
+	 * already in the tree, repeated in the batch or missing from the tree
+	 * are counted in the BatchResult instead of being reported one by one.
+	 */
+	@Test
+	public void test15batchInsertAndDelete() {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		for(int i = 0; i < 100; i += 2) {
+			tree.insertAll(Collections.singletonList(i));
+		}
+		List<Integer> batch = new ArrayList<Integer>();
+		for(int i = 0; i < 200; i++) {
+			batch.add(i);
+		}
+		batch.add(7);
+		BatchResult inserted = tree.insertAll(batch);
+		assertEquals(150, inserted.getInserted());
+		assertEquals(51, inserted.getDuplicates());
+		BatchResult deleted = tree.deleteAll(Arrays.asList(5, 150, 250, 5));
+		assertEquals(2, deleted.getRemoved());
+		assertEquals(2, deleted.getMissing());
+		assertFalse(tree.search(5));
+		assertTrue(tree.search(6));
+		assertFalse(tree.search(150));
+		assertTrue(tree.search(199));
+	}
+	
+	/**
+	 * This method tests the ConcurrentAVLTree implementation, making sure
+	 * that searches running alongside several writer threads never miss a
+	 * key that is known to be in the tree, and that the tree is balanced
+	 * and complete once the writers finish.
+	 */
+	@Test
+	public void test16concurrentReadersAndWriters() throws Exception {
+		final ConcurrentAVLTree<Integer> tree = new ConcurrentAVLTree<Integer>();
+		for(int i = 0; i < 1000; i++) {
+			tree.insert(-i - 1);
+		}
+		final AtomicBoolean missed = new AtomicBoolean();
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 5000; i++) {
+					if(id % 2 == 0) {
+						try {
+							tree.insert(i * 4 + id / 2);
+						} catch(DuplicateKeyException e) {
+							missed.set(true);
+						}
+					}
+					else if(!tree.search(-(i % 1000) - 1)) {
+						missed.set(true);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(missed.get());
+		assertEquals(21000, tree.size());
+		assertTrue(tree.checkForBalancedTree());
+		assertTrue(tree.checkForBinarySearchTree());
+		for(int i = 0; i < 20000; i += 2) {
+			tree.delete(i);
+		}
+		assertEquals(11000, tree.size());
+		assertFalse(tree.search(0));
+		assertTrue(tree.search(19999));
+		assertTrue(tree.checkForBalancedTree());
+	}
+	
+	/**
+	 * This method tests the PersistentAVLTree implementation, making sure
+	 * that a snapshot keeps the keys it was taken with while the tree it
+	 * came from keeps changing, and that with and without leave the
+	 * original version alone.
+	 */
+	@Test
+	public void test17persistentSnapshots() throws DuplicateKeyException {
+		PersistentAVLTree<Integer> tree = new PersistentAVLTree<Integer>();
+		for(int i = 0; i < 500; i++) {
+			tree.insert(i);
+		}
+		PersistentAVLTree<Integer> snapshot = tree.snapshot();
+		for(int i = 0; i < 500; i += 2) {
+			tree.delete(i);
+		}
+		tree.insert(1000);
+		assertTrue(snapshot.search(0));
+		assertFalse(snapshot.search(1000));
+		assertFalse(tree.search(0));
+		assertTrue(tree.search(1000));
+		PersistentAVLTree<Integer> added = snapshot.with(2000);
+		assertTrue(added.search(2000));
+		assertFalse(snapshot.search(2000));
+		assertTrue(snapshot.without(2000) == snapshot);
+		assertFalse(added.without(0).search(0));
+		assertTrue(tree.checkForBalancedTree());
+		assertTrue(tree.checkForBinarySearchTree());
+		assertTrue(added.checkForBalancedTree());
+	}
+	
+	/**
+	 * This method tests the streaming traversals, making sure that the
+	 * iterator, forEachInOrder and print to an Appendable all visit the
+	 * keys in order, and that removing through the iterator keeps going
+	 * from the right place.
+	 */
+	@Test
+	public void test18streamingTraversal() throws IOException, DuplicateKeyException {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		for(int i = 20; i > 0; i--) {
+			tree.insert(i);
+		}
+		StringBuilder written = new StringBuilder();
+		tree.print(written);
+		assertEquals(tree.print(), written.toString());
+		final StringBuilder visited = new StringBuilder();
+		tree.forEachInOrder(key -> visited.append(key).append(' '));
+		assertEquals(tree.print(), visited.toString());
+		Iterator<Integer> keys = tree.iterator();
+		int expected = 1;
+		while(keys.hasNext()) {
+			int key = keys.next();
+			assertEquals(expected++, key);
+			if(key % 2 == 0) {
+				keys.remove();
+			}
+		}
+		assertEquals(21, expected);
+		assertEquals("1 3 5 7 9 11 13 15 17 19 ", tree.print());
+		assertEquals(10, StreamSupport.stream(tree.spliterator(), false).count());
+	}
+	
+	/**
+	 * This method tests the order statistics, making sure that size, rank,
+	 * select and countInRange stay correct after inserts, deletes and the
+	 * rotations they cause.
+	 */
+	@Test
+	public void test19rankAndSelect() throws DuplicateKeyException {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		for(int i = 0; i < 1000; i++) {
+			tree.insert((i * 7919) % 1000);
+		}
+		for(int i = 0; i < 1000; i += 3) {
+			tree.delete(i);
+		}
+		assertEquals(666, tree.size());
+		assertEquals(0, tree.rank(0));
+		assertEquals(1, tree.rank(2));
+		assertEquals(2, tree.rank(3));
+		assertEquals(666, tree.rank(5000));
+		assertEquals(Integer.valueOf(1), tree.select(0));
+		assertEquals(Integer.valueOf(2), tree.select(1));
+		assertEquals(Integer.valueOf(4), tree.select(2));
+		assertEquals(Integer.valueOf(998), tree.select(665));
+		assertEquals(4, tree.countInRange(1, 6));
+		assertEquals(0, tree.countInRange(6, 1));
+		for(int i = 0; i < tree.size(); i++) {
+			assertEquals(i, tree.rank(tree.select(i)));
+		}
+		try {
+			tree.select(666);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IndexOutOfBoundsException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests the navigation methods and the NavigableSet view,
+	 * making sure floor, ceiling, lower and higher find the right keys, that
+	 * subSet only visits keys in its range, and that sub-set and descending
+	 * views of the AVLTreeSet behave like the same views of a TreeSet.
+	 */
+	@Test
+	public void test20navigableSetOperations() throws DuplicateKeyException {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for(int i = 0; i < 100; i += 5) {
+			tree.insert(i);
+			expected.add(i);
+		}
+		assertEquals(Integer.valueOf(0), tree.first());
+		assertEquals(Integer.valueOf(95), tree.last());
+		assertEquals(Integer.valueOf(10), tree.floor(12));
+		assertEquals(Integer.valueOf(10), tree.floor(10));
+		assertEquals(Integer.valueOf(15), tree.ceiling(12));
+		assertEquals(Integer.valueOf(5), tree.lower(10));
+		assertEquals(Integer.valueOf(15), tree.higher(10));
+		assertEquals(null, tree.higher(95));
+		assertEquals(null, tree.lower(0));
+		StringBuilder range = new StringBuilder();
+		for(int key : tree.subSet(12, 30)) {
+			range.append(key).append(' ');
+		}
+		assertEquals("15 20 25 ", range.toString());
+		NavigableSet<Integer> set = tree.asNavigableSet();
+		assertEquals(expected, set);
+		assertEquals(expected.subSet(12, true, 60, false), set.subSet(12, true, 60, false));
+		assertEquals(new ArrayList<Integer>(expected.descendingSet().headSet(40, true)),
+				new ArrayList<Integer>(set.descendingSet().headSet(40, true)));
+		assertEquals(expected.tailSet(50).size(), set.tailSet(50).size());
+		assertEquals(expected.descendingSet().ceiling(42), set.descendingSet().ceiling(42));
+		assertTrue(set.add(7));
+		assertFalse(set.add(7));
+		assertTrue(tree.search(7));
+		assertEquals(Integer.valueOf(0), set.pollFirst());
+		assertFalse(tree.search(0));
+		try {
+			set.headSet(50).add(60);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+		try {
+			set.contains(null);
+			//code should never reach here
+			assertFalse(true);
+		} catch(NullPointerException e) {
+			//expected
+		}
+		try {
+			set.subSet(null, true, 60, false);
+			//code should never reach here
+			assertFalse(true);
+		} catch(NullPointerException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests the metrics of an AVLTree, making sure nothing is
+	 * counted until metrics are set, that single and double rotations are
+	 * told apart, that duplicate and null keys are counted, and that the
+	 * counters can be read through JMX.
+	 */
+	@Test
+	public void test21metricsCountOperations() throws Exception {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		assertEquals(null, tree.getMetrics());
+		tree.insert(50);
+		AVLTreeMetrics metrics = new AVLTreeMetrics();
+		tree.setMetrics(metrics);
+		assertEquals(0, metrics.getInserts());
+		//30 then 10 leans left twice, one single rotation
+		tree.insert(30);
+		tree.insert(10);
+		assertEquals(1, metrics.getSingleRotations());
+		assertEquals(0, metrics.getDoubleRotations());
+		//70 then 60 leans right then left, one double rotation
+		tree.insert(70);
+		tree.insert(60);
+		assertEquals(1, metrics.getSingleRotations());
+		assertEquals(1, metrics.getDoubleRotations());
+		tree.insert(60);
+		assertEquals(1, metrics.getDuplicateRejections());
+		try {
+			tree.search(null);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+		assertTrue(tree.search(10));
+		tree.delete(99);
+		AVLTreeStats stats = metrics.snapshot();
+		assertEquals(5, stats.getInserts());
+		assertEquals(1, stats.getSearches());
+		assertEquals(1, stats.getDeletes());
+		assertEquals(1, stats.getNullRejections());
+		assertEquals(3, stats.getMaxDepth());
+		long recorded = 0;
+		for(long count : stats.getDepthHistogram()) {
+			recorded += count;
+		}
+		assertEquals(7, recorded);
+		javax.management.ObjectName name = metrics.register("test21");
+		try {
+			Object inserts = ManagementFactory.getPlatformMBeanServer()
+					.getAttribute(name, "Inserts");
+			assertEquals(Long.valueOf(5), inserts);
+		} finally {
+			metrics.unregister("test21");
+		}
+		metrics.reset();
+		assertEquals(0, metrics.snapshot().getInserts());
+		tree.setMetrics(null);
+		tree.insert(5);
+		assertEquals(0, metrics.getInserts());
+	}
+	
+	/**
+	 * This method tests the BPlusTree, using small nodes so that splits,
+	 * borrows and merges all happen, and making sure it holds the same keys
+	 * as a TreeSet and stays balanced and in order throughout.
+	 */
+	@Test
+	public void test22bPlusTreeMatchesTreeSet() throws DuplicateKeyException {
+		AVLTreeADT<Integer> tree = new BPlusTree<Integer>(4);
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		Random random = new Random(22);
+		for(int i = 0; i < 20000; i++) {
+			int key = random.nextInt(500);
+			if(random.nextBoolean()) {
+				if(expected.add(key)) {
+					tree.insert(key);
+				}
+			}
+			else {
+				tree.delete(key);
+				expected.remove(key);
+			}
+			assertEquals(expected.contains(key), tree.search(key));
+		}
+		assertTrue(tree.checkForBalancedTree());
+		assertTrue(tree.checkForBinarySearchTree());
+		StringBuilder inOrder = new StringBuilder();
+		for(int key : expected) {
+			inOrder.append(key).append(' ');
+		}
+		assertEquals(inOrder.toString(), tree.print());
+		for(int key : expected) {
+			tree.delete(key);
+		}
+		assertTrue(tree.isEmpty());
+		assertTrue(tree.checkForBalancedTree());
+		try {
+			new BPlusTree<Integer>(2);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests the AVLTreeMap, making sure put and putIfAbsent
+	 * report keys that are already there through their return values, that
+	 * compute and merge add, change and remove mappings, and that the map
+	 * iterates in key order.
+	 */
+	@Test
+	public void test23treeMapOperations() {
+		AVLTreeMap<String, Integer> map = new AVLTreeMap<String, Integer>();
+		assertEquals(null, map.put("b", 2));
+		assertEquals(Integer.valueOf(2), map.put("b", 20));
+		assertEquals(null, map.putIfAbsent("a", 1));
+		assertEquals(Integer.valueOf(1), map.putIfAbsent("a", 10));
+		assertEquals(Integer.valueOf(1), map.get("a"));
+		assertEquals(Integer.valueOf(1), map.merge("c", 1, Integer::sum));
+		assertEquals(Integer.valueOf(2), map.merge("c", 1, Integer::sum));
+		assertEquals(Integer.valueOf(21), map.compute("b", (key, value) -> value + 1));
+		assertEquals(null, map.compute("a", (key, value) -> null));
+		assertFalse(map.containsKey("a"));
+		assertEquals(Integer.valueOf(4), map.computeIfAbsent("d", key -> 4));
+		assertEquals(null, map.computeIfPresent("e", (key, value) -> value + 1));
+		assertEquals("{b=21, c=2, d=4}", map.toString());
+		assertEquals(Integer.valueOf(4), map.remove("d"));
+		assertEquals(null, map.remove("d"));
+		assertEquals(2, map.size());
+		Map<String, Integer> expected = new TreeMap<String, Integer>();
+		expected.put("b", 21);
+		expected.put("c", 2);
+		assertEquals(expected, map);
+		try {
+			map.put("f", null);
+			//code should never reach here
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests tryInsert and remove on every tree, making sure they
+	 * report duplicates and missing keys through their return values without
+	 * printing anything, and that DuplicateKeyException has no stack trace.
+	 */
+	@Test
+	public void test24tryInsertAndRemove() throws Exception {
+		List<AVLTreeADT<Integer>> trees = new ArrayList<AVLTreeADT<Integer>>();
+		trees.add(new AVLTree<Integer>());
+		trees.add(new ConcurrentAVLTree<Integer>());
+		trees.add(new PersistentAVLTree<Integer>());
+		trees.add(new BPlusTree<Integer>());
+		PrintStream console = System.out;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(output));
+		try {
+			for(AVLTreeADT<Integer> tree : trees) {
+				assertTrue(tree.tryInsert(1));
+				assertFalse(tree.tryInsert(1));
+				tree.insert(1);
+				assertTrue(tree.search(1));
+				assertTrue(tree.remove(1));
+				assertFalse(tree.remove(1));
+				assertTrue(tree.isEmpty());
+			}
+			IntAVLTree ints = new IntAVLTree();
+			assertTrue(ints.tryInsert(7));
+			assertFalse(ints.tryInsert(7));
+			assertTrue(ints.remove(7));
+			assertFalse(ints.remove(7));
+		} finally {
+			System.setOut(console);
+		}
+		assertEquals("", output.toString());
+		assertEquals(0, new DuplicateKeyException().getStackTrace().length);
+	}
+	
+	/**
+	 * This method tests trees sorted by a Comparator, and trees that keep a
+	 * KeyPrefix in their nodes, against the same keys in a TreeSet.
+	 */
+	@Test
+	public void test25comparatorOrdering() throws Exception {
+		AVLTree<Integer> reversed = new AVLTree<Integer>(Collections.reverseOrder());
+		reversed.insertAll(Arrays.asList(3, 1, 4, 1, 5, 9, 2, 6));
+		assertEquals(Arrays.asList(9, 6, 5, 4, 3, 2, 1), new ArrayList<Integer>(reversed.asNavigableSet()));
+		assertEquals(Integer.valueOf(4), reversed.ceiling(4));
+		assertEquals(Integer.valueOf(3), reversed.higher(4));
+		assertEquals(4, reversed.countInRange(6, 3));
+		reversed.deleteAll(Arrays.asList(9, 1, 7));
+		assertEquals(Arrays.asList(6, 5, 4, 3, 2), new ArrayList<Integer>(reversed.asNavigableSet()));
+		assertEquals(Arrays.asList(5, 4), new ArrayList<Integer>(
+				reversed.asNavigableSet().subSet(5, true, 3, false)));
+
+		AVLTree<String> words = new AVLTree<String>(String.CASE_INSENSITIVE_ORDER);
+		assertTrue(words.tryInsert("Apple"));
+		assertFalse(words.tryInsert("APPLE"));
+		assertTrue(words.search("apple"));
+
+		AVLTree<String> strings = new AVLTree<String>(null, KeyPrefix.STRING);
+		TreeSet<String> expected = new TreeSet<String>();
+		Random random = new Random(16);
+		for(int i = 0; i < 2000; i++) {
+			String key = Integer.toString(random.nextInt(5000), 3);
+			assertEquals(expected.add(key), strings.tryInsert(key));
+			if(i % 3 == 0) {
+				String gone = Integer.toString(random.nextInt(5000), 3);
+				assertEquals(expected.remove(gone), strings.remove(gone));
+			}
+		}
+		assertEquals(new ArrayList<String>(expected), new ArrayList<String>(strings.asNavigableSet()));
+
+		AVLTree<byte[]> bytes = new AVLTree<byte[]>(Arrays::compareUnsigned, KeyPrefix.BYTES);
+		bytes.insertAll(Arrays.asList(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, new byte[] {(byte) 200},
+				new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 1}));
+		assertTrue(bytes.search(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 1}));
+		assertFalse(bytes.search(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 0}));
+		assertEquals(200, bytes.last()[0] & 0xFF);
+		assertEquals(8, bytes.first().length);
+	}
+	
+	/**
+	 * This method tests union, intersection, difference, filter and split
+	 * against the same operations on TreeSets, on trees big enough for the
+	 * work to be forked.
+	 */
+	@Test
+	public void test26setOperations() throws Exception {
+		Random random = new Random(17);
+		TreeSet<Integer> first = new TreeSet<Integer>();
+		TreeSet<Integer> second = new TreeSet<Integer>();
+		for(int i = 0; i < 20000; i++) {
+			first.add(random.nextInt(40000));
+			second.add(random.nextInt(40000));
+		}
+		for(int operation = 0; operation < 3; operation++) {
+			AVLTree<Integer> tree = new AVLTree<Integer>();
+			AVLTree<Integer> other = new AVLTree<Integer>();
+			tree.insertAll(first);
+			other.insertAll(second);
+			TreeSet<Integer> expected = new TreeSet<Integer>(first);
+			if(operation == 0) {
+				tree.union(other);
+				expected.addAll(second);
+			}
+			else if(operation == 1) {
+				tree.intersection(other);
+				expected.retainAll(second);
+			}
+			else {
+				tree.difference(other);
+				expected.removeAll(second);
+			}
+			assertTrue(other.isEmpty());
+			assertEquals(expected.size(), tree.size());
+			assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(tree.asNavigableSet()));
+		}
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		tree.insertAll(first);
+		tree.filter(key -> key % 2 == 0);
+		first.removeIf(key -> key % 2 != 0);
+		assertEquals(new ArrayList<Integer>(first), new ArrayList<Integer>(tree.asNavigableSet()));
+		AVLTree<Integer> upper = tree.split(20000);
+		assertEquals(new ArrayList<Integer>(first.headSet(20000)), new ArrayList<Integer>(tree.asNavigableSet()));
+		assertEquals(new ArrayList<Integer>(first.tailSet(20000)), new ArrayList<Integer>(upper.asNavigableSet()));
+		try {
+			tree.union(new AVLTree<Integer>(Collections.reverseOrder()));
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests stream and parallelStream, making sure the
+	 * spliterator splits into pieces of known size that together hold every
+	 * key once and in order.
+	 */
+	@Test
+	public void test27parallelStreams() throws Exception {
+		AVLTree<Integer> tree = AVLTree.fromSorted(IntStream.range(0, 10000).boxed(), true);
+		List<Integer> expected = IntStream.range(0, 10000).boxed()
+				.collect(Collectors.toList());
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		assertEquals(expected, tree.parallelStream().collect(Collectors.toList()));
+		assertEquals(49995000L, tree.parallelStream().mapToLong(Integer::longValue).sum());
+		Spliterator<Integer> second = tree.spliterator();
+		assertTrue(second.hasCharacteristics(Spliterator.SIZED | Spliterator.SORTED));
+		assertTrue(second.getComparator() == null);
+		Spliterator<Integer> first = second.trySplit();
+		assertEquals(5000, first.estimateSize());
+		assertEquals(5000, second.estimateSize());
+		assertTrue(second.tryAdvance(key -> assertEquals(Integer.valueOf(5000), key)));
+		assertTrue(first.tryAdvance(key -> assertEquals(Integer.valueOf(0), key)));
+		AVLTree<Integer> reversed = new AVLTree<Integer>(Collections.reverseOrder());
+		reversed.insertAll(expected);
+		assertEquals(reversed.comparator(), reversed.spliterator().getComparator());
+		assertEquals(Integer.valueOf(9999), reversed.parallelStream().findFirst().get());
+	}
+	
+	/**
+	 * This method tests save and load, making sure a tree comes back with
+	 * the same keys, that sorted integer keys take about a byte each, that
+	 * a damaged save file is rejected without touching the tree, and that a
+	 * save file is not mistaken for a MappedAVLTree file.
+	 */
+	@Test
+	public void test28saveAndLoad() throws Exception {
+		AVLTree<Integer> tree = AVLTree.fromSorted(IntStream.range(-500, 500).boxed(), true);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		tree.save(Channels.newChannel(bytes), KeySerializer.INTEGER);
+		byte[] saved = bytes.toByteArray();
+		assertTrue(saved.length < 16 + 1000 + 8);
+		AVLTree<Integer> loaded = new AVLTree<Integer>();
+		loaded.insert(12345);
+		loaded.load(Channels.newChannel(new ByteArrayInputStream(saved)), KeySerializer.INTEGER);
+		assertEquals(1000, loaded.size());
+		assertEquals(new ArrayList<Integer>(tree.asNavigableSet()), new ArrayList<Integer>(loaded.asNavigableSet()));
+		try {
+			loaded.load(Channels.newChannel(new ByteArrayInputStream(
+					Arrays.copyOf(saved, saved.length - 1))), KeySerializer.INTEGER);
+			assertFalse(true);
+		} catch(EOFException e) {
+			//expected
+		}
+		assertEquals(1000, loaded.size());
+
+		AVLTree<String> words = new AVLTree<String>();
+		words.insertAll(Arrays.asList("tree", "treetop", "trees", "apple", "\u00e9t\u00e9", ""));
+		bytes.reset();
+		words.save(Channels.newChannel(bytes), KeySerializer.STRING);
+		AVLTree<String> loadedWords = new AVLTree<String>();
+		loadedWords.load(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+				KeySerializer.STRING);
+		assertEquals(new ArrayList<String>(words.asNavigableSet()), new ArrayList<String>(loadedWords.asNavigableSet()));
+
+		File file = File.createTempFile("avltree", ".save");
+		file.deleteOnExit();
+		Files.write(file.toPath(), saved);
+		try {
+			new MappedAVLTree<Integer>(file.toPath(), KeyCodec.INTEGER);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage().endsWith("is not an AVLTree file."));
+		}
+	}
+	
+	/**
+	 * This method tests the DurableAVLTree implementation, making sure that
+	 * changes survive a reopen both from the log alone and from a checkpoint
+	 * plus the log, and that a record torn by a crash is dropped on replay.
+	 */
+	@Test
+	public void test29durableTreeReplaysLog() throws Exception {
+		Path directory = Files.createTempDirectory("avltree");
+		DurableAVLTree<Integer> tree = new DurableAVLTree<Integer>(directory, KeySerializer.INTEGER, null, 16, 1 << 20);
+		for(int i = 0; i < 1000; i++) {
+			tree.insert(i);
+		}
+		tree.deleteAll(Arrays.asList(0, 1, 2, 3));
+		tree.checkpoint();
+		for(int i = 1000; i < 1100; i++) {
+			assertTrue(tree.tryInsert(i));
+		}
+		assertFalse(tree.tryInsert(5));
+		assertTrue(tree.remove(5));
+		tree.close();
+		DurableAVLTree<Integer> reopened = new DurableAVLTree<Integer>(directory, KeySerializer.INTEGER, null, 16, 1 << 20);
+		assertEquals(1095, reopened.size());
+		assertFalse(reopened.search(5));
+		assertTrue(reopened.search(1099));
+		reopened.insert(5000);
+		reopened.close();
+		Path log = directory.resolve("tree.log");
+		try(FileChannel channel = FileChannel.open(log,
+				StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+		reopened = new DurableAVLTree<Integer>(directory, KeySerializer.INTEGER);
+		assertEquals(1095, reopened.size());
+		assertFalse(reopened.search(5000));
+		reopened.close();
+		for(Path file : new Path[] {log, directory.resolve("tree.snapshot"), directory}) {
+			Files.delete(file);
+		}
+	}
+	
+	/**
+	 * This method tests verify and verifySample on a tree built up by
+	 * inserts, deletes and batch operations, and on an empty tree.
+	 */
+	@Test
+	public void test30verifyReportsNoViolations() throws Exception {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		assertTrue(tree.verify() == null);
+		assertTrue(tree.verifySample(10) == null);
+		Random random = new Random(21);
+		for(int i = 0; i < 20000; i++) {
+			tree.tryInsert(random.nextInt(50000));
+			if(i % 4 == 0) {
+				tree.remove(random.nextInt(50000));
+			}
+		}
+		tree.insertAll(Arrays.asList(-1, -2, -3, 60000));
+		assertTrue(tree.verify() == null);
+		assertTrue(tree.verifySample(1000) == null);
+		assertTrue(tree.checkForBalancedTree());
+		assertTrue(tree.checkForBinarySearchTree());
+		try {
+			tree.verifySample(-1);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests that an AVLTreeCache evicts the least recently used
+	 * entry when full, expires entries by their time to live, and drops
+	 * whole ranges of keys.
+	 */
+	@Test
+	public void test31cacheEvictsAndExpires() throws Exception {
+		long[] now = new long[1];
+		AVLTreeCache<Integer, String> cache = new AVLTreeCache<Integer, String>(3,
+				AVLTreeCache.EvictionPolicy.LEAST_RECENTLY_USED, null, () -> now[0]);
+		cache.put(1, "a");
+		cache.put(2, "b");
+		cache.put(3, "c");
+		assertEquals("a", cache.get(1));
+		cache.put(4, "d");
+		assertFalse(cache.containsKey(2));
+		assertEquals(3, cache.size());
+		cache.put(5, "e", 10, TimeUnit.NANOSECONDS);
+		assertFalse(cache.containsKey(3));
+		now[0] = 10;
+		assertTrue(cache.get(5) == null);
+		assertEquals(2, cache.size());
+		for(int i = 10; i < 13; i++) {
+			cache.put(i, "x", 5, TimeUnit.NANOSECONDS);
+		}
+		assertEquals(3, cache.size());
+		now[0] = 20;
+		assertEquals(3, cache.evictExpired());
+		assertTrue(cache.isEmpty());
+		AVLTreeCache<Integer, Integer> window = new AVLTreeCache<Integer, Integer>(1000,
+				AVLTreeCache.EvictionPolicy.OLDEST_KEY);
+		for(int i = 0; i < 1200; i++) {
+			window.put(i, i);
+		}
+		assertEquals(200, (int) window.firstKey());
+		assertEquals(100, window.evictBelow(300));
+		assertEquals(50, window.evictRange(500, 550));
+		assertFalse(window.containsKey(520));
+		assertEquals(850, window.size());
+		try {
+			window.put(null, 1);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests that lazy deletes leave tombstones that searches,
+	 * iteration and ranks skip, that an insert revives a tombstone, and that
+	 * compact removes them.
+	 */
+	@Test
+	public void test32lazyDeletionAndCompaction() throws Exception {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		tree.setLazyDeletion(1);
+		for(int i = 0; i < 100; i++) {
+			tree.insert(i);
+		}
+		for(int i = 0; i < 100; i += 2) {
+			assertTrue(tree.remove(i));
+		}
+		assertFalse(tree.remove(0));
+		assertEquals(50, tree.tombstoneCount());
+		assertEquals(50, tree.size());
+		assertFalse(tree.search(10));
+		assertEquals(1, (int) tree.first());
+		assertEquals(11, (int) tree.ceiling(10));
+		assertEquals(5, tree.rank(10));
+		assertEquals(21, (int) tree.select(10));
+		int expected = 1;
+		for(int key : tree) {
+			assertEquals(expected, key);
+			expected += 2;
+		}
+		assertTrue(tree.tryInsert(10));
+		assertEquals(49, tree.tombstoneCount());
+		assertTrue(tree.verify() == null);
+		assertEquals(49, tree.compact());
+		assertEquals(0, tree.tombstoneCount());
+		assertEquals(51, tree.size());
+		assertTrue(tree.verify() == null);
+		tree.setLazyDeletion(0.25);
+		for(int i = 1; i < 100; i += 2) {
+			tree.remove(i);
+		}
+		assertTrue(tree.tombstoneCount() * 4 <= tree.size() + tree.tombstoneCount());
+		assertEquals(1, tree.size());
+		assertTrue(tree.verify() == null);
+		try {
+			tree.setLazyDeletion(1.5);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests that a Cursor inserts, finds and deletes keys near
+	 * each other, and still works after the tree is changed without it.
+	 */
+	@Test
+	public void test33cursorNearbyOperations() throws Exception {
+		AVLTree<Integer> tree = new AVLTree<Integer>();
+		AVLTree<Integer>.Cursor cursor = tree.cursor();
+		for(int i = 0; i < 10000; i++) {
+			assertTrue(cursor.tryInsert(i));
+		}
+		assertFalse(cursor.tryInsert(9999));
+		assertEquals(10000, tree.size());
+		assertTrue(tree.verify() == null);
+		for(int i = 5000; i < 5100; i++) {
+			assertTrue(cursor.search(i));
+			assertTrue(cursor.remove(i));
+			assertFalse(cursor.search(i));
+		}
+		assertFalse(cursor.remove(5050));
+		tree.delete(10);
+		tree.insert(20000);
+		assertFalse(cursor.search(10));
+		assertTrue(cursor.search(20000));
+		assertTrue(cursor.search(11));
+		assertEquals(9900, tree.size());
+		assertTrue(tree.verify() == null);
+		try {
+			cursor.search(null);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests that a CombiningAVLTree answers requests from
+	 * several threads, giving exactly one successful insert per key.
+	 */
+	@Test
+	public void test34combiningTreeAnswersRequests() throws Exception {
+		CombiningAVLTree<Integer> tree = new CombiningAVLTree<Integer>();
+		assertTrue(tree.insert(5).get());
+		assertFalse(tree.insert(5).get());
+		assertTrue(tree.search(5).get());
+		assertTrue(tree.delete(5).get());
+		assertFalse(tree.search(5).get());
+		List<CompletableFuture<Boolean>> results =
+				new CopyOnWriteArrayList<CompletableFuture<Boolean>>();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 500; i++) {
+					results.add(tree.insert(i));
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		int added = 0;
+		for(CompletableFuture<Boolean> result : results) {
+			if(result.get()) {
+				added++;
+			}
+		}
+		assertEquals(500, added);
+		try {
+			tree.search(null);
+			assertFalse(true);
+		} catch(IllegalArgumentException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * This method tests compute and merge with functions that read the map,
+	 * making sure the lookups do not disturb the pending change, and that a
+	 * function that changes the map makes compute throw rather than corrupt
+	 * the tree.
+	 */
+	@Test
+	public void test35computeWithReadingFunction() {
+		AVLTreeMap<Integer, Integer> map = new AVLTreeMap<Integer, Integer>();
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		for(int i = 0; i < 100; i += 10) {
+			map.put(i, i);
+			expected.put(i, i);
+		}
+		assertEquals(Integer.valueOf(1), map.compute(55, (key, value) -> map.getOrDefault(5, 0) + 1));
+		assertEquals(Integer.valueOf(2), map.merge(65, 2, (old, value) -> map.get(60) + value));
+		assertEquals(Integer.valueOf(3), map.computeIfAbsent(75, key -> map.containsKey(70) ? 3 : 0));
+		assertEquals(null, map.computeIfPresent(80, (key, value) -> map.get(90) == null ? value : null));
+		expected.put(55, 1);
+		expected.put(65, 2);
+		expected.put(75, 3);
+		expected.remove(80);
+		assertEquals(expected, map);
+		assertEquals(expected.toString(), map.toString());
+		assertEquals(Integer.valueOf(1), map.get(55));
+		assertEquals(Integer.valueOf(90), map.get(90));
+		try {
+			map.compute(85, (key, value) -> map.putIfAbsent(0, 1));
+			//code should never reach here
+			assertFalse(true);
+		} catch(ConcurrentModificationException e) {
+			//expected
+		}
+		assertEquals(expected, map);
+	}
+	
+	/**
+	 * This method tests the AVLTreeCache with a clock that reads negative,
+	 * as System.nanoTime may, making sure that an entry lives for its time
+	 * to live, and that a time to live too long to add to the clock never
+	 * expires early.
+	 */
+	@Test
+	public void test36cacheWithNegativeClock() {
+		long[] now = {-5000000000L};
+		AVLTreeCache<Integer, String> cache = new AVLTreeCache<Integer, String>(4,
+				AVLTreeCache.EvictionPolicy.EARLIEST_EXPIRY, null, () -> now[0]);
+		cache.put(1, "one", 1, TimeUnit.HOURS);
+		cache.put(2, "two", Long.MAX_VALUE, TimeUnit.DAYS);
+		assertEquals("one", cache.get(1));
+		assertEquals("two", cache.get(2));
+		now[0] += TimeUnit.MINUTES.toNanos(59);
+		assertEquals("one", cache.get(1));
+		now[0] += TimeUnit.MINUTES.toNanos(1);
+		assertTrue(cache.get(1) == null);
+		now[0] += TimeUnit.DAYS.toNanos(365 * 100);
+		assertEquals("two", cache.get(2));
+		assertEquals(0, cache.evictExpired());
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,456 @@
+/**
+ * Filename:   AVLTreeBenchmark.java
+ * Author:     Scott Selland
+ *
+ * Bugs:       no known bugs
+ */
+
+import java.lang.IllegalArgumentException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/** This is the AVLTreeBenchmark class. It measures insert, search, delete,
+ * print and the balance checks of the trees in this project across
+ * sequential, random, Zipfian and adversarial key orders, and prints one
+ * line per run with throughput, latency percentiles, bytes allocated per
+ * operation and garbage collections.
+ *
+ * Every run is repeated for a number of warmup iterations, which are thrown
+ * away, and then for the measured iterations. Each iteration makes two
+ * passes over a freshly built tree: one timed as a whole for throughput and
+ * allocation, and one with the operations timed one at a time for the
+ * latency percentiles.
+ *
+ * Usage: java -Xmx8g AVLTreeBenchmark [-sizes 1000,...] [-ops insert,...]
+ * [-orders random,...] [-impls avl,...] [-warmup 2] [-iterations 3]
+ */
+public class AVLTreeBenchmark {
+	/* fields */
+	private static final long SEED = 20240601L; //seed for every random key order, so runs are repeatable
+	private static final int MAX_LATENCY_SAMPLES = 1 << 20; //most operations timed one at a time per pass
+	private static final long WHOLE_TREE_KEYS = 10000000L; //keys print and the checks visit per iteration
+	private static final double ZIPF_THETA = 0.99; //skew of the Zipfian order
+	private static final long ZIPF_SCRAMBLE = 2654435761L; //prime that spreads hot ranks across the key space
+	private static final Map<String, Supplier<AVLTreeADT<Integer>>> IMPLEMENTATIONS = implementations();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static volatile long sink; //keeps results alive so the JIT cannot drop the work
+
+	/** This is the Order enum. It is the order keys are inserted in, or for
+	 * search and delete, the order they are looked up in a full tree.
+	 */
+	enum Order {
+		SEQUENTIAL, //ascending keys, a rotation on nearly every insert
+		RANDOM, //a shuffle of the keys
+		ZIPFIAN, //keys drawn with a Zipfian skew, so a few keys are hit far more than the rest
+		ADVERSARIAL //keys taken alternately from both ends, so each insert is a double rotation
+	}
+
+	/** This is the Operation enum. */
+	enum Operation {
+		INSERT, SEARCH, DELETE, PRINT, CHECK
+	}
+
+	/** This is the Result class. It holds the numbers for one run. */
+	static final class Result {
+		/* fields */
+		private double opsPerSecond; //mean throughput over the measured iterations
+		private long[] latencies; //sorted per-operation latencies in nanoseconds
+		private double bytesPerOp; //mean bytes allocated per operation, or -1 if unknown
+		private long gcCount; //garbage collections during the throughput passes
+		private long gcMillis; //milliseconds spent in those collections
+	}
+
+	/**
+	 * This is the main method.
+	 * @param args options, see the class comment
+	 * @throws DuplicateKeyException if a tree rejects a key it does not hold
+	 * @throws IllegalArgumentException if an option is not recognised
+	 */
+	public static void main(String[] args) throws DuplicateKeyException, IllegalArgumentException {
+		int[] sizes = {1000, 10000, 100000, 1000000, 10000000};
+		List<Operation> ops = Arrays.asList(Operation.values());
+		List<Order> orders = Arrays.asList(Order.values());
+		List<String> impls = new ArrayList<String>(IMPLEMENTATIONS.keySet());
+		int warmup = 2;
+		int iterations = 3;
+		for(int i = 0; i < args.length; i += 2) {
+			if(i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for "+args[i]+".");
+			}
+			String value = args[i + 1];
+			switch(args[i]) {
+				case "-sizes":
+					sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+					break;
+				case "-ops":
+					ops = parse(Operation.class, value);
+					break;
+				case "-orders":
+					orders = parse(Order.class, value);
+					break;
+				case "-impls":
+					impls = Arrays.asList(value.split(","));
+					for(String impl : impls) {
+						if(!IMPLEMENTATIONS.containsKey(impl)) {
+							throw new IllegalArgumentException("Unknown implementation "+impl+", expected one of "
+									+IMPLEMENTATIONS.keySet()+".");
+						}
+					}
+					break;
+				case "-warmup":
+					warmup = Integer.parseInt(value);
+					break;
+				case "-iterations":
+					iterations = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option "+args[i]+".");
+			}
+		}
+		System.out.println(String.format(Locale.ROOT, "%-12s %-7s %-12s %9s %14s %9s %9s %9s %9s %11s %10s %6s %8s",
+				"impl", "op", "order", "size", "ops/s", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "max ns",
+				"B/op", "gc", "gc ms"));
+		for(String impl : impls) {
+			for(int size : sizes) {
+				Integer[] boxed = new Integer[size];
+				for(int i = 0; i < size; i++) {
+					boxed[i] = i;
+				}
+				for(Operation op : ops) {
+					for(Order order : orders) {
+						Result r = run(IMPLEMENTATIONS.get(impl), op, order, boxed, warmup, iterations);
+						System.out.println(String.format(Locale.ROOT,
+								"%-12s %-7s %-12s %9d %14.0f %9d %9d %9d %9d %11d %10.1f %6d %8d",
+								impl, op.name().toLowerCase(Locale.ROOT), order.name().toLowerCase(Locale.ROOT),
+								size, r.opsPerSecond, percentile(r.latencies, 0.50), percentile(r.latencies, 0.90),
+								percentile(r.latencies, 0.99), percentile(r.latencies, 0.999),
+								percentile(r.latencies, 1.0), r.bytesPerOp, r.gcCount, r.gcMillis));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is the implementations method. New tree classes are benchmarked by
+	 * adding them here.
+	 * @return the trees that can be benchmarked, by name
+	 */
+	private static Map<String, Supplier<AVLTreeADT<Integer>>> implementations() {
+		Map<String, Supplier<AVLTreeADT<Integer>>> impls = new LinkedHashMap<String, Supplier<AVLTreeADT<Integer>>>();
+		impls.put("avl", AVLTree::new);
+		impls.put("avl-metrics", () -> {
+			AVLTree<Integer> tree = new AVLTree<Integer>();
+			tree.setMetrics(new AVLTreeMetrics());
+			return tree;
+		});
+		impls.put("concurrent", ConcurrentAVLTree::new);
+		impls.put("persistent", PersistentAVLTree::new);
+		impls.put("bplus", BPlusTree::new);
+		return impls;
+	}
+
+	/**
+	 * This is the run method. This method runs one benchmark for all of its
+	 * iterations.
+	 * @param factory makes an empty tree
+	 * @param op operation being measured
+	 * @param order order of the keys
+	 * @param boxed the keys 0 to n - 1, boxed once so the passes do not allocate them
+	 * @param warmup iterations run before measuring
+	 * @param iterations iterations measured
+	 * @return the numbers for the run
+	 * @throws DuplicateKeyException if a tree rejects a key it does not hold
+	 */
+	private static Result run(Supplier<AVLTreeADT<Integer>> factory, Operation op, Order order, Integer[] boxed,
+			int warmup, int iterations) throws DuplicateKeyException {
+		int n = boxed.length;
+		Integer[] keys = keys(op, order, boxed);
+		List<Integer> all = Arrays.asList(boxed);
+		Result result = new Result();
+		long[] latencies = new long[0];
+		double totalOpsPerSecond = 0;
+		double totalBytesPerOp = 0;
+		for(int iteration = -warmup; iteration < iterations; iteration++) {
+			AVLTreeADT<Integer> tree = prepare(factory, op, keys, all);
+			long[] gcBefore = gcTotals();
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			long ops = pass(tree, op, keys, n, null);
+			long elapsed = System.nanoTime() - start;
+			long allocated = allocatedBytes() - allocatedBefore;
+			long[] gcAfter = gcTotals();
+			tree = prepare(factory, op, keys, all);
+			long[] samples = new long[(int) Math.min(ops, MAX_LATENCY_SAMPLES)];
+			pass(tree, op, keys, n, samples);
+			if(iteration < 0) {
+				continue;
+			}
+			totalOpsPerSecond += ops * 1e9 / Math.max(1, elapsed);
+			totalBytesPerOp += allocatedBefore < 0 ? -1 : (double) allocated / ops;
+			result.gcCount += gcAfter[0] - gcBefore[0];
+			result.gcMillis += gcAfter[1] - gcBefore[1];
+			int kept = latencies.length;
+			latencies = Arrays.copyOf(latencies, kept + samples.length);
+			System.arraycopy(samples, 0, latencies, kept, samples.length);
+		}
+		Arrays.sort(latencies);
+		result.opsPerSecond = totalOpsPerSecond / Math.max(1, iterations);
+		result.bytesPerOp = totalBytesPerOp / Math.max(1, iterations);
+		result.latencies = latencies;
+		return result;
+	}
+
+	/**
+	 * This is the prepare method. Inserts start from an empty tree, search
+	 * and delete from a tree holding every key, and print and the checks
+	 * from a tree built by inserting the keys in the benchmark's order.
+	 * @param factory makes an empty tree
+	 * @param op operation being measured
+	 * @param keys keys in the benchmark's order
+	 * @param all every key, in ascending order
+	 * @return the tree the pass starts from
+	 * @throws DuplicateKeyException if a tree rejects a key it does not hold
+	 */
+	private static AVLTreeADT<Integer> prepare(Supplier<AVLTreeADT<Integer>> factory, Operation op, Integer[] keys,
+			List<Integer> all) throws DuplicateKeyException {
+		AVLTreeADT<Integer> tree = factory.get();
+		if(op == Operation.SEARCH || op == Operation.DELETE) {
+			tree.insertAll(all);
+		}
+		else if(op == Operation.PRINT || op == Operation.CHECK) {
+			for(Integer key : keys) {
+				tree.insert(key);
+			}
+		}
+		System.gc();
+		return tree;
+	}
+
+	/**
+	 * This is the pass method. When samples is given, every so many
+	 * operations is timed on its own and recorded there.
+	 * @param tree tree to run against
+	 * @param op operation being measured
+	 * @param keys keys in the benchmark's order
+	 * @param n number of keys in the tree
+	 * @param samples where latencies are recorded, or null to time nothing
+	 * @return the number of operations done
+	 * @throws DuplicateKeyException if a tree rejects a key it does not hold
+	 */
+	private static long pass(AVLTreeADT<Integer> tree, Operation op, Integer[] keys, int n, long[] samples)
+			throws DuplicateKeyException {
+		long ops = keys.length;
+		if(op == Operation.PRINT || op == Operation.CHECK) {
+			ops = Math.max(1, WHOLE_TREE_KEYS / Math.max(1, n));
+		}
+		long stride = samples == null ? Long.MAX_VALUE : (ops + samples.length - 1) / Math.max(1, samples.length);
+		int sampled = 0;
+		long found = 0;
+		for(long i = 0; i < ops; i++) {
+			boolean timed = i % stride == 0 && sampled < (samples == null ? 0 : samples.length);
+			long start = timed ? System.nanoTime() : 0;
+			switch(op) {
+				case INSERT:
+					tree.insert(keys[(int) i]);
+					break;
+				case SEARCH:
+					found += tree.search(keys[(int) i]) ? 1 : 0;
+					break;
+				case DELETE:
+					tree.delete(keys[(int) i]);
+					break;
+				case PRINT:
+					found += tree.print().length();
+					break;
+				case CHECK:
+					found += tree.checkForBalancedTree() && tree.checkForBinarySearchTree() ? 1 : 0;
+					break;
+			}
+			if(timed) {
+				samples[sampled++] = System.nanoTime() - start;
+			}
+		}
+		sink += found;
+		return ops;
+	}
+
+	/**
+	 * This is the keys method. Inserts never repeat a key, so the Zipfian
+	 * order inserts keys in the order they are first drawn and then the
+	 * keys that were never drawn, shuffled. Search and delete take the
+	 * Zipfian draws as they come, repeats and all.
+	 * @param op operation being measured
+	 * @param order order of the keys
+	 * @param boxed the keys 0 to n - 1
+	 * @return the keys in the benchmark's order
+	 */
+	static Integer[] keys(Operation op, Order order, Integer[] boxed) {
+		int n = boxed.length;
+		int[] picks = new int[n];
+		Random random = new Random(SEED);
+		switch(order) {
+			case SEQUENTIAL:
+				for(int i = 0; i < n; i++) {
+					picks[i] = i;
+				}
+				break;
+			case RANDOM:
+				for(int i = 0; i < n; i++) {
+					picks[i] = i;
+				}
+				shuffle(picks, 0, random);
+				break;
+			case ZIPFIAN:
+				zipfian(picks, random);
+				if(op == Operation.INSERT || op == Operation.PRINT || op == Operation.CHECK) {
+					distinct(picks, random);
+				}
+				break;
+			case ADVERSARIAL:
+				for(int i = 0, lo = 0, hi = n - 1; i < n; i++) {
+					picks[i] = i % 2 == 0 ? lo++ : hi--;
+				}
+				break;
+		}
+		Integer[] keys = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			keys[i] = boxed[picks[i]];
+		}
+		return keys;
+	}
+
+	/**
+	 * This is the zipfian method. It fills keys with draws over 0 to n - 1
+	 * using the generator from the YCSB benchmark, then scatters the ranks
+	 * so the hot keys are not all next to each other.
+	 * @param keys array to fill, whose length is n
+	 * @param random source of randomness
+	 */
+	private static void zipfian(int[] keys, Random random) {
+		long n = keys.length;
+		double zetan = 0;
+		for(long i = 1; i <= n; i++) {
+			zetan += 1 / Math.pow(i, ZIPF_THETA);
+		}
+		double zeta2 = 1 + Math.pow(0.5, ZIPF_THETA);
+		double alpha = 1 / (1 - ZIPF_THETA);
+		double eta = (1 - Math.pow(2.0 / n, 1 - ZIPF_THETA)) / (1 - zeta2 / zetan);
+		for(int i = 0; i < keys.length; i++) {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			long rank;
+			if(uz < 1) {
+				rank = 0;
+			}
+			else if(uz < zeta2) {
+				rank = 1;
+			}
+			else {
+				rank = Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+			}
+			keys[i] = (int) (rank * ZIPF_SCRAMBLE % n);
+		}
+	}
+
+	/**
+	 * This is the distinct method. It keeps the first draw of every key, in
+	 * order, and fills the rest of the array with the keys never drawn.
+	 * @param keys draws over 0 to n - 1, replaced by a permutation of them
+	 * @param random source of randomness for the undrawn keys
+	 */
+	private static void distinct(int[] keys, Random random) {
+		boolean[] seen = new boolean[keys.length];
+		int count = 0;
+		for(int key : keys) {
+			if(!seen[key]) {
+				seen[key] = true;
+				keys[count++] = key;
+			}
+		}
+		int drawn = count;
+		for(int key = 0; key < keys.length; key++) {
+			if(!seen[key]) {
+				keys[count++] = key;
+			}
+		}
+		shuffle(keys, drawn, random);
+	}
+
+	/**
+	 * This is the shuffle method.
+	 * @param keys array to shuffle
+	 * @param from first position to shuffle, earlier ones are left alone
+	 * @param random source of randomness
+	 */
+	private static void shuffle(int[] keys, int from, Random random) {
+		for(int i = keys.length - 1; i > from; i--) {
+			int j = from + random.nextInt(i - from + 1);
+			int swap = keys[i];
+			keys[i] = keys[j];
+			keys[j] = swap;
+		}
+	}
+
+	/**
+	 * This is the percentile method.
+	 * @param sorted sorted latencies
+	 * @param p fraction between 0 and 1
+	 * @return the latency at that fraction, or 0 if there are none
+	 */
+	private static long percentile(long[] sorted, double p) {
+		if(sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * This is the allocatedBytes method.
+	 * @return bytes allocated so far by this thread, or -1 if the JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		if(THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * This is the gcTotals method.
+	 * @return the number of collections so far and the milliseconds they took
+	 */
+	private static long[] gcTotals() {
+		long[] totals = new long[2];
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, gc.getCollectionCount());
+			totals[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return totals;
+	}
+
+	/**
+	 * This is the parse method.
+	 * @param type enum to parse into
+	 * @param value comma separated names, in any case
+	 * @return the constants named
+	 * @throws IllegalArgumentException if a name is not a constant of type
+	 */
+	private static <E extends Enum<E>> List<E> parse(Class<E> type, String value) throws IllegalArgumentException {
+		List<E> parsed = new ArrayList<E>();
+		for(String name : value.split(",")) {
+			parsed.add(Enum.valueOf(type, name.trim().toUpperCase(Locale.ROOT)));
+		}
+		return parsed;
+	}
+}